@@ -0,0 +1,1058 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Base of the HTTP fetchers, encoding requests and mapping responses independently of the HTTP client used.
+ * <p>
+ * Subclasses only send a {@link #request(URL, Map, RequestBody) request}, and override
+ * {@link #requestAsync(URL, Map, RequestBody, Executor) requestAsync} when their client can send without blocking. The mappers
+ * are built and configured once when the fetcher is created and only read from afterwards, so a single instance is safe
+ * to share across threads.
+ * <p>
+ * Only {@code HttpClientFetcher} sends without blocking. The default fetcher blocks a thread for the whole exchange, so
+ * its asynchronous requests run on the {@link #getBlockingExecutor() blocking executor}, never on the common pool.
+ */
+abstract class AbstractFetcher implements Fetcher, AsyncFetcher {
+
+    private static final int STATUS_CODE_THRESHOLD = 400;
+    private static final int MAX_PERSISTED_QUERIES = 1024;
+    private static final int MAX_BUFFERED_LENGTH = 1024 * 1024;
+    private static final int MAX_ETAGS = 1024;
+    private static final int NOT_MODIFIED = 304;
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String JSON = "application/json";
+    private static final String ETAG = "ETag";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String PERSISTED_QUERY_NOT_FOUND = "PersistedQueryNotFound";
+    private static final String PERSISTED_QUERY_NOT_FOUND_CODE = "PERSISTED_QUERY_NOT_FOUND";
+    private static final String PERSISTED_QUERY_NOT_SUPPORTED = "PersistedQueryNotSupported";
+    private static final String PERSISTED_QUERY_NOT_SUPPORTED_CODE = "PERSISTED_QUERY_NOT_SUPPORTED";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int HEX_DIGIT_BITS = 4;
+    private static final int HEX_DIGIT_MASK = 0xf;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private final ObjectMapperFactory objectMapperFactory;
+    private final ObjectMapper mapper;
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private final ConcurrentMap<Class<?>, ObjectReader> binaryReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private final ReentrantLock persistedQueryLock = new ReentrantLock();
+    private final LinkedHashMap<String, Map<String, Object>> persistedQueryExtensions =
+            new LinkedHashMap<String, Map<String, Object>>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                    return size() > MAX_PERSISTED_QUERIES;
+                }
+            };
+    private final Set<String> persistedQueriesUnsupported =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final boolean persistedQueries;
+    private final boolean httpGet;
+    private final int maxGetUrlLength;
+    private final int compressionThreshold;
+    private final BinaryFormat binaryFormat;
+    private final Executor blockingExecutor;
+    private final RequestBatcher batcher;
+    private final ETagStore eTags = new ETagStore(MAX_ETAGS);
+
+    /**
+     * @param objectMapperFactory factory of the mappers serializing requests and deserializing responses
+     * @param persistedQueries true to send automatic persisted queries
+     * @param httpGet true to send queries as GET requests
+     * @param maxGetUrlLength length of the url above which queries are sent as POST requests
+     * @param compressionThreshold length of the request body above which it is gzipped, or -1 to never compress it
+     * @param binaryFormat binary format preferred over JSON for responses, or null to only accept JSON
+     * @param batchWindow window and size of the batches posted requests are sent in, or null to send them one by one
+     * @param blockingExecutor executor blocking requests are sent on when no executor is given, or null for
+     *     {@link FutureUtil#BLOCKING_EXECUTOR}
+     */
+    AbstractFetcher(ObjectMapperFactory objectMapperFactory, boolean persistedQueries, boolean httpGet,
+                    int maxGetUrlLength, int compressionThreshold, BinaryFormat binaryFormat,
+                    RequestBatcher.Window batchWindow, Executor blockingExecutor) {
+        this.persistedQueries = persistedQueries;
+        this.httpGet = httpGet;
+        this.maxGetUrlLength = maxGetUrlLength;
+        this.compressionThreshold = compressionThreshold;
+        this.binaryFormat = binaryFormat;
+        if (blockingExecutor != null) {
+            this.blockingExecutor = blockingExecutor;
+        } else {
+            this.blockingExecutor = FutureUtil.BLOCKING_EXECUTOR;
+        }
+        if (batchWindow != null) {
+            this.batcher = new RequestBatcher(this, batchWindow);
+        } else {
+            this.batcher = null;
+        }
+        this.objectMapperFactory = objectMapperFactory;
+        this.mapper = newMapper(objectMapperFactory);
+    }
+
+    /**
+     * Creates the mapper serializing requests and binding responses into {@code Wrapper<T>}.
+     *
+     * @param objectMapperFactory factory of the serialization and deserialization mappers
+     * @return ObjectMapper
+     */
+    static ObjectMapper newMapper(ObjectMapperFactory objectMapperFactory) {
+        ObjectMapper mapper = objectMapperFactory.newSerializerMapper();
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(Resource.class, new Deserializer<Object>(Object.class,
+                objectMapperFactory.newDeserializerMapper()));
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    /**
+     * Sends a POST request with the body, or a GET request when there is no body.
+     *
+     * @param url url of the GraphQL server, carrying the whole request for GET requests
+     * @param headers headers of the request
+     * @param body request body, written once, or null to send a GET request
+     * @return RawResponse
+     * @throws IOException if the request can't be sent or the response can't be read
+     */
+    abstract RawResponse request(URL url, Map<String, String> headers, RequestBody body) throws IOException;
+
+    /**
+     * @return executor blocking requests and reads are run on when no executor is given
+     */
+    Executor getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    /**
+     * @return factory of the mappers of the fetcher
+     */
+    ObjectMapperFactory getObjectMapperFactory() {
+        return objectMapperFactory;
+    }
+
+    /**
+     * @return mapper serializing requests and binding responses into {@code Wrapper<T>}, see {@link #newMapper}
+     */
+    ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Returns the library's own fetcher sending the requests of the fetcher, looking through the caching and
+     * coalescing fetchers wrapping it.
+     *
+     * @param fetcher fetcher of a template
+     * @return AbstractFetcher, or null when the requests are sent by a custom fetcher
+     */
+    static AbstractFetcher transportOf(Fetcher fetcher) {
+        Fetcher unwrapped = fetcher;
+        while (true) {
+            if (unwrapped instanceof AbstractFetcher) {
+                return (AbstractFetcher) unwrapped;
+            } else if (unwrapped instanceof CachingFetcher) {
+                unwrapped = ((CachingFetcher) unwrapped).getDelegate();
+            } else if (unwrapped instanceof SingleFlightFetcher) {
+                unwrapped = ((SingleFlightFetcher) unwrapped).getDelegate();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return length of the request body above which it is gzipped, or -1 when bodies are never compressed
+     */
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @return value of the {@code Accept} request header
+     */
+    String getAccept() {
+        if (binaryFormat == null) {
+            return JSON;
+        }
+        return binaryFormat.getAccept();
+    }
+
+    /**
+     * @param length length of the encoded request body
+     * @return true when the body should be sent gzipped
+     */
+    boolean compresses(long length) {
+        return compressionThreshold >= 0 && length > compressionThreshold;
+    }
+
+    public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) throws GraphQLException {
+        if (!sendsPersistedQuery(requestEntity)) {
+            return exchange(requestEntity, null, responseClass);
+        }
+        Request request = persistedQueryRequest(requestEntity, false);
+        Error[] errors;
+        try {
+            GraphQLResponseEntity<T> responseEntity = exchange(requestEntity, request, responseClass);
+            errors = responseEntity.getErrors();
+            if (!isPersistedQueryError(errors)) {
+                return responseEntity;
+            }
+        } catch (GraphQLException exception) {
+            errors = exception.getErrors();
+            if (!isPersistedQueryError(errors)) throw exception;
+        }
+        return exchange(requestEntity, persistedQueryRetry(requestEntity, errors), responseClass);
+    }
+
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(final GraphQLRequestEntity requestEntity,
+                                                                     final Class<T> responseClass, final Executor executor) {
+        if (!sendsPersistedQuery(requestEntity)) {
+            return exchangeAsync(requestEntity, null, responseClass, executor);
+        }
+        Request request = persistedQueryRequest(requestEntity, false);
+        return exchangeAsync(requestEntity, request, responseClass, executor).handle(
+                new BiFunction<GraphQLResponseEntity<T>, Throwable, CompletableFuture<GraphQLResponseEntity<T>>>() {
+                    @Override
+                    public CompletableFuture<GraphQLResponseEntity<T>> apply(GraphQLResponseEntity<T> responseEntity,
+                                                                            Throwable throwable) {
+                        if (throwable == null && !isPersistedQueryError(responseEntity.getErrors())) {
+                            return CompletableFuture.completedFuture(responseEntity);
+                        }
+                        Throwable cause = unwrap(throwable);
+                        if (cause != null && !(cause instanceof GraphQLException
+                                && isPersistedQueryError(((GraphQLException) cause).getErrors()))) {
+                            return FutureUtil.failedFuture(cause);
+                        }
+                        Error[] errors;
+                        if (cause == null) {
+                            errors = responseEntity.getErrors();
+                        } else {
+                            errors = ((GraphQLException) cause).getErrors();
+                        }
+                        return exchangeAsync(requestEntity, persistedQueryRetry(requestEntity, errors), responseClass,
+                                executor);
+                    }
+                }).thenCompose(
+                new Function<CompletableFuture<GraphQLResponseEntity<T>>, CompletableFuture<GraphQLResponseEntity<T>>>() {
+                    @Override
+                    public CompletableFuture<GraphQLResponseEntity<T>> apply(CompletableFuture<GraphQLResponseEntity<T>> future) {
+                        return future;
+                    }
+                });
+    }
+
+    /**
+     * Sends the request and opens a reader over a list of its data, parsed as the response body is read. The request
+     * is always posted with its query, so batching, GET requests and persisted queries don't apply to it.
+     *
+     * @param requestEntity request entity being sent
+     * @param elementReader reader bound to the class of the elements
+     * @param errorsReader reader bound to {@code Error[]}
+     * @param path dot separated path of the list from the data
+     * @return ElementReader\<E>
+     * @throws GraphQLException if the request fails, the status is an error status or the response has errors before
+     *     its data
+     */
+    <E> ElementReader<E> openElements(GraphQLRequestEntity requestEntity, ObjectReader elementReader,
+                                      ObjectReader errorsReader, String path) throws GraphQLException {
+        RawResponse response;
+        try {
+            response = request(requestEntity.getUrl(), requestEntity.getHeaders(), encodeRequest(requestEntity, null));
+        } catch (Exception exception) {
+            throw toGraphQLException(exception, null);
+        }
+        if (response.getStatus() >= STATUS_CODE_THRESHOLD) {
+            // Reading the whole body fails with the status, along with the errors of the body
+            mapResponse(response, Object.class);
+        }
+        try {
+            JsonParser parser = readerFor(Object.class, response.getHeader(CONTENT_TYPE)).getFactory()
+                    .createParser(openBody(response));
+            return ElementReader.ofDocument(parser, elementReader, errorsReader, path);
+        } catch (Exception exception) {
+            response.close();
+            throw toGraphQLException(exception, response);
+        }
+    }
+
+    /**
+     * Sends the request without blocking the calling thread. The default implementation runs the blocking
+     * {@link #request(URL, Map, RequestBody) request} on the executor.
+     *
+     * @param url url of the GraphQL server, carrying the whole request for GET requests
+     * @param headers headers of the request
+     * @param body request body, written once, or null to send a GET request
+     * @param executor executor to run on, or null for the {@link #getBlockingExecutor() blocking executor}
+     * @return CompletableFuture\<RawResponse>
+     */
+    CompletableFuture<RawResponse> requestAsync(final URL url, final Map<String, String> headers, final RequestBody body,
+                                                Executor executor) {
+        Supplier<RawResponse> supplier = new Supplier<RawResponse>() {
+            @Override
+            public RawResponse get() {
+                try {
+                    return request(url, headers, body);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }
+        };
+        if (executor == null) {
+            return CompletableFuture.supplyAsync(supplier, blockingExecutor);
+        }
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
+    /**
+     * Sends a single request and maps the response.
+     *
+     * @param requestEntity request entity being sent
+     * @param request request body to send, or null to send the query and variables of the entity
+     * @param responseClass class of the expected response resource
+     * @return GraphQLResponseEntity\<T>
+     */
+    private <T> GraphQLResponseEntity<T> exchange(GraphQLRequestEntity requestEntity, Request request,
+                                                  Class<T> responseClass) throws GraphQLException {
+        Call call;
+        RawResponse response;
+        try {
+            call = newCall(requestEntity, request, responseClass);
+            if (batcher != null && call.body != null) {
+                return FutureUtil.await(batcher.submit(call.url, call.headers, call.body, responseClass));
+            }
+            response = request(call.url, call.headers, call.body);
+        } catch (Exception exception) {
+            throw toGraphQLException(exception, null);
+        }
+        return complete(call, response, responseClass);
+    }
+
+    private <T> CompletableFuture<GraphQLResponseEntity<T>> exchangeAsync(GraphQLRequestEntity requestEntity,
+                                                                          Request request, final Class<T> responseClass,
+                                                                          Executor executor) {
+        final Call call;
+        CompletableFuture<RawResponse> response;
+        try {
+            call = newCall(requestEntity, request, responseClass);
+            if (batcher != null && call.body != null) {
+                return FutureUtil.dependent(batcher.submit(call.url, call.headers, call.body, responseClass));
+            }
+            response = requestAsync(call.url, call.headers, call.body, executor);
+        } catch (Exception exception) {
+            return FutureUtil.failedFuture(toGraphQLException(exception, null));
+        }
+        BiFunction<RawResponse, Throwable, GraphQLResponseEntity<T>> mapper =
+                new BiFunction<RawResponse, Throwable, GraphQLResponseEntity<T>>() {
+                    @Override
+                    public GraphQLResponseEntity<T> apply(RawResponse rawResponse, Throwable throwable) {
+                        if (throwable != null) {
+                            throw toGraphQLException(unwrap(throwable), null);
+                        }
+                        return complete(call, rawResponse, responseClass);
+                    }
+                };
+        if (executor == null) {
+            return response.handle(mapper);
+        }
+        return response.handleAsync(mapper, executor);
+    }
+
+    /**
+     * Prepares the HTTP request: queries are sent as GET requests carrying the request in the url when GET requests are
+     * enabled and the url isn't too long, with the entity tag of the previous response if there is one. Any other
+     * request is posted, as are queries with variables that can only be written once.
+     *
+     * @param requestEntity request entity being sent
+     * @param request request body to send, or null to send the query and variables of the entity
+     * @param responseClass class of the expected response resource
+     * @return Call
+     */
+    private Call newCall(GraphQLRequestEntity requestEntity, Request request, Class<?> responseClass) throws IOException {
+        if (httpGet && !requestEntity.isMutation() && !requestEntity.hasOneShotVariables()) {
+            Request getRequest = request;
+            if (getRequest == null) {
+                getRequest = new Request();
+                getRequest.setQuery(requestEntity.getRequest());
+                getRequest.setVariables(requestEntity.getVariables());
+            }
+            URL url = getUrl(requestEntity.getUrl(), getRequest);
+            if (url != null) {
+                RequestKey key = RequestKey.of(url.toString(), requestEntity.getHeaders(), responseClass);
+                ETagStore.TaggedResponse tagged = eTags.get(key);
+                Map<String, String> headers = requestEntity.getHeaders();
+                if (tagged != null) {
+                    headers = new HashMap<String, String>(headers);
+                    headers.put(IF_NONE_MATCH, tagged.getETag());
+                }
+                return new Call(url, headers, null, key, tagged);
+            }
+        }
+        return new Call(requestEntity.getUrl(), requestEntity.getHeaders(), encodeRequest(requestEntity, request), null,
+                null);
+    }
+
+    /**
+     * Returns the url carrying the request in its {@code query}, {@code variables} and {@code extensions} parameters.
+     *
+     * @param url url of the GraphQL server
+     * @param request request to send
+     * @return URL, or null if it is longer than the maximum length of GET urls
+     */
+    private URL getUrl(URL url, Request request) throws IOException {
+        StringBuilder builder = new StringBuilder(url.toString());
+        char separator = '?';
+        if (url.getQuery() != null) {
+            separator = '&';
+        }
+        if (request.getQuery() != null) {
+            appendParameter(builder, separator, "query", request.getQuery());
+            separator = '&';
+        }
+        if (request.getVariables() != null && !request.getVariables().isEmpty()) {
+            appendParameter(builder, separator, "variables", mapper.writeValueAsString(request.getVariables()));
+            separator = '&';
+        }
+        if (request.getExtensions() != null) {
+            appendParameter(builder, separator, "extensions", mapper.writeValueAsString(request.getExtensions()));
+        }
+        if (builder.length() > maxGetUrlLength) {
+            return null;
+        }
+        return new URL(builder.toString());
+    }
+
+    private static void appendParameter(StringBuilder builder, char separator, String name, String value)
+            throws IOException {
+        builder.append(separator).append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+    }
+
+    /**
+     * Maps the response of the call. Successful GET responses carrying an entity tag are read into memory and their
+     * body is stored along with the tag, so {@code 304 Not Modified} is answered with a new entity bound from the stored
+     * body, with the headers of the {@code 304} response. Callers never share an entity and may modify it.
+     *
+     * @param call call the response answers
+     * @param response response returned by the HTTP client
+     * @param responseClass class of the expected response resource
+     * @return GraphQLResponseEntity\<T>
+     */
+    private <T> GraphQLResponseEntity<T> complete(Call call, RawResponse response, Class<T> responseClass)
+            throws GraphQLException {
+        if (response.getStatus() == NOT_MODIFIED && call.tagged != null) {
+            response.close();
+            return bind(response, call.tagged.getBody(), call.tagged.getContentType(), responseClass);
+        }
+        if (call.key == null) {
+            return mapResponse(response, responseClass);
+        }
+        String eTag = response.getHeader(ETAG);
+        if (eTag == null || response.getStatus() >= STATUS_CODE_THRESHOLD) {
+            if (call.tagged != null) {
+                eTags.remove(call.key);
+            }
+            return mapResponse(response, responseClass);
+        }
+        byte[] body;
+        try {
+            body = readBody(response);
+        } catch (Exception exception) {
+            response.close();
+            throw toGraphQLException(exception, response);
+        }
+        String contentType = response.getHeader(CONTENT_TYPE);
+        GraphQLResponseEntity<T> responseEntity = bind(response, body, contentType, responseClass);
+        boolean failed = responseEntity.getErrors() != null && responseEntity.getErrors().length > 0;
+        if (!failed && body.length <= MAX_BUFFERED_LENGTH) {
+            eTags.put(call.key, eTag, body, contentType);
+        } else if (call.tagged != null) {
+            eTags.remove(call.key);
+        }
+        return responseEntity;
+    }
+
+    /**
+     * Binds a response entity from a body read beforehand.
+     *
+     * @param response response the status and headers of the entity are taken from
+     * @param body decoded response body
+     * @param contentType content type of the body
+     * @param responseClass class of the expected response resource
+     * @return GraphQLResponseEntity\<T>
+     * @throws GraphQLException if the status is an error status or the body can't be parsed
+     */
+    private <T> GraphQLResponseEntity<T> bind(RawResponse response, byte[] body, String contentType,
+                                              Class<T> responseClass) throws GraphQLException {
+        try {
+            Wrapper<T> wrapper = readerFor(responseClass, contentType).readValue(body);
+            return toResponseEntity(response, wrapper);
+        } catch (Exception exception) {
+            throw toGraphQLException(exception, response);
+        }
+    }
+
+    /**
+     * Reads the response body and maps it to a response entity.
+     *
+     * @param response response returned by the HTTP client
+     * @param responseClass class of the expected response resource
+     * @return GraphQLResponseEntity\<T>
+     * @throws GraphQLException if the status is an error status or the body can't be read
+     */
+    private <T> GraphQLResponseEntity<T> mapResponse(RawResponse response, Class<T> responseClass) throws GraphQLException {
+        try {
+            return toResponseEntity(response, deserializeResponse(response, responseClass));
+        } catch (Exception exception) {
+            throw toGraphQLException(exception, response);
+        }
+    }
+
+    /**
+     * @param response response the wrapper was read from
+     * @param wrapper data and errors of a single request
+     * @return GraphQLResponseEntity\<T>
+     * @throws GraphQLException if the status is an error status
+     */
+    private static <T> GraphQLResponseEntity<T> toResponseEntity(RawResponse response, Wrapper<T> wrapper)
+            throws GraphQLException {
+        if (response.getStatus() >= STATUS_CODE_THRESHOLD) {
+            GraphQLException graphQLException = new GraphQLException(response.getMessage());
+            graphQLException.setStatus(Integer.toString(response.getStatus()));
+            graphQLException.setErrors(wrapper.getErrors());
+            throw graphQLException;
+        }
+
+        GraphQLResponseEntity<T> graphQLResponseEntity = new GraphQLResponseEntity<T>();
+        graphQLResponseEntity.setErrors(wrapper.getErrors());
+        if (wrapper.getData() != null) {
+            graphQLResponseEntity.setHeaders(response.getHeaders());
+            graphQLResponseEntity.setResponse(wrapper.getData().getResource());
+        }
+        return graphQLResponseEntity;
+    }
+
+    /**
+     * Sends a batch of requests as a JSON array, completing each request with its own element of the array response. A
+     * batch of a single request is sent as is. An error status fails every request of the batch.
+     *
+     * @param url url of the GraphQL server
+     * @param headers headers shared by the requests
+     * @param batch requests of the batch, in the order of the array
+     */
+    void sendBatch(URL url, Map<String, String> headers, final List<RequestBatcher.Pending> batch) {
+        CompletableFuture<RawResponse> response;
+        try {
+            RequestBody body = batch.get(0).getBody();
+            if (batch.size() > 1) {
+                body = encodeBatch(batch);
+            }
+            response = requestAsync(url, headers, body, null);
+        } catch (Exception exception) {
+            failBatch(batch, toGraphQLException(exception, null));
+            return;
+        }
+        response.whenComplete(new BiConsumer<RawResponse, Throwable>() {
+            @Override
+            public void accept(RawResponse rawResponse, Throwable throwable) {
+                if (throwable != null) {
+                    failBatch(batch, toGraphQLException(unwrap(throwable), null));
+                } else {
+                    completeBatch(rawResponse, batch);
+                }
+            }
+        });
+    }
+
+    private static RequestBody encodeBatch(List<RequestBatcher.Pending> batch) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) outputStream.write(',');
+            batch.get(i).getBody().writeTo(outputStream);
+        }
+        outputStream.write(']');
+        return RequestBody.of(outputStream.toByteArray());
+    }
+
+    private void completeBatch(RawResponse response, List<RequestBatcher.Pending> batch) {
+        try {
+            if (batch.size() == 1 || response.getStatus() >= STATUS_CODE_THRESHOLD) {
+                // A single request, or an error answered for the whole batch, is answered with a single object
+                GraphQLResponseEntity<?> responseEntity = mapResponse(response, batch.get(0).getResponseClass());
+                batch.get(0).getFuture().complete(responseEntity);
+                return;
+            }
+            String contentType = response.getHeader(CONTENT_TYPE);
+            InputStream body = openBody(response);
+            try {
+                JsonParser parser = readerFor(Object.class, contentType).getFactory().createParser(body);
+                try {
+                    if (parser.nextToken() != JsonToken.START_ARRAY) {
+                        throw new IOException("The batch response is not an array");
+                    }
+                    for (RequestBatcher.Pending pending : batch) {
+                        if (parser.nextToken() != JsonToken.START_OBJECT) {
+                            throw new IOException("The batch response has fewer results than requests");
+                        }
+                        Wrapper<?> wrapper = readerFor(pending.getResponseClass(), contentType).readValue(parser);
+                        pending.getFuture().complete(toResponseEntity(response, wrapper));
+                    }
+                } finally {
+                    parser.close();
+                }
+            } finally {
+                body.close();
+            }
+        } catch (Exception exception) {
+            response.close();
+            failBatch(batch, toGraphQLException(exception, response));
+        }
+    }
+
+    private static void failBatch(List<RequestBatcher.Pending> batch, GraphQLException exception) {
+        for (RequestBatcher.Pending pending : batch) {
+            // Requests already answered by their element of the array keep their response
+            pending.getFuture().completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Wraps a failure into a GraphQLException carrying the response status, if a response was received.
+     *
+     * @param exception failure of the request
+     * @param response response received before the failure, may be null
+     * @return GraphQLException
+     */
+    private static GraphQLException toGraphQLException(Throwable exception, RawResponse response) {
+        if (exception instanceof GraphQLException) return (GraphQLException) exception;
+        GraphQLException err = new GraphQLException();
+        if (response != null) {
+            err.setStatus(Integer.toString(response.getStatus()));
+            err.setMessage(response.getMessage());
+        }
+        err.setDescription(exception.getMessage());
+        return err;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * @param requestEntity request entity being sent
+     * @return true unless persisted queries are off, the server at the url of the request doesn't support them, or the
+     *     variables of the request can only be written once
+     */
+    private boolean sendsPersistedQuery(GraphQLRequestEntity requestEntity) {
+        return persistedQueries && !requestEntity.hasOneShotVariables()
+                && !persistedQueriesUnsupported.contains(requestEntity.getUrl().toString());
+    }
+
+    /**
+     * Returns the request retrying a persisted query the server answered with an error about. A server that doesn't
+     * know the hash yet is sent the query along with it to register it. A server that doesn't support persisted queries
+     * is sent the plain query, and persisted queries are no longer sent to its url.
+     *
+     * @param requestEntity request entity being sent
+     * @param errors errors answering the persisted query
+     * @return Request, or null to send the plain query
+     */
+    private Request persistedQueryRetry(GraphQLRequestEntity requestEntity, Error[] errors) {
+        if (hasError(errors, PERSISTED_QUERY_NOT_SUPPORTED, PERSISTED_QUERY_NOT_SUPPORTED_CODE)) {
+            persistedQueriesUnsupported.add(requestEntity.getUrl().toString());
+            return null;
+        }
+        return persistedQueryRequest(requestEntity, true);
+    }
+
+    private Request persistedQueryRequest(GraphQLRequestEntity requestEntity, boolean withQuery) {
+        String query = requestEntity.getRequest();
+        Request request = new Request();
+        if (withQuery) {
+            request.setQuery(query);
+        }
+        request.setVariables(requestEntity.getVariables());
+        request.setExtensions(persistedQueryExtensions(query));
+        return request;
+    }
+
+    /**
+     * Returns the body of the request. Bodies of prepared requests are encoded once and reused, any other body is
+     * serialized as UTF-8 JSON only when it is written.
+     *
+     * @param requestEntity request entity being sent
+     * @param request request body to send, or null to send the query and variables of the entity
+     * @return RequestBody
+     */
+    private RequestBody encodeRequest(GraphQLRequestEntity requestEntity, Request request) throws IOException {
+        if (request == null) {
+            PreparedGraphQLRequest prepared = requestEntity.getPrepared();
+            if (prepared != null) {
+                return RequestBody.of(prepared.getEncodedBody(mapper));
+            }
+            request = new Request();
+            request.setQuery(requestEntity.getRequest());
+            request.setVariables(requestEntity.getVariables());
+        }
+        return RequestBody.of(mapper, request);
+    }
+
+    /**
+     * Returns the {@code extensions} of a persisted query request, hashing the query only the first time it is sent.
+     * The hashes of the most recently sent queries are kept, so queries built as strings per call don't crowd out the
+     * queries sent all the time.
+     *
+     * @param query query text
+     * @return Map\<String, Object>
+     */
+    private Map<String, Object> persistedQueryExtensions(String query) {
+        Map<String, Object> extensions;
+        persistedQueryLock.lock();
+        try {
+            extensions = persistedQueryExtensions.get(query);
+        } finally {
+            persistedQueryLock.unlock();
+        }
+        if (extensions == null) {
+            Map<String, Object> persistedQuery = new LinkedHashMap<String, Object>();
+            persistedQuery.put("version", 1);
+            persistedQuery.put("sha256Hash", sha256(query));
+            extensions = Collections.<String, Object>singletonMap("persistedQuery",
+                    Collections.unmodifiableMap(persistedQuery));
+            persistedQueryLock.lock();
+            try {
+                persistedQueryExtensions.put(query, extensions);
+            } finally {
+                persistedQueryLock.unlock();
+            }
+        }
+        return extensions;
+    }
+
+    private static String sha256(String query) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not available", exception);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> HEX_DIGIT_BITS) & HEX_DIGIT_MASK];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & HEX_DIGIT_MASK];
+        }
+        return new String(hex);
+    }
+
+    private static boolean isPersistedQueryError(Error[] errors) {
+        return hasError(errors, PERSISTED_QUERY_NOT_FOUND, PERSISTED_QUERY_NOT_FOUND_CODE)
+                || hasError(errors, PERSISTED_QUERY_NOT_SUPPORTED, PERSISTED_QUERY_NOT_SUPPORTED_CODE);
+    }
+
+    private static boolean hasError(Error[] errors, String message, String code) {
+        if (errors == null) {
+            return false;
+        }
+        for (Error error : errors) {
+            if (message.equals(error.getMessage())) return true;
+            if (error.getExtensions() != null && code.equals(error.getExtensions().get("code"))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses the response body from its bytes, letting Jackson use its UTF-8 byte parser instead of decoding characters
+     * through a reader. Bodies of a known length are read into a pooled buffer first; bodies of an unknown length or
+     * too large to pool are parsed from the stream, with the parser recycling its own buffers. Bodies compressed with
+     * gzip or deflate are inflated as they are parsed, without holding the inflated body in memory.
+     *
+     * @param response response returned by the HTTP client
+     * @param responseClass class of the expected response resource
+     * @return Wrapper\<T>
+     * @throws IOException if the body can't be read or parsed
+     */
+    private <T> Wrapper<T> deserializeResponse(RawResponse response, Class<T> responseClass) throws IOException {
+        ObjectReader reader = readerFor(responseClass, response.getHeader(CONTENT_TYPE));
+        String contentEncoding = response.getHeader(CompressionUtil.CONTENT_ENCODING);
+        boolean encoded = CompressionUtil.isEncoded(contentEncoding);
+        InputStream body = response.getBody();
+        if (response.getBytes() != null) {
+            if (!encoded) {
+                return reader.readValue(response.getBytes());
+            }
+            body = new ByteArrayInputStream(response.getBytes());
+        }
+        if (body == null) {
+            throw new IOException("The response has no body");
+        }
+        try {
+            if (encoded) {
+                // The Content-Length is the compressed length, so the body is inflated straight into the parser
+                InputStream decoded = CompressionUtil.decode(body, contentEncoding);
+                try {
+                    return reader.readValue(decoded);
+                } finally {
+                    decoded.close();
+                }
+            }
+            int contentLength = response.getContentLength();
+            if (contentLength < 0 || contentLength > MAX_BUFFERED_LENGTH) {
+                return reader.readValue(body);
+            }
+            ResponseBuffer buffer = ResponseBuffer.read(body, contentLength);
+            try {
+                return reader.readValue(buffer.getBytes(), 0, buffer.getLength());
+            } finally {
+                buffer.release();
+            }
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Reads the whole decoded response body into an array of its exact length.
+     *
+     * @param response response returned by the HTTP client
+     * @return byte[]
+     * @throws IOException if the body can't be read
+     */
+    private static byte[] readBody(RawResponse response) throws IOException {
+        InputStream body = openBody(response);
+        try {
+            ResponseBuffer buffer = ResponseBuffer.read(body, response.getContentLength());
+            try {
+                return Arrays.copyOf(buffer.getBytes(), buffer.getLength());
+            } finally {
+                buffer.release();
+            }
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * @param response response returned by the HTTP client
+     * @return the body stream, inflated if the body is compressed
+     * @throws IOException if the response has no body or its encoding isn't supported
+     */
+    private static InputStream openBody(RawResponse response) throws IOException {
+        InputStream body = response.getBody();
+        if (response.getBytes() != null) {
+            body = new ByteArrayInputStream(response.getBytes());
+        }
+        if (body == null) {
+            throw new IOException("The response has no body");
+        }
+        String contentEncoding = response.getHeader(CompressionUtil.CONTENT_ENCODING);
+        if (CompressionUtil.isEncoded(contentEncoding)) {
+            return CompressionUtil.decode(body, contentEncoding);
+        }
+        return body;
+    }
+
+    /**
+     * Returns the reader bound to {@code Wrapper<T>} for the response class, creating and caching it on first use.
+     * Responses in the binary format are read by the same reader switched to the format's parsers, so they are bound
+     * exactly as JSON responses are.
+     *
+     * @param responseClass class of the expected response resource
+     * @param contentType value of the {@code Content-Type} response header, may be null
+     * @return ObjectReader
+     */
+    private ObjectReader readerFor(Class<?> responseClass, String contentType) {
+        ObjectReader reader = readers.get(responseClass);
+        if (reader == null) {
+            JavaType type = mapper.getTypeFactory().constructParametricType(Wrapper.class, responseClass);
+            ObjectReader created = mapper.readerFor(type);
+            reader = readers.putIfAbsent(responseClass, created);
+            if (reader == null) reader = created;
+        }
+        if (binaryFormat == null || !binaryFormat.matches(contentType)) {
+            return reader;
+        }
+        ObjectReader binaryReader = binaryReaders.get(responseClass);
+        if (binaryReader == null) {
+            ObjectReader created = reader.with(binaryFormat.getFactory());
+            binaryReader = binaryReaders.putIfAbsent(responseClass, created);
+            if (binaryReader == null) binaryReader = created;
+        }
+        return binaryReader;
+    }
+
+    /**
+     * HTTP request prepared for a GraphQL request, with the entity tag state of GET requests.
+     */
+    private static final class Call {
+        private final URL url;
+        private final Map<String, String> headers;
+        private final RequestBody body;
+        private final RequestKey key;
+        private final ETagStore.TaggedResponse tagged;
+
+        Call(URL url, Map<String, String> headers, RequestBody body, RequestKey key, ETagStore.TaggedResponse tagged) {
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+            this.key = key;
+            this.tagged = tagged;
+        }
+    }
+
+    /**
+     * Status, headers and body of an HTTP response, as returned by the HTTP client.
+     */
+    static final class RawResponse {
+        private final int status;
+        private final String message;
+        private final Map<String, List<String>> headers;
+        private final InputStream body;
+        private final byte[] bytes;
+
+        /**
+         * @param status HTTP status code
+         * @param message HTTP reason phrase, may be null
+         * @param headers response headers
+         * @param body response body stream, closed once the response is read
+         */
+        RawResponse(int status, String message, Map<String, List<String>> headers, InputStream body) {
+            this.status = status;
+            this.message = message;
+            this.headers = headers;
+            this.body = body;
+            this.bytes = null;
+        }
+
+        /**
+         * @param status HTTP status code
+         * @param message HTTP reason phrase, may be null
+         * @param headers response headers
+         * @param bytes response body already read by the client
+         */
+        RawResponse(int status, String message, Map<String, List<String>> headers, byte[] bytes) {
+            this.status = status;
+            this.message = message;
+            this.headers = headers;
+            this.body = null;
+            this.bytes = bytes;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        InputStream getBody() {
+            return body;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the {@code Content-Length} of the response, or -1 when it isn't known
+         */
+        int getContentLength() {
+            String contentLength = getHeader(CONTENT_LENGTH);
+            if (contentLength == null) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(contentLength.trim());
+            } catch (NumberFormatException exception) {
+                return -1;
+            }
+        }
+
+        /**
+         * @param name name of the header, compared ignoring case
+         * @return the first value of the header, or null if the response doesn't have it
+         */
+        String getHeader(String name) {
+            if (headers == null) {
+                return null;
+            }
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+                    return entry.getValue().get(0);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Closes the body stream without reading it.
+         */
+        void close() {
+            if (body == null) {
+                return;
+            }
+            try {
+                body.close();
+            } catch (IOException exception) {
+                // The body is not needed, there is nothing to recover
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ package io.aexp.nodes.graphql;
 
 public class Argument<T> extends Parameter<T> {
     private boolean optional;
+    private String type;
 
     public Argument(String key, T value) {
         this(key, value, false);
@@ -33,6 +34,20 @@ public class Argument<T> extends Parameter<T> {
         this.optional = optional;
     }
 
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Sets the GraphQL type of the argument, e.g. {@code ID!}, used to declare the variable the argument is hoisted
+     * into when the request is canonical. Takes precedence over the variableType of the {@code @GraphQLArgument}.
+     *
+     * @param type GraphQL type of the argument
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
+
     @Override
     public String toString() {
         return super.toString(this.getClass().getSimpleName(),
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Fetcher sending requests without blocking the calling thread, used by the asynchronous methods of
+ * {@link GraphQLTemplate} when the template's fetcher implements it. Other fetchers are run on the executor instead.
+ */
+public interface AsyncFetcher {
+
+    /**
+     * Sends the request, completing the returned future with the response entity, or exceptionally with a
+     * {@link io.aexp.nodes.graphql.exceptions.GraphQLException} if the request fails.
+     *
+     * @param requestEntity request entity to send
+     * @param responseClass class of the expected response resource
+     * @param executor executor the response is mapped and the future completed on, or null for the fetcher's default
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(GraphQLRequestEntity requestEntity, Class<T> responseClass,
+                                                              Executor executor);
+}
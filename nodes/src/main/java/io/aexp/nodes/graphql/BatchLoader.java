@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Loads entities by key, sending the keys requested together as a single {@link GraphQLMergedRequest merged request}.
+ * <p>
+ * Each key is bound as the value of an argument of a prepared request, e.g. the {@code id} argument of the
+ * {@code user} field, and the requests of a batch are merged into one document, so a batch of keys costs one round
+ * trip. Keys are collected until the {@link LoaderBuilder#window(long, TimeUnit) batch window} elapses, the batch is
+ * full, or {@link #dispatch()} is called. The window is 2 ms unless set; a loader built with
+ * {@link LoaderBuilder#manualDispatch() manual dispatch} only sends batches on {@link #dispatch()} or once full.
+ * <p>
+ * A loader memoizes the future of every key it loaded, so a key is never fetched twice through the same loader. It is
+ * meant to be created per scope, e.g. per incoming request, rather than shared for the lifetime of the application.
+ * Keys that failed to load are forgotten, so loading them again sends a new request.
+ *
+ * <pre>
+ * BatchLoader&lt;String, User&gt; loader = BatchLoader.Builder(User.class)
+ *     .template(graphQLTemplate)
+ *     .request(preparedUserRequest)
+ *     .argument("user", "id")
+ *     .window(2, TimeUnit.MILLISECONDS)
+ *     .build();
+ * CompletableFuture&lt;User&gt; user = loader.load("d070633a9f9");
+ * </pre>
+ *
+ * @param <K> type of the keys
+ * @param <V> class the entities are bound to
+ */
+public final class BatchLoader<K, V> {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final long DEFAULT_WINDOW_MILLIS = 2;
+
+    private final GraphQLTemplate template;
+    private final KeyBinding<V> binding;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<K, CompletableFuture<V>> memo = new HashMap<K, CompletableFuture<V>>();
+    private List<Pending<K, V>> batch;
+
+    private BatchLoader(LoaderBuilder<V> builder) {
+        this.template = builder.template;
+        this.binding = new KeyBinding<V>(builder.request, builder.dotPath, builder.argumentName, builder.responseClass);
+        if (builder.manualDispatch) {
+            this.windowNanos = 0;
+        } else {
+            this.windowNanos = builder.windowNanos;
+        }
+        this.maxBatchSize = builder.maxBatchSize;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * @param responseClass class the entities are bound to
+     * @return LoaderBuilder
+     */
+    public static <V> LoaderBuilder<V> Builder(Class<V> responseClass) {
+        return new LoaderBuilder<V>(responseClass);
+    }
+
+    /**
+     * Loads the entity of a key, from the memoized future if the key was already requested through this loader.
+     *
+     * @param key key bound to the argument
+     * @return future completed with the entity, or exceptionally with a {@link GraphQLException} if it can't be loaded
+     *     or its request has errors
+     */
+    public CompletableFuture<V> load(K key) {
+        CompletableFuture<V> future;
+        List<Pending<K, V>> full = null;
+        boolean first = false;
+        lock.lock();
+        try {
+            future = memo.get(key);
+            if (future == null) {
+                future = new CompletableFuture<V>();
+                memo.put(key, future);
+                if (batch == null) {
+                    batch = new ArrayList<Pending<K, V>>();
+                    first = true;
+                }
+                batch.add(new Pending<K, V>(key, future));
+                if (batch.size() >= maxBatchSize) {
+                    full = batch;
+                    batch = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            send(full);
+        } else if (first && windowNanos > 0) {
+            schedule();
+        }
+        // Callers get their own future, so cancelling it doesn't cancel the memoized one
+        return future.thenApply(new Function<V, V>() {
+            @Override
+            public V apply(V value) {
+                return value;
+            }
+        });
+    }
+
+    /**
+     * Loads the entities of several keys, see {@link #load(Object)}.
+     *
+     * @param keys keys bound to the argument
+     * @return futures of the entities, in the order of the keys
+     */
+    public List<CompletableFuture<V>> loadMany(List<K> keys) {
+        List<CompletableFuture<V>> futures = new ArrayList<CompletableFuture<V>>(keys.size());
+        for (K key : keys) {
+            futures.add(load(key));
+        }
+        return futures;
+    }
+
+    /**
+     * Sends the keys collected so far without waiting for the window to elapse.
+     */
+    public void dispatch() {
+        List<Pending<K, V>> pending;
+        lock.lock();
+        try {
+            pending = batch;
+            batch = null;
+        } finally {
+            lock.unlock();
+        }
+        if (pending != null) {
+            send(pending);
+        }
+    }
+
+    /**
+     * Forgets the memoized entity of a key, so loading it again sends a new request.
+     *
+     * @param key key to forget
+     */
+    public void clear(K key) {
+        lock.lock();
+        try {
+            memo.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets every memoized entity.
+     */
+    public void clearAll() {
+        lock.lock();
+        try {
+            memo.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void schedule() {
+        RequestBatcher.TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void send(final List<Pending<K, V>> pending) {
+        CompletableFuture<GraphQLMergedResponse> response;
+        try {
+            List<K> keys = new ArrayList<K>(pending.size());
+            for (Pending<K, V> entry : pending) {
+                keys.add(entry.key);
+            }
+            response = template.queryAsync(binding.merge(keys), executor);
+        } catch (RuntimeException exception) {
+            fail(pending, exception);
+            return;
+        }
+        response.whenComplete(new BiConsumer<GraphQLMergedResponse, Throwable>() {
+            @Override
+            public void accept(GraphQLMergedResponse mergedResponse, Throwable throwable) {
+                if (throwable != null) {
+                    fail(pending, throwable);
+                    return;
+                }
+                for (int index = 0; index < pending.size(); index++) {
+                    complete(pending.get(index), mergedResponse.get(index, binding.getResponseClass()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Completes the future of a key with its entity, or with the errors of its request. Errors of the request mean
+     * its fields were nulled out, even though the entity itself may still be bound.
+     */
+    private void complete(Pending<K, V> pending, GraphQLResponseEntity<V> response) {
+        Error[] errors = response.getErrors();
+        if (errors != null && errors.length > 0) {
+            GraphQLException exception = new GraphQLException(errors[0].getMessage());
+            exception.setErrors(errors);
+            fail(pending, exception);
+            return;
+        }
+        pending.future.complete(response.getResponse());
+    }
+
+    private void fail(List<Pending<K, V>> pending, Throwable throwable) {
+        for (Pending<K, V> entry : pending) {
+            fail(entry, throwable);
+        }
+    }
+
+    private void fail(Pending<K, V> pending, Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        lock.lock();
+        try {
+            if (memo.get(pending.key) == pending.future) {
+                memo.remove(pending.key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        pending.future.completeExceptionally(throwable);
+    }
+
+    /**
+     * Key waiting in a batch for its entity.
+     */
+    private static final class Pending<K, V> {
+        private final K key;
+        private final CompletableFuture<V> future;
+
+        Pending(K key, CompletableFuture<V> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+
+    public static final class LoaderBuilder<V> {
+        private final Class<V> responseClass;
+        private GraphQLTemplate template;
+        private PreparedGraphQLRequest request;
+        private String dotPath;
+        private String argumentName;
+        private long windowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WINDOW_MILLIS);
+        private boolean manualDispatch;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private Executor executor;
+
+        private LoaderBuilder(Class<V> responseClass) {
+            this.responseClass = responseClass;
+        }
+
+        /**
+         * @param template template executing the batches
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> template(GraphQLTemplate template) {
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * @param request request prepared from the class the entities are bound to, each key is bound to a copy of it
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> request(PreparedGraphQLRequest request) {
+            this.request = request;
+            return this;
+        }
+
+        /**
+         * @param dotPath path of the field taking the key as an argument, as set on {@link Arguments}
+         * @param argumentName name of the argument the key is bound to
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> argument(String dotPath, String argumentName) {
+            this.dotPath = dotPath;
+            this.argumentName = argumentName;
+            return this;
+        }
+
+        /**
+         * @param duration time keys are collected for after the first key of a batch, 2 ms by default
+         * @param unit unit of the duration
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> window(long duration, TimeUnit unit) {
+            this.windowNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Sends batches only when {@link BatchLoader#dispatch()} is called or once full, instead of after a window.
+         * Futures of keys loaded from such a loader never complete until it is dispatched.
+         *
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> manualDispatch() {
+            this.manualDispatch = true;
+            return this;
+        }
+
+        /**
+         * @param maxBatchSize number of keys sending the batch before its window elapsed, 100 by default
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param executor executor the responses are handled on, see
+         *     {@link GraphQLTemplate#executeAsync(GraphQLTemplate.GraphQLMethod, GraphQLRequestEntity, Class, Executor)}
+         * @return LoaderBuilder
+         */
+        public LoaderBuilder<V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public <K> BatchLoader<K, V> build() throws IllegalStateException {
+            if (template == null) throw new IllegalStateException("template must be set");
+            KeyBinding.validate(request, dotPath, argumentName);
+            if (maxBatchSize <= 0) throw new IllegalStateException("maxBatchSize must be positive");
+            if (windowNanos <= 0) throw new IllegalStateException("window must be positive");
+            return new BatchLoader<K, V>(this);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * Binary Jackson dataformat a fetcher asks for in the {@code Accept} header of its requests, such as CBOR or Smile.
+ * <p>
+ * The server may still answer with JSON, so only responses whose {@code Content-Type} is the media type of the format
+ * are parsed with its factory. The responses are bound by the same mapper as JSON responses, so the configuration of the
+ * {@link ObjectMapperFactory} applies to both.
+ */
+final class BinaryFormat {
+
+    private static final String JSON_FALLBACK = ", application/json;q=0.9";
+
+    private final String mediaType;
+    private final JsonFactory factory;
+
+    /**
+     * @param mediaType media type of the format, e.g. {@code application/cbor}
+     * @param factory factory of the format's parsers, e.g. {@code CBORFactory}
+     */
+    BinaryFormat(String mediaType, JsonFactory factory) {
+        this.mediaType = mediaType;
+        this.factory = factory;
+    }
+
+    JsonFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * @return value of the {@code Accept} header, preferring the format over JSON
+     */
+    String getAccept() {
+        return mediaType + JSON_FALLBACK;
+    }
+
+    /**
+     * @param contentType value of the {@code Content-Type} response header, may be null
+     * @return true when the response is encoded in this format
+     */
+    boolean matches(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int parameters = contentType.indexOf(';');
+        if (parameters >= 0) {
+            contentType = contentType.substring(0, parameters);
+        }
+        return mediaType.equalsIgnoreCase(contentType.trim());
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+/**
+ * Looks up large sets of keys by splitting them into chunks, each sent as one {@link GraphQLMergedRequest merged
+ * request} with every key bound to an argument of a prepared request.
+ * <p>
+ * Chunks are sent as the results are consumed: at most {@link LookupBuilder#parallelism(int) parallelism} chunks are
+ * in flight at once, and keys are only read from the input once their chunk is sent, so neither the keys nor the
+ * results need to fit in memory. Results are returned chunk by chunk, in the order of the keys. A chunk that failed
+ * as a whole carries its exception, while the entity of each key of a chunk that succeeded carries its own errors.
+ *
+ * <pre>
+ * BulkLookup&lt;String, User&gt; lookup = BulkLookup.Builder(User.class)
+ *     .template(graphQLTemplate)
+ *     .request(preparedUserRequest)
+ *     .argument("user", "id")
+ *     .chunkSize(200)
+ *     .parallelism(4)
+ *     .build();
+ * Iterator&lt;BulkLookup.Chunk&lt;String, User&gt;&gt; chunks = lookup.lookup(ids);
+ * </pre>
+ *
+ * @param <K> type of the keys
+ * @param <V> class the entities are bound to
+ */
+public final class BulkLookup<K, V> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private final GraphQLTemplate template;
+    private final KeyBinding<V> binding;
+    private final GraphQLTemplate.GraphQLMethod method;
+    private final int chunkSize;
+    private final int parallelism;
+    private final Executor executor;
+
+    /**
+     * @param template template executing the chunks
+     * @param binding binding of the keys to the prepared request
+     * @param method method the chunks are executed with
+     * @param chunkSize number of keys merged into one request
+     * @param parallelism number of chunks in flight at once
+     * @param executor executor the responses are handled on, may be null
+     */
+    BulkLookup(GraphQLTemplate template, KeyBinding<V> binding, GraphQLTemplate.GraphQLMethod method, int chunkSize,
+               int parallelism, Executor executor) {
+        this.template = template;
+        this.binding = binding;
+        this.method = method;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    /**
+     * @param responseClass class the entities are bound to
+     * @return LookupBuilder
+     */
+    public static <V> LookupBuilder<V> Builder(Class<V> responseClass) {
+        return new LookupBuilder<V>(responseClass);
+    }
+
+    /**
+     * Looks up the keys, see {@link #lookup(Iterator)}.
+     *
+     * @param keys keys bound to the argument
+     * @return Iterator\<Chunk\<K, V>>
+     */
+    public Iterator<Chunk<K, V>> lookup(Iterable<K> keys) {
+        return lookup(keys.iterator());
+    }
+
+    /**
+     * Looks up the keys, sending the first chunks right away. The returned iterator blocks until the next chunk is
+     * answered, and must only be used by one thread at a time. Chunks already sent keep running when the iterator is
+     * abandoned, but no new chunk is sent.
+     *
+     * @param keys keys bound to the argument, read as chunks are sent
+     * @return Iterator\<Chunk\<K, V>>
+     */
+    public Iterator<Chunk<K, V>> lookup(Iterator<K> keys) {
+        return new ChunkIterator(keys);
+    }
+
+    /**
+     * Sends a chunk, completing the future with the chunk whether it succeeded or not.
+     */
+    private CompletableFuture<Chunk<K, V>> send(final int index, final List<K> keys) {
+        CompletableFuture<GraphQLMergedResponse> response;
+        try {
+            if (method == GraphQLTemplate.GraphQLMethod.MUTATE) {
+                response = template.mutateAsync(binding.merge(keys), executor);
+            } else {
+                response = template.queryAsync(binding.merge(keys), executor);
+            }
+        } catch (RuntimeException exception) {
+            return CompletableFuture.completedFuture(new Chunk<K, V>(index, keys, null, FutureUtil.toGraphQLException(exception)));
+        }
+        return response.handle(new BiFunction<GraphQLMergedResponse, Throwable, Chunk<K, V>>() {
+            @Override
+            public Chunk<K, V> apply(GraphQLMergedResponse mergedResponse, Throwable throwable) {
+                if (throwable != null) {
+                    return new Chunk<K, V>(index, keys, null, FutureUtil.toGraphQLException(throwable));
+                }
+                List<GraphQLResponseEntity<V>> responses = new ArrayList<GraphQLResponseEntity<V>>(keys.size());
+                for (int key = 0; key < keys.size(); key++) {
+                    responses.add(mergedResponse.get(key, binding.getResponseClass()));
+                }
+                return new Chunk<K, V>(index, keys, responses, null);
+            }
+        });
+    }
+
+    /**
+     * Iterator keeping up to {@code parallelism} chunks in flight ahead of the one being consumed.
+     */
+    private final class ChunkIterator implements Iterator<Chunk<K, V>> {
+        private final Iterator<K> keys;
+        private final ArrayDeque<CompletableFuture<Chunk<K, V>>> inFlight = new ArrayDeque<CompletableFuture<Chunk<K, V>>>();
+        private int sent;
+
+        ChunkIterator(Iterator<K> keys) {
+            this.keys = keys;
+            fill();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public Chunk<K, V> next() {
+            CompletableFuture<Chunk<K, V>> next = inFlight.poll();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            // The awaited chunk still counts as in flight, so the next one is only sent once it is answered
+            Chunk<K, V> chunk = next.join();
+            fill();
+            return chunk;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void fill() {
+            while (inFlight.size() < parallelism && keys.hasNext()) {
+                List<K> chunk = new ArrayList<K>(chunkSize);
+                while (chunk.size() < chunkSize && keys.hasNext()) {
+                    chunk.add(keys.next());
+                }
+                inFlight.add(send(sent++, chunk));
+            }
+        }
+    }
+
+    /**
+     * Result of a chunk of keys.
+     *
+     * @param <K> type of the keys
+     * @param <V> class the entities are bound to
+     */
+    public static final class Chunk<K, V> {
+        private final int index;
+        private final List<K> keys;
+        private final List<GraphQLResponseEntity<V>> responses;
+        private final GraphQLException exception;
+
+        Chunk(int index, List<K> keys, List<GraphQLResponseEntity<V>> responses, GraphQLException exception) {
+            this.index = index;
+            this.keys = Collections.unmodifiableList(keys);
+            if (responses == null) {
+                this.responses = null;
+            } else {
+                this.responses = Collections.unmodifiableList(responses);
+            }
+            this.exception = exception;
+        }
+
+        /**
+         * @return index of the chunk, starting at zero
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return keys of the chunk, in input order
+         */
+        public List<K> getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return response entity of each key, at the index of the key, or null if the chunk failed
+         */
+        public List<GraphQLResponseEntity<V>> getResponses() {
+            return responses;
+        }
+
+        /**
+         * @return the exception the chunk failed with, or null if it was answered
+         */
+        public GraphQLException getException() {
+            return exception;
+        }
+
+        /**
+         * @return true if the chunk was answered, its keys may still carry errors
+         */
+        public boolean isSuccessful() {
+            return exception == null;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{" +
+                    "index=" + index +
+                    ", keys=" + keys +
+                    ", exception=" + exception +
+                    '}';
+        }
+    }
+
+    public static final class LookupBuilder<V> {
+        private final Class<V> responseClass;
+        private GraphQLTemplate template;
+        private PreparedGraphQLRequest request;
+        private String dotPath;
+        private String argumentName;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private Executor executor;
+
+        private LookupBuilder(Class<V> responseClass) {
+            this.responseClass = responseClass;
+        }
+
+        /**
+         * @param template template executing the chunks
+         * @return LookupBuilder
+         */
+        public LookupBuilder<V> template(GraphQLTemplate template) {
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * @param request request prepared from the class the entities are bound to, each key is bound to a copy of it
+         * @return LookupBuilder
+         */
+        public LookupBuilder<V> request(PreparedGraphQLRequest request) {
+            this.request = request;
+            return this;
+        }
+
+        /**
+         * @param dotPath path of the field taking the key as an argument, as set on {@link Arguments}
+         * @param argumentName name of the argument the key is bound to
+         * @return LookupBuilder
+         */
+        public LookupBuilder<V> argument(String dotPath, String argumentName) {
+            this.dotPath = dotPath;
+            this.argumentName = argumentName;
+            return this;
+        }
+
+        /**
+         * @param chunkSize number of keys merged into one request, 100 by default; keep it within the server's limits
+         *     on the number of fields or the complexity of a query
+         * @return LookupBuilder
+         */
+        public LookupBuilder<V> chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param parallelism number of chunks in flight at once, 4 by default
+         * @return LookupBuilder
+         */
+        public LookupBuilder<V> parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param executor executor the responses are handled on, see
+         *     {@link GraphQLTemplate#executeAsync(GraphQLTemplate.GraphQLMethod, GraphQLRequestEntity, Class, Executor)}
+         * @return LookupBuilder
+         */
+        public LookupBuilder<V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public <K> BulkLookup<K, V> build() throws IllegalStateException {
+            if (template == null) throw new IllegalStateException("template must be set");
+            KeyBinding.validate(request, dotPath, argumentName);
+            if (chunkSize <= 0 || parallelism <= 0) throw new IllegalStateException("chunkSize and parallelism must be positive");
+            return new BulkLookup<K, V>(template, new KeyBinding<V>(request, dotPath, argumentName, responseClass),
+                    GraphQLTemplate.GraphQLMethod.QUERY, chunkSize, parallelism, executor);
+        }
+    }
+}
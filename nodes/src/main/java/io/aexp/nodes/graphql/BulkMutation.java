@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Executes a mutation for every record of a large set, packing the records into chunks each sent as one
+ * {@link GraphQLMergedRequest merged} mutation, so a chunk of records costs one round trip instead of one per record.
+ * <p>
+ * Records are bound to a prepared mutation either as the value of an argument, typically an {@link InputObject}, or
+ * as maps of variable values. Chunks are sent with bounded concurrency and returned in input order as
+ * {@link BulkLookup.Chunk chunks}, the response entity of each record carrying its own errors. The mutations of a chunk
+ * run in order on the server, while concurrent chunks may run in any order.
+ *
+ * <pre>
+ * BulkMutation&lt;InputObject&lt;Object&gt;, CreateUser&gt; mutation = BulkMutation.Builder(CreateUser.class)
+ *     .template(graphQLTemplate)
+ *     .request(preparedCreateUser)
+ *     .argument("createUser", "input")
+ *     .chunkSize(50)
+ *     .parallelism(4)
+ *     .build();
+ * Iterator&lt;BulkLookup.Chunk&lt;InputObject&lt;Object&gt;, CreateUser&gt;&gt; chunks = mutation.execute(records);
+ * </pre>
+ *
+ * @param <R> type of the records
+ * @param <V> class the mutation results are bound to
+ */
+public final class BulkMutation<R, V> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private final BulkLookup<R, V> chunks;
+
+    private BulkMutation(BulkLookup<R, V> chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * @param responseClass class the mutation results are bound to
+     * @return MutationBuilder
+     */
+    public static <V> MutationBuilder<V> Builder(Class<V> responseClass) {
+        return new MutationBuilder<V>(responseClass);
+    }
+
+    /**
+     * Executes the mutation for the records, see {@link #execute(Iterator)}.
+     *
+     * @param records records bound to the mutation
+     * @return Iterator\<BulkLookup.Chunk\<R, V>>
+     */
+    public Iterator<BulkLookup.Chunk<R, V>> execute(Iterable<R> records) {
+        return execute(records.iterator());
+    }
+
+    /**
+     * Executes the mutation for the records, sending the first chunks right away. The returned iterator blocks until
+     * the next chunk is answered, and must only be used by one thread at a time. Records are only read as their chunk
+     * is sent.
+     *
+     * @param records records bound to the mutation
+     * @return Iterator\<BulkLookup.Chunk\<R, V>>
+     */
+    public Iterator<BulkLookup.Chunk<R, V>> execute(Iterator<R> records) {
+        return chunks.lookup(records);
+    }
+
+    public static final class MutationBuilder<V> {
+        private final Class<V> responseClass;
+        private GraphQLTemplate template;
+        private PreparedGraphQLRequest request;
+        private String dotPath;
+        private String argumentName;
+        private boolean variables;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private Executor executor;
+
+        private MutationBuilder(Class<V> responseClass) {
+            this.responseClass = responseClass;
+        }
+
+        /**
+         * @param template template executing the chunks
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> template(GraphQLTemplate template) {
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * @param request mutation prepared from the class the results are bound to, each record is bound to a copy of
+         *     it
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> request(PreparedGraphQLRequest request) {
+            this.request = request;
+            return this;
+        }
+
+        /**
+         * Binds each record as the value of an argument, e.g. an {@link InputObject}.
+         *
+         * @param dotPath path of the field taking the record as an argument, as set on {@link Arguments}
+         * @param argumentName name of the argument the record is bound to
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> argument(String dotPath, String argumentName) {
+            this.dotPath = dotPath;
+            this.argumentName = argumentName;
+            return this;
+        }
+
+        /**
+         * Binds each record, a {@code Map<String, ?>}, as the values of the variables declared by the mutation.
+         *
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> variables() {
+            this.variables = true;
+            return this;
+        }
+
+        /**
+         * @param chunkSize number of records merged into one mutation, 50 by default
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param parallelism number of chunks in flight at once, 4 by default
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param executor executor the responses are handled on, see
+         *     {@link GraphQLTemplate#executeAsync(GraphQLTemplate.GraphQLMethod, GraphQLRequestEntity, Class, Executor)}
+         * @return MutationBuilder
+         */
+        public MutationBuilder<V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public <R> BulkMutation<R, V> build() throws IllegalStateException {
+            if (template == null) throw new IllegalStateException("template must be set");
+            if (variables) {
+                KeyBinding.validate(request);
+                if (dotPath != null) throw new IllegalStateException("records are bound either to an argument or to variables");
+            } else {
+                KeyBinding.validate(request, dotPath, argumentName);
+            }
+            if (chunkSize <= 0 || parallelism <= 0) throw new IllegalStateException("chunkSize and parallelism must be positive");
+            KeyBinding<V> binding = new KeyBinding<V>(request, dotPath, argumentName, responseClass);
+            return new BulkMutation<R, V>(new BulkLookup<R, V>(template, binding, GraphQLTemplate.GraphQLMethod.MUTATE,
+                    chunkSize, parallelism, executor));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Fetcher serving queries from a {@link QueryCache} and sending the requests missing it to the wrapped fetcher.
+ * <p>
+ * Every miss or refresh registers a future in the cache's in-flight map before sending, so concurrent callers of the
+ * same key wait for that one request instead of sending their own.
+ */
+final class CachingFetcher implements Fetcher, AsyncFetcher {
+
+    private final Fetcher delegate;
+    private final QueryCache cache;
+
+    CachingFetcher(Fetcher delegate, QueryCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * @return fetcher sending the requests that aren't answered from the cache
+     */
+    Fetcher getDelegate() {
+        return delegate;
+    }
+
+    public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) throws GraphQLException {
+        if (requestEntity.isMutation()) {
+            try {
+                return delegate.send(requestEntity, responseClass);
+            } finally {
+                cache.invalidate(requestEntity.getCacheTags());
+            }
+        }
+        if (cache.ttlOf(requestEntity) <= 0) {
+            return delegate.send(requestEntity, responseClass);
+        }
+        RequestKey key = cache.keyOf(requestEntity, responseClass);
+        GraphQLResponseEntity<T> cached = cached(key, requestEntity, responseClass, null);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<GraphQLResponseEntity<?>> created = new CompletableFuture<GraphQLResponseEntity<?>>();
+        CompletableFuture<GraphQLResponseEntity<?>> existing = cache.getInFlight().putIfAbsent(key, created);
+        if (existing != null) {
+            return FutureUtil.await(existing);
+        }
+        long generation = cache.generation();
+        try {
+            GraphQLResponseEntity<T> response = delegate.send(requestEntity, responseClass);
+            cache.put(key, response, requestEntity, generation);
+            cache.getInFlight().remove(key, created);
+            created.complete(response);
+            return response;
+        } catch (Throwable throwable) {
+            cache.getInFlight().remove(key, created);
+            created.completeExceptionally(throwable);
+            throw throwable;
+        }
+    }
+
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(final GraphQLRequestEntity requestEntity,
+                                                                     Class<T> responseClass, Executor executor) {
+        if (requestEntity.isMutation()) {
+            return FutureUtil.sendAsync(delegate, requestEntity, responseClass, executor).whenComplete(
+                    new BiConsumer<GraphQLResponseEntity<T>, Throwable>() {
+                        @Override
+                        public void accept(GraphQLResponseEntity<T> response, Throwable throwable) {
+                            cache.invalidate(requestEntity.getCacheTags());
+                        }
+                    });
+        }
+        if (cache.ttlOf(requestEntity) <= 0) {
+            return FutureUtil.sendAsync(delegate, requestEntity, responseClass, executor);
+        }
+        RequestKey key = cache.keyOf(requestEntity, responseClass);
+        GraphQLResponseEntity<T> cached = cached(key, requestEntity, responseClass, executor);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<GraphQLResponseEntity<?>> created = new CompletableFuture<GraphQLResponseEntity<?>>();
+        CompletableFuture<GraphQLResponseEntity<?>> existing = cache.getInFlight().putIfAbsent(key, created);
+        if (existing != null) {
+            return FutureUtil.dependent(existing);
+        }
+        load(key, created, requestEntity, responseClass, executor);
+        return FutureUtil.dependent(created);
+    }
+
+    /**
+     * Returns the cached response while it is usable, refreshing it in the background once it is stale.
+     *
+     * @return GraphQLResponseEntity\<T>, or null on a miss
+     */
+    @SuppressWarnings("unchecked")
+    private <T> GraphQLResponseEntity<T> cached(RequestKey key, GraphQLRequestEntity requestEntity,
+                                                Class<T> responseClass, Executor executor) {
+        QueryCache.CachedResponse entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = cache.now();
+        if (entry.isFresh(now)) {
+            return (GraphQLResponseEntity<T>) entry.getResponse();
+        }
+        if (!entry.isUsable(now)) {
+            return null;
+        }
+        CompletableFuture<GraphQLResponseEntity<?>> created = new CompletableFuture<GraphQLResponseEntity<?>>();
+        if (cache.getInFlight().putIfAbsent(key, created) == null) {
+            Executor refreshExecutor = cache.getExecutor();
+            if (refreshExecutor == null) {
+                refreshExecutor = executor;
+            }
+            load(key, created, requestEntity, responseClass, refreshExecutor);
+        }
+        return (GraphQLResponseEntity<T>) entry.getResponse();
+    }
+
+    /**
+     * Sends the request, storing and publishing its response through the in-flight future registered for the key.
+     */
+    private <T> void load(final RequestKey key, final CompletableFuture<GraphQLResponseEntity<?>> created,
+                          final GraphQLRequestEntity requestEntity, Class<T> responseClass, Executor executor) {
+        final long generation = cache.generation();
+        CompletableFuture<GraphQLResponseEntity<T>> response;
+        try {
+            response = FutureUtil.sendAsync(delegate, requestEntity, responseClass, executor);
+        } catch (Throwable throwable) {
+            cache.getInFlight().remove(key, created);
+            created.completeExceptionally(throwable);
+            return;
+        }
+        response.whenComplete(new BiConsumer<GraphQLResponseEntity<T>, Throwable>() {
+            @Override
+            public void accept(GraphQLResponseEntity<T> responseEntity, Throwable throwable) {
+                if (throwable == null) {
+                    cache.put(key, responseEntity, requestEntity, generation);
+                }
+                cache.getInFlight().remove(key, created);
+                if (throwable == null) {
+                    created.complete(responseEntity);
+                } else {
+                    created.completeExceptionally(throwable);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the canonical form of a request tree: children sorted by field name and every inline argument value hoisted
+ * into a generated variable, so one model class always renders the same request text whatever its argument values.
+ * <p>
+ * Generated variables are named after the path of the field and the argument, e.g. {@code $test_nested_first}, and
+ * declared with the argument's {@link Argument#getType() type}. Optional arguments are always hoisted as nullable
+ * variables, null or not, so the request text doesn't depend on which of them are set. Arguments that are already
+ * variable references are left as they are.
+ */
+final class Canonicalizer {
+
+    private static final char SEPARATOR = '_';
+    private static final String NON_NULL = "!";
+
+    private final Map<String, Object> declarations;
+    private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+    private Canonicalizer(Map<String, Object> variables) {
+        this.declarations = new TreeMap<String, Object>(variables);
+    }
+
+    /**
+     * Returns metadata holding the canonical copy of the tree. The given tree is not modified.
+     *
+     * @param scalars scalars of the original metadata
+     * @param children children of the request root
+     * @param variables variables declared on the request root, keyed by their {@code $} prefixed name
+     * @return ModelMetadata
+     * @throws GraphQLException if an argument to hoist has no declared type
+     */
+    static ModelMetadata canonicalize(List<Class> scalars, Map<String, Property> children, Map<String, Object> variables) {
+        Canonicalizer canonicalizer = new Canonicalizer(variables);
+        Map<String, Property> canonicalChildren = canonicalizer.copyChildren(children, null);
+        return new ModelMetadata(scalars, canonicalChildren, Collections.unmodifiableMap(canonicalizer.declarations),
+                Collections.unmodifiableMap(canonicalizer.values));
+    }
+
+    private Map<String, Property> copyChildren(Map<String, Property> children, String path) {
+        if (children == null) {
+            return null;
+        }
+        Map<String, Property> sorted = new TreeMap<String, Property>();
+        for (Map.Entry<String, Property> entry : children.entrySet()) {
+            String childPath = entry.getKey();
+            if (path != null) {
+                childPath = path + "." + childPath;
+            }
+            sorted.put(entry.getKey(), copy(entry.getValue(), childPath));
+        }
+        return sorted;
+    }
+
+    private Property copy(Property property, String path) {
+        Property copy = new Property();
+        copy.setResourceName(property.getResourceName());
+        copy.setMethod(property.getMethod());
+        copy.setVariables(property.getVariables());
+        if (property.getArguments() != null) {
+            List<Argument> arguments = new ArrayList<Argument>(property.getArguments().size());
+            for (Argument argument : property.getArguments()) {
+                arguments.add(hoist(argument, path));
+            }
+            copy.setArguments(arguments);
+        }
+        copy.setChildren(copyChildren(property.getChildren(), path));
+        return copy;
+    }
+
+    private Argument hoist(Argument argument, String path) {
+        Object value = argument.getValue();
+        Argument<Object> hoisted = new Argument<Object>(argument.getKey(), value, argument.isOptional());
+        hoisted.setType(argument.getType());
+        if (containsVariable(value)) {
+            return hoisted;
+        }
+        String type = argument.getType();
+        if (type == null) {
+            throw new GraphQLException("Argument '" + argument.getKey() + "' on '" + path + "' has no declared type, " +
+                    "set the variableType of the @GraphQLArgument or the type of the Argument to use a canonical request");
+        }
+        if (argument.isOptional() && type.endsWith(NON_NULL)) {
+            type = type.substring(0, type.length() - NON_NULL.length());
+        }
+        String name = path.replace('.', SEPARATOR) + SEPARATOR + argument.getKey();
+        String uniqueName = name;
+        int suffix = 2;
+        while (declarations.containsKey("$" + uniqueName)) {
+            uniqueName = name + SEPARATOR + suffix++;
+        }
+        declarations.put("$" + uniqueName, type);
+        values.put(uniqueName, variableValue(value));
+        hoisted.setValue("$" + uniqueName);
+        return hoisted;
+    }
+
+    private static boolean containsVariable(Object value) {
+        if (value instanceof String) {
+            return ((String) value).startsWith("$");
+        } else if (value instanceof List) {
+            for (Object element : (List) value) {
+                if (containsVariable(element)) return true;
+            }
+        } else if (value instanceof InputObject) {
+            for (Object element : ((InputObject) value).getMap().values()) {
+                if (containsVariable(element)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Converts input objects, which render as GraphQL object literals, to maps so they serialize as JSON objects.
+     */
+    private static Object variableValue(Object value) {
+        if (value instanceof InputObject) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (Object entry : ((InputObject) value).getMap().entrySet()) {
+                Map.Entry mapEntry = (Map.Entry) entry;
+                map.put((String) mapEntry.getKey(), variableValue(mapEntry.getValue()));
+            }
+            return map;
+        } else if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object element : (List) value) {
+                list.add(variableValue(element));
+            }
+            return list;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+abstract class CompressionUtil {
+
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    static final String GZIP = "gzip";
+    static final String SUPPORTED_ENCODINGS = "gzip, deflate";
+
+    private static final String X_GZIP = "x-gzip";
+    private static final String DEFLATE = "deflate";
+    private static final String IDENTITY = "identity";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private CompressionUtil() {
+    }
+
+    /**
+     * @param bytes bytes to compress
+     * @return the bytes compressed with gzip
+     * @throws IOException if the bytes can't be compressed
+     */
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        GZIPOutputStream outputStream = new GZIPOutputStream(compressed, BUFFER_SIZE);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * @param contentEncoding value of the {@code Content-Encoding} header, may be null
+     * @return true when the body is compressed
+     */
+    static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.trim().isEmpty()
+                && !IDENTITY.equalsIgnoreCase(contentEncoding.trim());
+    }
+
+    /**
+     * Wraps a compressed body into a stream inflating it as it is read. Closing the returned stream closes the body.
+     *
+     * @param body compressed body
+     * @param contentEncoding value of the {@code Content-Encoding} header
+     * @return InputStream
+     * @throws IOException if the encoding isn't supported or the gzip header can't be read
+     */
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if (GZIP.equals(encoding) || X_GZIP.equals(encoding)) {
+            return new GZIPInputStream(body, BUFFER_SIZE);
+        }
+        if (DEFLATE.equals(encoding)) {
+            return new InflaterInputStream(body);
+        }
+        throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+    }
+}
@@ -16,22 +16,74 @@ package io.aexp.nodes.graphql;
 import io.aexp.nodes.graphql.annotations.GraphQLProperty;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanProperty;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
 
 import java.io.IOException;
 
-final class Deserializer<T> extends JsonDeserializer<Resource<T>> {
+/**
+ * Binds the {@code data} object of a GraphQL response into the resource class.
+ * <p>
+ * The parser is walked as a token stream: when the resource class names its root field through
+ * {@link GraphQLProperty} the other fields are skipped and the named one is bound in place, otherwise the whole object
+ * is bound directly. No intermediate tree or string copy of the response is created.
+ */
+final class Deserializer<T> extends JsonDeserializer<Resource<T>> implements ContextualDeserializer {
 
     private final Class<T> t;
-    private final ObjectMapperFactory objectMapperFactory;
+    private final ObjectMapper mapper;
+    private final ObjectReader reader;
+    private final String resourceName;
 
     Deserializer(Class<T> type, ObjectMapperFactory objectMapperFactory) {
+        this(type, objectMapperFactory.newDeserializerMapper());
+    }
+
+    /**
+     * Creates a deserializer binding the resource with an already configured mapper. The mapper is only read from, so
+     * a single instance can be shared by every deserializer created for the same fetcher.
+     *
+     * @param type class of the resource being deserialized
+     * @param mapper deserialization mapper used to bind the resource
+     */
+    Deserializer(Class<T> type, ObjectMapper mapper) {
         t = type;
-        this.objectMapperFactory = objectMapperFactory;
+        this.mapper = mapper;
+        this.reader = mapper.readerFor(type);
+        GraphQLProperty graphQLProperty = type.getAnnotation(GraphQLProperty.class);
+        if (graphQLProperty != null) {
+            this.resourceName = graphQLProperty.name();
+        } else {
+            this.resourceName = null;
+        }
+    }
+
+    /**
+     * Resolves the deserializer for the resource type of the property being bound, allowing one registered instance
+     * to serve every {@code Wrapper<T>} read by the same mapper.
+     */
+    // The resource class is only known at runtime from the contextual type, so it cannot be checked against T.
+    @SuppressWarnings("unchecked")
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext context, BeanProperty property) {
+        JavaType type = context.getContextualType();
+        if (type == null && property != null) {
+            type = property.getType();
+        }
+        if (type == null || type.containedTypeCount() == 0) {
+            return this;
+        }
+        Class<?> resourceClass = type.containedType(0).getRawClass();
+        if (resourceClass.equals(t)) {
+            return this;
+        }
+        return new Deserializer<Object>((Class<Object>) resourceClass, mapper);
     }
 
     @Override
@@ -39,19 +91,29 @@ final class Deserializer<T> extends JsonDeserializer<Resource<T>> {
 
         Resource<T> resourceModel = new Resource<T>();
 
-        ObjectMapper mapper = objectMapperFactory.newDeserializerMapper();
-        ObjectCodec oc = jsonParser.getCodec();
-        JsonNode node = oc.readTree(jsonParser);
+        JsonToken token = jsonParser.getCurrentToken();
+        if (token == null) {
+            token = jsonParser.nextToken();
+        }
 
-        T resource;
+        T resource = null;
 
-        GraphQLProperty graphQLProperty = t.getAnnotation(GraphQLProperty.class);
-        if (graphQLProperty != null) {
-            String resourceName = graphQLProperty.name();
-            JsonNode innerNode = node.get(resourceName);
-            resource = mapper.treeToValue(innerNode, t);
+        if (resourceName != null) {
+            if (token == JsonToken.START_OBJECT) {
+                token = jsonParser.nextToken();
+            }
+            while (token == JsonToken.FIELD_NAME) {
+                String fieldName = jsonParser.getCurrentName();
+                jsonParser.nextToken();
+                if (resourceName.equals(fieldName)) {
+                    resource = reader.readValue(jsonParser);
+                } else {
+                    jsonParser.skipChildren();
+                }
+                token = jsonParser.nextToken();
+            }
         } else {
-            resource = mapper.readValue(node.toString(), t);
+            resource = reader.readValue(jsonParser);
         }
 
         resourceModel.setResource(resource);
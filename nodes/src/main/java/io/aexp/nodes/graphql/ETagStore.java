@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entity tags and response bodies of the latest GET requests, so a request can be sent with {@code If-None-Match} and
+ * answered on {@code 304 Not Modified} with a response bound again from the stored body. Bodies are kept rather than
+ * response entities, which callers may modify. The least recently used entries are evicted beyond the maximum size.
+ */
+final class ETagStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<RequestKey, TaggedResponse> entries;
+
+    ETagStore(final int maxEntries) {
+        this.entries = new LinkedHashMap<RequestKey, TaggedResponse>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RequestKey, TaggedResponse> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    TaggedResponse get(RequestKey key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(RequestKey key, String eTag, byte[] body, String contentType) {
+        lock.lock();
+        try {
+            entries.put(key, new TaggedResponse(eTag, body, contentType));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(RequestKey key) {
+        lock.lock();
+        try {
+            entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static final class TaggedResponse {
+        private final String eTag;
+        private final byte[] body;
+        private final String contentType;
+
+        TaggedResponse(String eTag, byte[] body, String contentType) {
+            this.eTag = eTag;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return decoded body of the tagged response, never modified
+         */
+        byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return content type of the body, or null if the response had none
+         */
+        String getContentType() {
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the elements of a list in the data of a GraphQL response one at a time, parsing the response no further than
+ * the element being read.
+ * <p>
+ * The list is found at a dot separated path of fields from the data, e.g. {@code viewer.repositories.nodes}; when a
+ * field of the path is null or absent the list has no elements. Null elements are skipped. Errors of the response fail
+ * the reader: errors sent before the data fail it before the first element, errors sent after it once the last element
+ * has been read. The reader must be {@link #close() closed}, which closes the underlying response.
+ */
+final class ElementReader<E> implements Closeable {
+
+    private static final String DATA = "data";
+    private static final String ERRORS = "errors";
+    private static final String PATH_SEPARATOR = "\\.";
+
+    private final JsonParser parser;
+    private final ObjectReader elementReader;
+    private final ObjectReader errorsReader;
+    private final String[] path;
+    private final boolean document;
+    private final List<Error> errors = new ArrayList<Error>();
+    private boolean finished;
+    private boolean hasElement;
+    private E element;
+
+    private ElementReader(JsonParser parser, ObjectReader elementReader, ObjectReader errorsReader, String path,
+                         boolean document) {
+        this.parser = parser;
+        this.elementReader = elementReader;
+        this.errorsReader = errorsReader;
+        this.path = path.split(PATH_SEPARATOR);
+        this.document = document;
+    }
+
+    /**
+     * Opens a reader over a whole response document, reading its errors along with the data.
+     *
+     * @param parser parser of the response body, closed with the reader
+     * @param elementReader reader bound to the class of the elements
+     * @param errorsReader reader bound to {@code Error[]}
+     * @param path dot separated path of the list from the data
+     * @return ElementReader\<E>
+     * @throws IOException if the response can't be read up to the list
+     * @throws GraphQLException if the response has errors before its data
+     */
+    static <E> ElementReader<E> ofDocument(JsonParser parser, ObjectReader elementReader, ObjectReader errorsReader,
+                                           String path) throws IOException, GraphQLException {
+        ElementReader<E> reader = new ElementReader<E>(parser, elementReader, errorsReader, path, true);
+        reader.openDocument();
+        return reader;
+    }
+
+    /**
+     * Opens a reader over the data of a response already read, with the errors of the response.
+     *
+     * @param parser parser of the data object, closed with the reader
+     * @param elementReader reader bound to the class of the elements
+     * @param path dot separated path of the list from the data
+     * @param errors errors of the response, may be null
+     * @return ElementReader\<E>
+     * @throws IOException if the data can't be read up to the list
+     * @throws GraphQLException if the response has errors
+     */
+    static <E> ElementReader<E> ofData(JsonParser parser, ObjectReader elementReader, String path, Error[] errors)
+            throws IOException, GraphQLException {
+        ElementReader<E> reader = new ElementReader<E>(parser, elementReader, null, path, false);
+        if (errors != null) {
+            reader.errors.addAll(Arrays.asList(errors));
+        }
+        reader.failOnErrors();
+        if (parser.nextToken() == null || !reader.descend(0)) {
+            reader.finished = true;
+        }
+        return reader;
+    }
+
+    /**
+     * @return true when another element was read, false once the list and the rest of the response are read
+     * @throws IOException if the response can't be read
+     * @throws GraphQLException if the response has errors after its data
+     */
+    boolean hasNext() throws IOException, GraphQLException {
+        while (!hasElement && !finished) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY) {
+                finish();
+            } else if (token == null) {
+                throw new IOException("The response ended within the list at " + DATA + "." + String.join(".", path));
+            } else if (token != JsonToken.VALUE_NULL) {
+                element = elementReader.readValue(parser);
+                hasElement = true;
+            }
+        }
+        return hasElement;
+    }
+
+    /**
+     * @return the element read by {@link #hasNext()}
+     */
+    E next() {
+        if (!hasElement) {
+            throw new IllegalStateException("No element was read");
+        }
+        E next = element;
+        element = null;
+        hasElement = false;
+        return next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    /**
+     * Reads the document up to the list, collecting the errors sent before the data.
+     */
+    private void openDocument() throws IOException, GraphQLException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("The response is not a JSON object");
+        }
+        boolean located = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (ERRORS.equals(field)) {
+                readErrors();
+            } else if (DATA.equals(field) && !located) {
+                failOnErrors();
+                located = true;
+                if (descend(0)) return;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        finished = true;
+        failOnErrors();
+    }
+
+    /**
+     * Walks the path from the value the parser is on, the value of its field at {@code segment} or the data itself.
+     *
+     * @return true when the parser is on the start of the list, false when the value was read without finding it
+     */
+    private boolean descend(int segment) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        if (segment == path.length) {
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException(DATA + "." + String.join(".", path) + " is not a list");
+            }
+            return true;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals(path[segment])) {
+                if (descend(segment + 1)) return true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the rest of the objects enclosing the list, collecting the errors sent after the data.
+     */
+    private void finish() throws IOException, GraphQLException {
+        finished = true;
+        // The data and the objects of the path but the list are still open, and the document itself
+        int depth = path.length;
+        if (document) {
+            depth++;
+        }
+        for (int level = depth; level > 0; level--) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (document && level == 1 && ERRORS.equals(field)) {
+                    readErrors();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        failOnErrors();
+    }
+
+    private void readErrors() throws IOException {
+        Error[] read = errorsReader.readValue(parser);
+        if (read != null) {
+            errors.addAll(Arrays.asList(read));
+        }
+    }
+
+    private void failOnErrors() throws GraphQLException {
+        if (errors.isEmpty()) {
+            return;
+        }
+        GraphQLException exception = new GraphQLException(errors.get(0).getMessage());
+        exception.setErrors(errors.toArray(new Error[0]));
+        throw exception;
+    }
+}
@@ -13,114 +13,108 @@
 
 package io.aexp.nodes.graphql;
 
-import io.aexp.nodes.graphql.exceptions.GraphQLException;
-
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
-
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Default {@link Fetcher} sending requests over {@link HttpURLConnection}.
+ * <p>
+ * The request body is written straight to the connection: small bodies are sent with their length, while bodies larger
+ * than {@value #STREAMING_THRESHOLD} bytes are streamed with chunked transfer encoding as they are serialized. Bodies
+ * larger than the {@link GraphQLTemplate.TemplateBuilder#compressRequestsAbove(int) compression threshold} are gzipped
+ * on the way. Responses are requested with {@code Accept-Encoding: gzip, deflate}.
+ */
+final class Fetch extends AbstractFetcher {
 
-final class Fetch implements Fetcher {
+    private static final int STREAMING_THRESHOLD = 8 * 1024;
 
-    private final ObjectMapperFactory objectMapperFactory;
-    private ObjectMapper mapper;
-    private SimpleModule module;
-    private static final int STATUS_CODE_THRESHOLD = 400;
-    private int connectTimeout = -1;
-    private int readTimeout = -1;
+    private final int connectTimeout;
+    private final int readTimeout;
 
     Fetch(ObjectMapperFactory objectMapperFactory) {
-        this.objectMapperFactory = objectMapperFactory;
+        this(objectMapperFactory, -1, -1);
     }
 
     Fetch(ObjectMapperFactory objectMapperFactory, int connectTimeout, int readTimeout) {
-        this(objectMapperFactory);
-        this.connectTimeout = connectTimeout;
-        this.readTimeout = readTimeout;
-
+        this(GraphQLTemplate.Builder()
+                .objectMapperFactory(objectMapperFactory)
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout));
     }
 
-    public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) throws GraphQLException {
-        mapper = objectMapperFactory.newSerializerMapper();
-        module = new SimpleModule();
-
-        Request request = new Request();
-        request.setQuery(requestEntity.getRequest());
-        request.setVariables(requestEntity.getVariables());
-
-        String responseMessage = null;
-        String responseStatus = null;
-
-        try {
-            String requestParams = mapper.writeValueAsString(request);
-            byte[] postData = requestParams.getBytes();
-            HttpURLConnection connection = createConnection(requestEntity.getUrl(), postData, requestEntity.getHeaders());
-
-            DataOutputStream dataOutputStream = new DataOutputStream(connection.getOutputStream());
-            dataOutputStream.write(postData);
-            dataOutputStream.close();
-
-            Map<String, List<String>> responseHeaders = connection.getHeaderFields();
-            responseMessage = connection.getResponseMessage();
-            responseStatus = Integer.toString(connection.getResponseCode());
+    Fetch(GraphQLTemplate.TemplateBuilder builder) {
+        super(builder.objectMapperFactory, builder.persistedQueries, builder.httpGet, builder.maxGetUrlLength,
+                builder.compressionThreshold, builder.binaryFormat(),
+                builder.batchWindow(), builder.executor);
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+    }
 
-            InputStream inputStream;
+    @Override
+    RawResponse request(URL url, Map<String, String> headers, RequestBody body) throws IOException {
+        HttpURLConnection connection;
+        if (body == null) {
+            connection = createConnection(url, headers, false);
+        } else if (body.getBytes() != null) {
+            byte[] postData = body.getBytes();
+            boolean compressed = compresses(postData.length);
+            if (compressed) {
+                postData = CompressionUtil.gzip(postData);
+            }
+            connection = createConnection(url, headers, true);
+            if (compressed) {
+                connection.setRequestProperty(CompressionUtil.CONTENT_ENCODING, CompressionUtil.GZIP);
+            }
+            connection.setFixedLengthStreamingMode(postData.length);
+            OutputStream outputStream = connection.getOutputStream();
             try {
-                inputStream = connection.getInputStream();
-            } catch(IOException exception) {
-                inputStream = connection.getErrorStream();
+                outputStream.write(postData);
+            } finally {
+                outputStream.close();
             }
-            // Force stream reader to use UTF-8 for parsing, in order for deserialization not to use invalid
-            // encoding when reading from the underlying stream during JSON parsing
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-
-            Wrapper<T> wrapper = deserializeResponse(bufferedReader, responseClass);
-
-            if (connection.getResponseCode() >= STATUS_CODE_THRESHOLD) {
-                GraphQLException graphQLException = new GraphQLException(responseMessage);
-                graphQLException.setStatus(responseStatus);
-                graphQLException.setErrors(wrapper.getErrors());
-                throw graphQLException;
+        } else {
+            BodyOutputStream outputStream = new BodyOutputStream(url, headers);
+            boolean written = false;
+            try {
+                body.writeTo(outputStream);
+                outputStream.close();
+                written = true;
+            } finally {
+                if (!written) outputStream.abort();
             }
+            connection = outputStream.connection;
+        }
 
-            GraphQLResponseEntity<T> graphQLResponseEntity = new GraphQLResponseEntity<T>();
-            graphQLResponseEntity.setErrors(wrapper.getErrors());
-            if (wrapper.getData() != null) {
-                graphQLResponseEntity.setHeaders(responseHeaders);
-                graphQLResponseEntity.setResponse(wrapper.getData().getResource());
-            }
-            return graphQLResponseEntity;
-        } catch (Exception exception) {
-            if (exception instanceof GraphQLException) throw (GraphQLException) exception;
-            GraphQLException err = new GraphQLException();
-            err.setStatus(responseStatus);
-            err.setMessage(responseMessage);
-            err.setDescription(exception.getMessage());
-            throw err;
+        int responseCode = connection.getResponseCode();
+        InputStream inputStream;
+        try {
+            inputStream = connection.getInputStream();
+        } catch(IOException exception) {
+            inputStream = connection.getErrorStream();
         }
+        return new RawResponse(responseCode, connection.getResponseMessage(), connection.getHeaderFields(), inputStream);
     }
 
-    private HttpURLConnection createConnection(URL requestUrl, byte[] postData, Map<String, String> headers) throws IOException {
+    private HttpURLConnection createConnection(URL requestUrl, Map<String, String> headers, boolean post) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) requestUrl.openConnection();
-        int postDataLength = postData.length;
         connection.setDoInput(true);
-        connection.setDoOutput(true);
         connection.setInstanceFollowRedirects(false);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Accept", "application/json");
+        if (post) {
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+        } else {
+            connection.setRequestMethod("GET");
+        }
+        connection.setRequestProperty("Accept", getAccept());
         connection.setRequestProperty("charset", "utf-8");
-        connection.setRequestProperty("Content-Length", Integer.toString(postDataLength));
+        connection.setRequestProperty(CompressionUtil.ACCEPT_ENCODING, CompressionUtil.SUPPORTED_ENCODINGS);
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             connection.setRequestProperty(entry.getKey(), entry.getValue());
         }
@@ -135,12 +129,82 @@ final class Fetch implements Fetcher {
         return connection;
     }
 
-    private <T> Wrapper<T> deserializeResponse(BufferedReader bufferedReader, Class<T> responseClass) throws IOException {
-        Deserializer<T> deserializer = new Deserializer<T>(responseClass, objectMapperFactory);
-        module.addDeserializer(Resource.class, deserializer);
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        mapper.registerModule(module);
-        return mapper.readValue(bufferedReader, Wrapper.class);
-    }
+    /**
+     * Buffers the start of a body serialized on demand. A body that fits in the buffer is sent with its length, a larger
+     * body is streamed to the connection as it is written with chunked transfer encoding. When request bodies are
+     * compressed, the buffer holds at least the compression threshold, so whether to gzip a body is decided on its whole
+     * length.
+     */
+    private final class BodyOutputStream extends OutputStream {
+        private final URL url;
+        private final Map<String, String> headers;
+        private final int bufferSize;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private HttpURLConnection connection;
+        private OutputStream connectionStream;
+
+        BodyOutputStream(URL url, Map<String, String> headers) {
+            this.url = url;
+            this.headers = headers;
+            this.bufferSize = Math.max(STREAMING_THRESHOLD, getCompressionThreshold());
+        }
 
+        @Override
+        public void write(int b) throws IOException {
+            if (connectionStream == null && buffer.size() < bufferSize) {
+                buffer.write(b);
+            } else {
+                stream().write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (connectionStream == null && buffer.size() + len <= bufferSize) {
+                buffer.write(b, off, len);
+            } else {
+                stream().write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (connectionStream == null) {
+                connection = createConnection(url, headers, true);
+                if (compresses(buffer.size())) {
+                    byte[] postData = CompressionUtil.gzip(buffer.toByteArray());
+                    connection.setRequestProperty(CompressionUtil.CONTENT_ENCODING, CompressionUtil.GZIP);
+                    connection.setFixedLengthStreamingMode(postData.length);
+                    connectionStream = connection.getOutputStream();
+                    connectionStream.write(postData);
+                } else {
+                    connection.setFixedLengthStreamingMode(buffer.size());
+                    connectionStream = connection.getOutputStream();
+                    buffer.writeTo(connectionStream);
+                }
+            }
+            connectionStream.close();
+        }
+
+        void abort() {
+            if (connection != null) connection.disconnect();
+        }
+
+        private OutputStream stream() throws IOException {
+            if (connectionStream == null) {
+                // Overflowing the buffer means the body is longer than the compression threshold
+                boolean compressed = getCompressionThreshold() >= 0;
+                connection = createConnection(url, headers, true);
+                connection.setChunkedStreamingMode(0);
+                if (compressed) {
+                    connection.setRequestProperty(CompressionUtil.CONTENT_ENCODING, CompressionUtil.GZIP);
+                    connectionStream = new GZIPOutputStream(connection.getOutputStream(), STREAMING_THRESHOLD);
+                } else {
+                    connectionStream = connection.getOutputStream();
+                }
+                buffer.writeTo(connectionStream);
+            }
+            return connectionStream;
+        }
+    }
 }
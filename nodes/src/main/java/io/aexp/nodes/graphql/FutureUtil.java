@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+abstract class FutureUtil {
+
+    /**
+     * Executor blocking fetchers are run on when no executor is given: a pool of daemon threads created on demand and
+     * dropped once idle, so blocking I/O never starves the common pool and never keeps the JVM running.
+     */
+    static final Executor BLOCKING_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nodes-blocking-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private FutureUtil() {
+    }
+
+    /**
+     * Sends the request without blocking when the fetcher is an {@link AsyncFetcher}, and on the executor otherwise.
+     *
+     * @param fetcher fetcher sending the request
+     * @param requestEntity request entity to send
+     * @param responseClass class of the expected response resource
+     * @param executor executor to run on, or null for the fetcher's default, {@link #BLOCKING_EXECUTOR} for blocking
+     *     fetchers
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    static <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(final Fetcher fetcher,
+                                                                    final GraphQLRequestEntity requestEntity,
+                                                                    final Class<T> responseClass, Executor executor) {
+        if (fetcher instanceof AsyncFetcher) {
+            return ((AsyncFetcher) fetcher).sendAsync(requestEntity, responseClass, executor);
+        }
+        Supplier<GraphQLResponseEntity<T>> supplier = new Supplier<GraphQLResponseEntity<T>>() {
+            @Override
+            public GraphQLResponseEntity<T> get() {
+                return fetcher.send(requestEntity, responseClass);
+            }
+        };
+        if (executor == null) {
+            return CompletableFuture.supplyAsync(supplier, BLOCKING_EXECUTOR);
+        }
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
+    /**
+     * Waits for a response shared with other callers, rethrowing its failure as it was thrown to the first caller.
+     *
+     * @param future shared future
+     * @return GraphQLResponseEntity\<T>
+     * @throws GraphQLException if the request failed
+     */
+    static <T> GraphQLResponseEntity<T> await(CompletableFuture<GraphQLResponseEntity<?>> future) throws GraphQLException {
+        try {
+            return FutureUtil.<T>cast(future).join();
+        } catch (CompletionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new GraphQLException(String.valueOf(cause));
+        } catch (CancellationException exception) {
+            throw new GraphQLException("Request cancelled");
+        }
+    }
+
+    /**
+     * Returns a future completed with a shared one, so a caller cancelling it doesn't cancel the request for the other
+     * callers.
+     *
+     * @param future shared future
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    static <T> CompletableFuture<GraphQLResponseEntity<T>> dependent(CompletableFuture<GraphQLResponseEntity<?>> future) {
+        return FutureUtil.<T>cast(future).thenApply(new Function<GraphQLResponseEntity<T>, GraphQLResponseEntity<T>>() {
+            @Override
+            public GraphQLResponseEntity<T> apply(GraphQLResponseEntity<T> response) {
+                return response;
+            }
+        });
+    }
+
+    static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    /**
+     * @param throwable failure of a future, possibly wrapped in a {@link CompletionException}
+     * @return the failure itself when it is a GraphQLException, or a GraphQLException describing it
+     */
+    static GraphQLException toGraphQLException(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof GraphQLException) return (GraphQLException) throwable;
+        GraphQLException exception = new GraphQLException();
+        exception.setDescription(throwable.getMessage());
+        return exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<GraphQLResponseEntity<T>> cast(CompletableFuture<GraphQLResponseEntity<?>> future) {
+        // Shared futures are keyed on the response class, so every response published has the expected type
+        return (CompletableFuture<GraphQLResponseEntity<T>>) (CompletableFuture<?>) future;
+    }
+}
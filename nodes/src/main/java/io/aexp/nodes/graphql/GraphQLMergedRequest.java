@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Several requests built from classes, merged into a single GraphQL document sent in one round trip, for servers that
+ * don't accept batched requests.
+ * <p>
+ * The root fields of the request at index {@code i} are aliased with the {@code q<i>_} prefix, and so are the
+ * variables it declares, so fields and variables of different requests never collide. The response is split back
+ * into one response entity per request: each gets the data of its own root fields, under their original names, and
+ * the errors whose path starts with one of them. Errors without a path are given to every request.
+ * <p>
+ * The merged requests must share their url and headers. The merged request is immutable and can be executed as many
+ * times as needed, as a query or a mutation, with {@link GraphQLTemplate#query(GraphQLMergedRequest)} or
+ * {@link GraphQLTemplate#mutate(GraphQLMergedRequest)}.
+ *
+ * <pre>
+ * GraphQLMergedRequest merged = GraphQLMergedRequest.Builder()
+ *     .request(userRequest, User.class)
+ *     .request(ordersRequest, Orders.class)
+ *     .build();
+ * GraphQLMergedResponse response = graphQLTemplate.query(merged);
+ * User user = response.get(0, User.class).getResponse();
+ * </pre>
+ */
+public final class GraphQLMergedRequest {
+
+    private static final String ALIAS_PREFIX = "q";
+    private static final String ALIAS_SEPARATOR = "_";
+    private static final String VARIABLE_PREFIX = "$";
+    private static final String DATA = "data";
+
+    private final URL url;
+    private final Map<String, String> headers;
+    private final List<Class<?>> responseClasses;
+    private final Map<String, Property> fields = new LinkedHashMap<String, Property>();
+    private final Map<String, Object> declarations = new LinkedHashMap<String, Object>();
+    private final List<Variable> variables = new ArrayList<Variable>();
+    private final Map<String, Alias> aliases = new HashMap<String, Alias>();
+    private final long cacheTtl;
+    private final List<String> cacheTags;
+
+    private GraphQLMergedRequest(MergedRequestBuilder builder) {
+        GraphQLRequestEntity first = builder.requestEntities.get(0);
+        this.url = first.getUrl();
+        this.headers = first.getHeaders();
+        this.responseClasses = Collections.unmodifiableList(new ArrayList<Class<?>>(builder.responseClasses));
+        long mergedTtl = -1;
+        Set<String> mergedTags = new LinkedHashSet<String>();
+        for (int index = 0; index < builder.requestEntities.size(); index++) {
+            GraphQLRequestEntity requestEntity = builder.requestEntities.get(index);
+            merge(index, requestEntity);
+            // The shortest explicit time to live wins, so no part of the response is cached longer than requested
+            long ttl = requestEntity.getCacheTtl();
+            if (ttl >= 0 && (mergedTtl < 0 || ttl < mergedTtl)) mergedTtl = ttl;
+            mergedTags.addAll(requestEntity.getCacheTags());
+        }
+        this.cacheTtl = mergedTtl;
+        this.cacheTags = new ArrayList<String>(mergedTags);
+    }
+
+    public static MergedRequestBuilder Builder() {
+        return new MergedRequestBuilder();
+    }
+
+    /**
+     * @return the number of merged requests
+     */
+    public int size() {
+        return responseClasses.size();
+    }
+
+    /**
+     * Renders the merged document as a static request entity.
+     *
+     * @param method method the document is rendered for
+     * @return GraphQLRequestEntity
+     */
+    GraphQLRequestEntity toRequestEntity(GraphQLTemplate.GraphQLMethod method) {
+        Property root = new Property();
+        root.setMethod(method);
+        root.setVariables(declarations);
+        root.setChildren(fields);
+        GraphQLRequestEntity.RequestBuilder builder = GraphQLRequestEntity.Builder();
+        builder.url = url;
+        builder.headers = new HashMap<String, String>(headers);
+        builder.request = QueryWriter.write(root, null, false);
+        builder.requestMethod = method;
+        builder.variables = variables;
+        builder.cacheTtl = cacheTtl;
+        builder.cacheTags = cacheTags;
+        return builder.build();
+    }
+
+    /**
+     * Splits the response of the merged document into the response entities of the merged requests.
+     *
+     * @param response response of the merged document, its data buffered as is
+     * @param mapper mapper binding {@code Wrapper<T>}
+     * @return GraphQLMergedResponse
+     * @throws GraphQLException if the data of a request can't be bound to its class
+     */
+    GraphQLMergedResponse split(GraphQLResponseEntity<TokenBuffer> response, ObjectMapper mapper) throws GraphQLException {
+        List<List<Error>> errors = splitErrors(response.getErrors(), mapper);
+        List<GraphQLResponseEntity<?>> responses = new ArrayList<GraphQLResponseEntity<?>>(size());
+        try {
+            TokenBuffer[] data = null;
+            if (response.getResponse() != null) {
+                data = splitData(response.getResponse(), mapper);
+            }
+            for (int index = 0; index < size(); index++) {
+                GraphQLResponseEntity<Object> entity = new GraphQLResponseEntity<Object>();
+                if (!errors.get(index).isEmpty()) {
+                    entity.setErrors(errors.get(index).toArray(new Error[errors.get(index).size()]));
+                }
+                if (data != null) {
+                    JavaType type = mapper.getTypeFactory().constructParametricType(Wrapper.class, responseClasses.get(index));
+                    Wrapper<Object> wrapper = mapper.readerFor(type).readValue(data[index].asParser());
+                    entity.setHeaders(response.getHeaders());
+                    entity.setResponse(wrapper.getData().getResource());
+                }
+                responses.add(entity);
+            }
+        } catch (IOException exception) {
+            GraphQLException graphQLException = new GraphQLException();
+            graphQLException.setDescription(exception.getMessage());
+            graphQLException.setErrors(response.getErrors());
+            throw graphQLException;
+        }
+        return new GraphQLMergedResponse(responseClasses, responses);
+    }
+
+    /**
+     * Adds the aliased root fields, variable declarations and variable values of a request to the document.
+     */
+    private void merge(int index, GraphQLRequestEntity requestEntity) {
+        String prefix = ALIAS_PREFIX + index + ALIAS_SEPARATOR;
+        Map<String, Object> partDeclarations = requestEntity.getVariableDeclarations();
+        for (Map.Entry<String, Object> declaration : partDeclarations.entrySet()) {
+            declarations.put(namespace(declaration.getKey(), prefix), declaration.getValue());
+        }
+        for (Map.Entry<String, Property> field : requestEntity.getRootFields().entrySet()) {
+            Property aliased = field.getValue().copy();
+            if (aliased.getResourceName() == null) {
+                aliased.setResourceName(field.getKey());
+            }
+            renameVariables(aliased, prefix, partDeclarations);
+            fields.put(prefix + field.getKey(), aliased);
+            aliases.put(prefix + field.getKey(), new Alias(index, field.getKey()));
+        }
+        for (Map.Entry<String, Object> variable : requestEntity.getVariables().entrySet()) {
+            variables.add(new Variable<Object>(prefix + variable.getKey(), variable.getValue()));
+        }
+    }
+
+    /**
+     * Points the arguments of the property and its children at the namespaced variables.
+     */
+    // Properties hold raw arguments; a renamed value is a String or a List of them, as the argument held before.
+    @SuppressWarnings("unchecked")
+    private static void renameVariables(Property property, String prefix, Map<String, Object> partDeclarations) {
+        if (property.getArguments() != null) {
+            for (Argument argument : property.getArguments()) {
+                argument.setValue(renameValue(argument.getValue(), prefix, partDeclarations));
+            }
+        }
+        if (property.getChildren() != null) {
+            for (Property child : property.getChildren().values()) {
+                renameVariables(child, prefix, partDeclarations);
+            }
+        }
+    }
+
+    private static Object renameValue(Object value, String prefix, Map<String, Object> partDeclarations) {
+        if (value instanceof String && partDeclarations.containsKey(value)) {
+            return namespace((String) value, prefix);
+        }
+        if (value instanceof List) {
+            List<Object> renamed = new ArrayList<Object>(((List) value).size());
+            for (Object element : (List) value) {
+                renamed.add(renameValue(element, prefix, partDeclarations));
+            }
+            return renamed;
+        }
+        if (value instanceof InputObject) {
+            InputObject.Builder<Object> renamed = new InputObject.Builder<Object>();
+            for (Object entry : ((InputObject) value).getMap().entrySet()) {
+                Map.Entry field = (Map.Entry) entry;
+                renamed.put((String) field.getKey(), renameValue(field.getValue(), prefix, partDeclarations));
+            }
+            return renamed.build();
+        }
+        return value;
+    }
+
+    /**
+     * @param name variable name, prefixed with {@code $}
+     * @param prefix prefix of the request the variable belongs to
+     * @return the namespaced variable name, prefixed with {@code $}
+     */
+    private static String namespace(String name, String prefix) {
+        return VARIABLE_PREFIX + prefix + name.substring(VARIABLE_PREFIX.length());
+    }
+
+    /**
+     * Streams the aliased fields of the data object into one {@code {"data": {...}}} buffer per request, under their
+     * original names.
+     */
+    private TokenBuffer[] splitData(TokenBuffer data, ObjectMapper mapper) throws IOException {
+        TokenBuffer[] buffers = new TokenBuffer[size()];
+        for (int index = 0; index < buffers.length; index++) {
+            buffers[index] = new TokenBuffer(mapper, false);
+            buffers[index].writeStartObject();
+            buffers[index].writeFieldName(DATA);
+            buffers[index].writeStartObject();
+        }
+        JsonParser parser = data.asParser(mapper);
+        try {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    Alias alias = aliases.get(parser.getCurrentName());
+                    parser.nextToken();
+                    if (alias == null) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    buffers[alias.index].writeFieldName(alias.field);
+                    buffers[alias.index].copyCurrentStructure(parser);
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        for (TokenBuffer buffer : buffers) {
+            buffer.writeEndObject();
+            buffer.writeEndObject();
+        }
+        return buffers;
+    }
+
+    /**
+     * Gives each error to the request owning the root field at the start of its path, with the path rewritten to the
+     * original field name, and errors without such a path to every request.
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<Error>> splitErrors(Error[] errors, ObjectMapper mapper) {
+        List<List<Error>> split = new ArrayList<List<Error>>(size());
+        for (int index = 0; index < size(); index++) {
+            split.add(new ArrayList<Error>());
+        }
+        if (errors == null) {
+            return split;
+        }
+        for (Error error : errors) {
+            Alias alias = null;
+            if (error.getPath() != null && error.getPath().length > 0) {
+                alias = aliases.get(String.valueOf(error.getPath()[0]));
+            }
+            if (alias == null) {
+                for (List<Error> requestErrors : split) {
+                    requestErrors.add(error);
+                }
+                continue;
+            }
+            // Errors are only built by Jackson, so the path is rewritten through their JSON form
+            Map<String, Object> fields = mapper.convertValue(error, Map.class);
+            ((List<Object>) fields.get("path")).set(0, alias.field);
+            split.get(alias.index).add(mapper.convertValue(fields, Error.class));
+        }
+        return split;
+    }
+
+    /**
+     * Request and original name of an aliased root field.
+     */
+    private static final class Alias {
+        private final int index;
+        private final String field;
+
+        Alias(int index, String field) {
+            this.index = index;
+            this.field = field;
+        }
+    }
+
+    public static final class MergedRequestBuilder {
+        private final List<GraphQLRequestEntity> requestEntities = new ArrayList<GraphQLRequestEntity>();
+        private final List<Class<?>> responseClasses = new ArrayList<Class<?>>();
+
+        private MergedRequestBuilder() {
+        }
+
+        /**
+         * Adds a request to the document. Its response is read from {@link GraphQLMergedResponse#get(int, Class)} at
+         * the index of the request, starting at zero in the order requests are added.
+         *
+         * @param requestEntity request built from a class
+         * @param responseClass class the data of the request is bound to
+         * @return MergedRequestBuilder
+         */
+        public MergedRequestBuilder request(GraphQLRequestEntity requestEntity, Class<?> responseClass) {
+            requestEntities.add(requestEntity);
+            responseClasses.add(responseClass);
+            return this;
+        }
+
+        public GraphQLMergedRequest build() throws IllegalStateException {
+            if (requestEntities.isEmpty()) throw new IllegalStateException("at least one request must be merged");
+            GraphQLRequestEntity first = requestEntities.get(0);
+            for (GraphQLRequestEntity requestEntity : requestEntities) {
+                if (requestEntity.getRootFields() == null) {
+                    throw new IllegalStateException("only requests built from a class can be merged");
+                }
+                if (!String.valueOf(requestEntity.getUrl()).equals(String.valueOf(first.getUrl()))
+                        || !requestEntity.getHeaders().equals(first.getHeaders())) {
+                    throw new IllegalStateException("merged requests must share their url and headers");
+                }
+            }
+            return new GraphQLMergedRequest(this);
+        }
+    }
+}
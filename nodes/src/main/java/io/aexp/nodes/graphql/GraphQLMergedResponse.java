@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import java.util.List;
+
+/**
+ * Response entities of the requests merged in a {@link GraphQLMergedRequest}, in the order the requests were added.
+ */
+public final class GraphQLMergedResponse {
+
+    private final List<Class<?>> responseClasses;
+    private final List<GraphQLResponseEntity<?>> responses;
+
+    GraphQLMergedResponse(List<Class<?>> responseClasses, List<GraphQLResponseEntity<?>> responses) {
+        this.responseClasses = responseClasses;
+        this.responses = responses;
+    }
+
+    /**
+     * @param index index of the request in the merged request, starting at zero
+     * @param responseClass class the request was merged with
+     * @return GraphQLResponseEntity\<T>
+     * @throws IllegalArgumentException if the request was merged with another class
+     * @throws IndexOutOfBoundsException if there is no request at the index
+     */
+    @SuppressWarnings("unchecked")
+    public <T> GraphQLResponseEntity<T> get(int index, Class<T> responseClass) throws IllegalArgumentException {
+        if (!responseClasses.get(index).equals(responseClass)) {
+            throw new IllegalArgumentException("Request " + index + " was merged with " + responseClasses.get(index).getName()
+                    + ", not " + responseClass.getName());
+        }
+        return (GraphQLResponseEntity<T>) responses.get(index);
+    }
+
+    /**
+     * @return the number of response entities
+     */
+    public int size() {
+        return responses.size();
+    }
+
+    @Override
+    public String toString() {
+        return "GraphQLMergedResponse{" +
+                "responses=" + responses +
+                '}';
+    }
+}
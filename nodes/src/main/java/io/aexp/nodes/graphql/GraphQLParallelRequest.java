@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Independent requests executed concurrently by {@link GraphQLTemplate#executeAll(GraphQLParallelRequest)}, each sent
+ * as its own request, with a bound on the number of requests in flight.
+ * <p>
+ * Requests are sent in the order they were added, at most {@link ParallelRequestBuilder#concurrency(int) concurrency}
+ * at a time. With {@link Mode#FAIL_FAST} the first failure fails the whole execution and the requests not sent yet
+ * are never sent; with {@link Mode#COLLECT_ALL} every request is sent and failures are reported per request by the
+ * {@link GraphQLParallelResponse}. Once the {@link ParallelRequestBuilder#deadline(long, TimeUnit) deadline} passes,
+ * the requests not answered yet fail, those not sent yet are never sent, and the responses still coming are ignored.
+ * <p>
+ * Each request is executed with its own request method, a query unless set on its builder. Executing a request
+ * entity sets its request method, so an entity can only appear once. The parallel request is immutable and can be
+ * executed as many times as needed.
+ *
+ * <pre>
+ * GraphQLParallelRequest parallel = GraphQLParallelRequest.Builder()
+ *     .request(userRequest, User.class)
+ *     .request(ordersRequest, Orders.class)
+ *     .concurrency(8)
+ *     .deadline(2, TimeUnit.SECONDS)
+ *     .mode(GraphQLParallelRequest.Mode.COLLECT_ALL)
+ *     .build();
+ * GraphQLParallelResponse response = graphQLTemplate.executeAll(parallel);
+ * User user = response.get(0, User.class).getResponse();
+ * </pre>
+ */
+public final class GraphQLParallelRequest {
+
+    private static final int DEFAULT_CONCURRENCY = 8;
+    static final long NO_DEADLINE = -1;
+
+    private final List<GraphQLRequestEntity> requestEntities;
+    private final List<Class<?>> responseClasses;
+    private final int concurrency;
+    private final long deadline;
+    private final Mode mode;
+    private final Executor executor;
+
+    /**
+     * How failures of single requests are reported.
+     */
+    public enum Mode {
+        /**
+         * The first failure fails the whole execution with the exception of the failed request.
+         */
+        FAIL_FAST,
+        /**
+         * Every request is executed and failures are reported by {@link GraphQLParallelResponse#getException(int)}.
+         */
+        COLLECT_ALL
+    }
+
+    private GraphQLParallelRequest(ParallelRequestBuilder builder) {
+        this.requestEntities = Collections.unmodifiableList(new ArrayList<GraphQLRequestEntity>(builder.requestEntities));
+        this.responseClasses = Collections.unmodifiableList(new ArrayList<Class<?>>(builder.responseClasses));
+        this.concurrency = builder.concurrency;
+        this.deadline = builder.deadline;
+        this.mode = builder.mode;
+        this.executor = builder.executor;
+    }
+
+    public static ParallelRequestBuilder Builder() {
+        return new ParallelRequestBuilder();
+    }
+
+    /**
+     * @return the number of requests
+     */
+    public int size() {
+        return requestEntities.size();
+    }
+
+    List<GraphQLRequestEntity> getRequestEntities() {
+        return requestEntities;
+    }
+
+    List<Class<?>> getResponseClasses() {
+        return responseClasses;
+    }
+
+    int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return time given to the whole execution, in milliseconds, or {@link #NO_DEADLINE}
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    public static final class ParallelRequestBuilder {
+        private final List<GraphQLRequestEntity> requestEntities = new ArrayList<GraphQLRequestEntity>();
+        private final List<Class<?>> responseClasses = new ArrayList<Class<?>>();
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private long deadline = NO_DEADLINE;
+        private Mode mode = Mode.FAIL_FAST;
+        private Executor executor;
+
+        private ParallelRequestBuilder() {
+        }
+
+        /**
+         * Adds a request. Its response is read from {@link GraphQLParallelResponse#get(int, Class)} at the index of the
+         * request, starting at zero in the order requests are added.
+         *
+         * @param requestEntity request entity to be executed upon
+         * @param responseClass response from the execution
+         * @return ParallelRequestBuilder
+         */
+        public ParallelRequestBuilder request(GraphQLRequestEntity requestEntity, Class<?> responseClass) {
+            requestEntities.add(requestEntity);
+            responseClasses.add(responseClass);
+            return this;
+        }
+
+        /**
+         * @param concurrency maximum number of requests in flight at once, eight by default
+         * @return ParallelRequestBuilder
+         */
+        public ParallelRequestBuilder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param duration time given to the whole execution, from the moment it starts, unbounded by default
+         * @param unit unit of the duration
+         * @return ParallelRequestBuilder
+         */
+        public ParallelRequestBuilder deadline(long duration, TimeUnit unit) {
+            this.deadline = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param mode how failures of single requests are reported, {@link Mode#FAIL_FAST} by default
+         * @return ParallelRequestBuilder
+         */
+        public ParallelRequestBuilder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param executor executor the responses are handled on, and the requests are sent on for fetchers that block,
+         *     defaults to the fetcher's default, the template's blocking executor for blocking fetchers
+         * @return ParallelRequestBuilder
+         */
+        public ParallelRequestBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public GraphQLParallelRequest build() throws IllegalStateException {
+            if (requestEntities.isEmpty()) throw new IllegalStateException("at least one request must be added");
+            if (requestEntities.contains(null)) throw new IllegalStateException("requestEntity must not be null");
+            if (concurrency <= 0) throw new IllegalStateException("concurrency must be positive");
+            if (deadline != NO_DEADLINE && deadline <= 0) throw new IllegalStateException("deadline must be positive");
+            if (mode == null) throw new IllegalStateException("mode must be set");
+            return new GraphQLParallelRequest(this);
+        }
+    }
+}
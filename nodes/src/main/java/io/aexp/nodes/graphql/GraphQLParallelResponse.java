@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Response entities of the requests of a {@link GraphQLParallelRequest}, in the order the requests were added.
+ * <p>
+ * A request failed, or not answered before the deadline, has no response entity and reports its exception instead.
+ */
+public final class GraphQLParallelResponse {
+
+    private final List<Class<?>> responseClasses;
+    private final GraphQLResponseEntity<?>[] responses;
+    private final GraphQLException[] exceptions;
+
+    GraphQLParallelResponse(List<Class<?>> responseClasses, GraphQLResponseEntity<?>[] responses,
+                            GraphQLException[] exceptions) {
+        this.responseClasses = responseClasses;
+        this.responses = responses;
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * @param index index of the request, starting at zero
+     * @param responseClass class the request was added with
+     * @return GraphQLResponseEntity\<T>, or null if the request failed
+     * @throws IllegalArgumentException if the request was added with another class
+     * @throws IndexOutOfBoundsException if there is no request at the index
+     */
+    @SuppressWarnings("unchecked")
+    public <T> GraphQLResponseEntity<T> get(int index, Class<T> responseClass) throws IllegalArgumentException {
+        if (!responseClasses.get(index).equals(responseClass)) {
+            throw new IllegalArgumentException("Request " + index + " was added with " + responseClasses.get(index).getName()
+                    + ", not " + responseClass.getName());
+        }
+        return (GraphQLResponseEntity<T>) responses[index];
+    }
+
+    /**
+     * @param index index of the request, starting at zero
+     * @return the failure of the request, or null if it succeeded
+     * @throws IndexOutOfBoundsException if there is no request at the index
+     */
+    public GraphQLException getException(int index) {
+        return exceptions[index];
+    }
+
+    /**
+     * @param index index of the request, starting at zero
+     * @return true when the request was answered
+     * @throws IndexOutOfBoundsException if there is no request at the index
+     */
+    public boolean isSuccessful(int index) {
+        return getException(index) == null;
+    }
+
+    /**
+     * @return true when every request was answered
+     */
+    public boolean isSuccessful() {
+        for (GraphQLException exception : exceptions) {
+            if (exception != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of response entities
+     */
+    public int size() {
+        return responses.length;
+    }
+
+    @Override
+    public String toString() {
+        return "GraphQLParallelResponse{" +
+                "responses=" + Arrays.toString(responses) +
+                ", exceptions=" + Arrays.toString(exceptions) +
+                '}';
+    }
+}
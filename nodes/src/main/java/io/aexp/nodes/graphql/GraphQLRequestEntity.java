@@ -13,24 +13,20 @@
 
 package io.aexp.nodes.graphql;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import io.aexp.nodes.graphql.annotations.GraphQLArgument;
-import io.aexp.nodes.graphql.annotations.GraphQLArguments;
-import io.aexp.nodes.graphql.annotations.GraphQLIgnore;
-import io.aexp.nodes.graphql.annotations.GraphQLProperty;
-import io.aexp.nodes.graphql.annotations.GraphQLVariable;
-import io.aexp.nodes.graphql.annotations.GraphQLVariables;
 import io.aexp.nodes.graphql.exceptions.GraphQLException;
 
 public final class GraphQLRequestEntity {
@@ -44,25 +40,96 @@ public final class GraphQLRequestEntity {
     private final Map<String, Object> variables;
     private final Property property = new Property();
     private final List<Class> scalars;
+    private final ModelMetadata metadata;
+    private final ModelMetadata canonical;
+    private final boolean hasArguments;
+    private final PreparedGraphQLRequest prepared;
+    private final boolean minify;
+    private final long cacheTtl;
+    private final Set<String> cacheTags;
+    private final boolean oneShotVariables;
+    private final boolean staticMutation;
     private GraphQLTemplate.GraphQLMethod requestMethod;
     private String request;
 
     GraphQLRequestEntity(RequestBuilder builder) {
         this.url = builder.url;
         this.requestMethod = builder.requestMethod;
+        this.minify = builder.minify;
+        this.cacheTtl = builder.cacheTtl;
+        this.cacheTags = Collections.unmodifiableSet(new HashSet<String>(builder.cacheTags));
         this.scalars = Collections.unmodifiableList(builder.scalars);
         this.headers = Collections.unmodifiableMap(builder.headers);
-        this.variables = Collections.unmodifiableMap(variableListToMap(builder.variables));
+        this.hasArguments = builder.arguments != null && !builder.arguments.isEmpty();
         if (builder.request != null) {
             this.request = builder.request;
+            this.metadata = null;
         } else {
-            setPropertiesFromClass(builder.clazz);
+            this.metadata = ModelMetadata.of(builder.clazz, this.scalars);
+            setPropertiesFromMetadata();
         }
-        if (builder.arguments != null) {
+        if (hasArguments) {
             for (Arguments arguments : builder.arguments) {
-                setArguments(arguments.getDotPath(), arguments.getArguments());
+                setArguments(property, arguments.getDotPath(), arguments.getArguments());
             }
         }
+        this.canonical = canonicalMetadata(builder.canonical);
+        this.variables = Collections.unmodifiableMap(withHoistedValues(canonical, variableListToMap(builder.variables)));
+        this.oneShotVariables = containsIterator(variables.values());
+        this.staticMutation = isMutation(request);
+        this.prepared = null;
+    }
+
+    /**
+     * Creates a request entity from a prepared request, sharing its compiled request tree and only copying it when
+     * arguments are bound.
+     *
+     * @param prepared the prepared request being bound
+     * @param arguments arguments bound for this entity only, may be null or empty
+     * @param variables variables bound for this entity only, overriding the prepared variables with the same key
+     */
+    GraphQLRequestEntity(PreparedGraphQLRequest prepared, List<Arguments> arguments, List<Variable> variables) {
+        this.url = prepared.getUrl();
+        this.requestMethod = prepared.getRequestMethod();
+        this.minify = prepared.isMinify();
+        this.cacheTtl = prepared.getCacheTtl();
+        this.cacheTags = prepared.getCacheTags();
+        this.scalars = prepared.getScalars();
+        this.headers = prepared.getHeaders();
+        this.hasArguments = arguments != null && !arguments.isEmpty();
+        boolean hasVariables = variables != null && !variables.isEmpty();
+        this.request = prepared.getStaticRequest();
+        this.metadata = prepared.getMetadata();
+        if (this.request == null) {
+            setPropertiesFromMetadata();
+        } else if (hasArguments) {
+            throw new GraphQLException("Arguments can only be bound to requests built from a class");
+        }
+        if (hasArguments) {
+            for (Arguments bound : arguments) {
+                setArguments(property, bound.getDotPath(), bound.getArguments());
+            }
+        }
+        this.canonical = canonicalMetadata(prepared.isCanonical());
+        if (hasArguments || hasVariables) {
+            Map<String, Object> boundVariables = new HashMap<String, Object>(prepared.getVariables());
+            if (hasArguments && canonical != null) {
+                boundVariables.putAll(canonical.getHoistedValues());
+            }
+            if (hasVariables) {
+                boundVariables.putAll(variableListToMap(variables));
+            }
+            this.variables = Collections.unmodifiableMap(boundVariables);
+        } else {
+            this.variables = prepared.getVariables();
+        }
+        this.oneShotVariables = containsIterator(this.variables.values());
+        this.staticMutation = isMutation(request);
+        if (hasArguments || hasVariables) {
+            this.prepared = null;
+        } else {
+            this.prepared = prepared;
+        }
     }
 
     public URL getUrl() {
@@ -77,7 +144,13 @@ public final class GraphQLRequestEntity {
         if (this.request != null) {
             return this.request;
         }
-        return property.getMessage(null);
+        if (canonical != null) {
+            return canonical.getRequest(requestMethod, minify);
+        }
+        if (!hasArguments) {
+            return metadata.getRequest(requestMethod, minify);
+        }
+        return QueryWriter.write(property, null, minify);
     }
 
     public Map<String, Object> getVariables() {
@@ -93,6 +166,94 @@ public final class GraphQLRequestEntity {
         property.setMethod(requestMethod);
     }
 
+    GraphQLTemplate.GraphQLMethod getRequestMethod() {
+        return requestMethod;
+    }
+
+    /**
+     * Static requests are executed with the default query method, so their text also tells whether they are mutations.
+     * The text is only checked once, when the entity is built, so no request is rendered to answer.
+     *
+     * @return true if the request is a mutation
+     */
+    boolean isMutation() {
+        return requestMethod == GraphQLTemplate.GraphQLMethod.MUTATE || staticMutation;
+    }
+
+    /**
+     * @param request static request, or null for requests built from a class
+     * @return true if the static request is a mutation
+     */
+    private static boolean isMutation(String request) {
+        return request != null && request.trim().startsWith(GraphQLTemplate.GraphQLMethod.MUTATE.getValue());
+    }
+
+    /**
+     * Variables backed by an {@link java.util.Iterator} can only be written once, so such requests are only ever sent
+     * as a single POST: never as a GET request, which could fall back to a POST, nor as a persisted query, which could
+     * be sent again with its query.
+     *
+     * @return true if any variable, or any value nested in a map variable, is an Iterator
+     */
+    boolean hasOneShotVariables() {
+        return oneShotVariables;
+    }
+
+    /**
+     * @return the time to live of the cached response, in milliseconds, or -1 for the cache's default
+     */
+    long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    Set<String> getCacheTags() {
+        return cacheTags;
+    }
+
+    /**
+     * @return the root fields of the request tree, keyed by their response name, or null if the request was set as a
+     *     string
+     */
+    Map<String, Property> getRootFields() {
+        if (canonical != null) {
+            return canonical.getChildren();
+        }
+        if (metadata == null) {
+            return null;
+        }
+        return property.getChildren();
+    }
+
+    /**
+     * @return the variables declared on the request root, keyed by their {@code $} prefixed name, or null if the
+     *     request was set as a string
+     */
+    Map<String, Object> getVariableDeclarations() {
+        if (canonical != null) {
+            return canonical.getVariables();
+        }
+        if (metadata == null) {
+            return null;
+        }
+        return metadata.getVariables();
+    }
+
+    /**
+     * Returns the prepared request this entity was bound from when the entity still sends exactly the prepared request
+     * body, allowing its encoded form to be reused.
+     *
+     * @return PreparedGraphQLRequest, or null if the entity was not bound from a prepared request or differs from it
+     */
+    PreparedGraphQLRequest getPrepared() {
+        if (prepared == null) {
+            return null;
+        }
+        if (request == null && requestMethod != prepared.getRequestMethod()) {
+            return null;
+        }
+        return prepared;
+    }
+
     @Override
     public String toString() {
         return "GraphQLRequestEntity{" +
@@ -110,11 +271,12 @@ public final class GraphQLRequestEntity {
      *                 be set. If any annotations are present on the class or field that change the display name in the
      *                 request, then that new name is to be the one included in the dotPath, otherwise the class or
      *                 field name should be used
+     * @param root root property of the request tree the arguments are set on
      * @param  arguments arguments to be applied to the request
      * @throws GraphQLException is thrown at runtime if the dotPath does not correlate to a field accepting arguments
      */
-    private void setArguments(String dotPath, List<Argument> arguments) throws GraphQLException {
-        Property argProp = property;
+    static void setArguments(Property root, String dotPath, List<Argument> arguments) throws GraphQLException {
+        Property argProp = root;
         String[] path = dotPath.split("\\.");
         for (String key: path) {
             argProp = argProp.getChildren().get(key);
@@ -130,10 +292,11 @@ public final class GraphQLRequestEntity {
             if (index == -1) throw new GraphQLException("Argument '" + argument + "' doesn't exist on path '" + dotPath + "'");
             Argument propArg = args.get(index);
             propArg.setValue(argument.getValue());
+            if (argument.getType() != null) propArg.setType(argument.getType());
         }
     }
 
-    private Integer indexOfArg(List<Argument> arguments, String key) {
+    private static Integer indexOfArg(List<Argument> arguments, String key) {
         Integer index = 0;
         for (Argument argument : arguments) {
             if (key.equalsIgnoreCase(argument.getKey())) {
@@ -145,184 +308,70 @@ public final class GraphQLRequestEntity {
     }
 
     /**
-     * Builds the request tree from the provided class.
-     *
-     * @param clazz the class used to construct the request
+     * Builds the request tree from the cached metadata of the request class. The shared tree is only copied when
+     * arguments need to be set on it.
      */
-    private void setPropertiesFromClass(Class clazz) {
-        Map<String, Object> propertyVariables = new HashMap<String, Object>();
-        Map<String, Property> children = this.getChildren(clazz, propertyVariables);
-        GraphQLProperty graphQLProperty = (GraphQLProperty) clazz.getAnnotation(GraphQLProperty.class);
-        if (graphQLProperty != null) {
-            Property resourceProperty = new Property();
-            List<Argument> arguments = null;
-            String resourceName = graphQLProperty.name();
-            if (graphQLProperty.arguments().length > 0) {
-                arguments = new ArrayList<Argument>();
-                for (GraphQLArgument graphQLArgument : graphQLProperty.arguments()) {
-                    arguments = setArgument(arguments, graphQLArgument);
-                }
-            }
-            resourceProperty.setArguments(arguments);
-            resourceProperty.setChildren(children);
-            Map<String, Property> resourceChild = new HashMap<String, Property>();
-            resourceChild.put(resourceName, resourceProperty);
-            children = resourceChild;
+    private void setPropertiesFromMetadata() {
+        if (hasArguments) {
+            property.setChildren(Collections.unmodifiableMap(metadata.copyChildren()));
+        } else {
+            property.setChildren(metadata.getChildren());
         }
-        property.setChildren(Collections.unmodifiableMap(children));
         property.setMethod(requestMethod);
-        property.setVariables(Collections.unmodifiableMap(propertyVariables));
-    }
-
-    private Map<String, Object> variableListToMap(List<Variable> variables) {
-        Map<String, Object> variableMap = new HashMap<String, Object>();
-        for (Variable variable : variables) {
-            variableMap.put(variable.getKey(), variable.getValue());
-        }
-        return variableMap;
-    }
-
-    private boolean isList(Field field) {
-        String simpleName = field.getType().getSimpleName();
-        return simpleName.equalsIgnoreCase("ArrayList") ||
-                simpleName.equalsIgnoreCase("List") ||
-                field.getType().isArray();
-    }
-
-    private boolean isProperty(Field field) {
-        return isProperty(field.getType());
-    }
-
-    private boolean isProperty(Class clazz) {
-        if (scalars != null) {
-            for (Class scalar : scalars) {
-                if (scalar.equals(clazz)) return true;
-            }
-        }
-        return clazz.isPrimitive()
-                || clazz.getPackage().getName().equalsIgnoreCase("java.lang")
-                || clazz.getPackage().getName().equalsIgnoreCase("java.time");
+        property.setVariables(metadata.getVariables());
     }
 
     /**
-     * Adds the arguments into the argument list from the GraphQLArgument annotation to provide the correct type
+     * Returns the canonical form of the request tree, reusing the one cached with the class metadata when no arguments
+     * were set on this entity.
      *
-     * @param arguments list of arguments to add the annotated argument to
-     * @param graphQLArgument annotated argument to add to the request construction
-     * @return List\<Argument>
+     * @param canonicalRequested true if the request should be canonical
+     * @return ModelMetadata, or null if the request is not canonical or was set as a string
      */
-    private List<Argument> setArgument(List<Argument> arguments, GraphQLArgument graphQLArgument) {
-        String type = graphQLArgument.type();
-        boolean optional = graphQLArgument.optional();
-        String value = valueOf(graphQLArgument.value());
-        if (value == null) {
-            arguments.add(new Argument<String>(graphQLArgument.name(), value, optional));
-        } else if ("Boolean".equalsIgnoreCase(type)) {
-            arguments.add(new Argument<Boolean>(graphQLArgument.name(), Boolean.valueOf(value), optional));
-        } else if ("Integer".equalsIgnoreCase(type)) {
-            arguments.add(new Argument<Integer>(graphQLArgument.name(), Integer.valueOf(value), optional));
-        } else if ("Float".equalsIgnoreCase(type)) {
-            arguments.add(new Argument<Float>(graphQLArgument.name(), Float.valueOf(value), optional));
-        } else {
-            arguments.add(new Argument<String>(graphQLArgument.name(), value, optional));
+    private ModelMetadata canonicalMetadata(boolean canonicalRequested) {
+        if (!canonicalRequested || metadata == null) {
+            return null;
+        }
+        if (!hasArguments) {
+            return metadata.canonical();
         }
-        return arguments;
+        return Canonicalizer.canonicalize(scalars, property.getChildren(), metadata.getVariables());
     }
 
     /**
-     * Recursively iterates over nested classes building the request tree while checking for any annotations to apply to
-     * the fields.
+     * Merges the values of hoisted arguments with the request variables. Request variables take precedence.
      *
-     * @param clazz the class used to construct the request
-     * @param propertyVariables set of variables set on a GraphQL property or field defined in the class
-     * @return Map\<String, Property>
+     * @param canonical canonical metadata, may be null
+     * @param variables variables set on the request
+     * @return Map\<String, Object>
      */
-    private Map<String, Property> getChildren(Class clazz, Map<String, Object> propertyVariables) {
-        Field[] declaredFields = clazz.getDeclaredFields();
-        ArrayList<Field> fields = new ArrayList<Field>(Arrays.asList(declaredFields));
-        Class<?> superClass = clazz.getSuperclass();
-        while (!superClass.getPackage().getName().equalsIgnoreCase("java.lang")) {
-            Field[] superClassFields = superClass.getDeclaredFields();
-            fields.addAll(Arrays.asList(superClassFields));
-            superClass = superClass.getSuperclass();
-        }
-
-        Map<String, Property> children = new HashMap<String, Property>();
-        for (Field field : fields) {
-            if (field.isSynthetic() || field.isEnumConstant()) continue;
-
-            GraphQLIgnore ignoreAnnotation = field.getAnnotation(GraphQLIgnore.class);
-            if (ignoreAnnotation != null) {
-                continue;
-            }
-
-            String propertyKey = field.getName();
-            List<Argument> arguments = null;
-            Property property = new Property();
-
-            GraphQLProperty propertyAnnotation = field.getAnnotation(GraphQLProperty.class);
-            if (propertyAnnotation != null) {
-                arguments = new ArrayList<Argument>();
-                String name = propertyAnnotation.name();
-                property.setResourceName(name);
-                propertyKey = field.getName();
-                for (GraphQLArgument graphQLArgument : propertyAnnotation.arguments()) {
-                    arguments = setArgument(arguments, graphQLArgument);
-                }
-            }
-            GraphQLArguments argumentsAnnotation = field.getAnnotation(GraphQLArguments.class);
-            if (argumentsAnnotation != null) {
-                if (arguments == null) arguments = new ArrayList<Argument>();
-                for (GraphQLArgument graphQLArgument : argumentsAnnotation.value()) {
-                    arguments = setArgument(arguments, graphQLArgument);
-                }
-            }
-            GraphQLArgument graphQLArgument = field.getAnnotation(GraphQLArgument.class);
-            if (graphQLArgument != null) {
-                if (arguments == null) arguments = new ArrayList<Argument>();
-                arguments = setArgument(arguments, graphQLArgument);
-            }
-
-            GraphQLVariables variablesAnnotation = field.getAnnotation(GraphQLVariables.class);
-            if (variablesAnnotation != null) {
-                if (arguments == null) arguments = new ArrayList<Argument>();
-                for (GraphQLVariable graphQLVariable : variablesAnnotation.value()) {
-                    arguments.add(new Argument<String>(graphQLVariable.name(), "$" + graphQLVariable.name()));
-                    propertyVariables.put("$" + graphQLVariable.name(), graphQLVariable.scalar());
-                }
-            }
+    static Map<String, Object> withHoistedValues(ModelMetadata canonical, Map<String, Object> variables) {
+        if (canonical == null || canonical.getHoistedValues().isEmpty()) {
+            return variables;
+        }
+        Map<String, Object> merged = new HashMap<String, Object>(canonical.getHoistedValues());
+        merged.putAll(variables);
+        return merged;
+    }
 
-            GraphQLVariable graphQLVariable = field.getAnnotation(GraphQLVariable.class);
-            if (graphQLVariable != null) {
-                if (arguments == null) arguments = new ArrayList<Argument>();
-                arguments.add(new Argument<String>(graphQLVariable.name(), "$" + graphQLVariable.name()));
-                propertyVariables.put("$" + graphQLVariable.name(), graphQLVariable.scalar());
+    private static boolean containsIterator(Collection<?> values) {
+        for (Object value : values) {
+            if (value instanceof Iterator) {
+                return true;
             }
-
-            property.setArguments(arguments);
-
-            if (isList(field)) {
-                Type type = field.getGenericType();
-                if (type instanceof ParameterizedType) {
-                    ParameterizedType pType = (ParameterizedType) type;
-                    Class containedClass = (Class) pType.getActualTypeArguments()[0];
-                    if (!isProperty(containedClass)) {
-                        property.setChildren(getChildren(containedClass, propertyVariables));
-                    }
-                }
-            } else if (!isProperty(field)) {
-                property.setChildren(getChildren(field.getType(), propertyVariables));
+            if (value instanceof Map && containsIterator(((Map<?, ?>) value).values())) {
+                return true;
             }
-            children.put(propertyKey, property);
         }
-        return children;
+        return false;
     }
 
-    private static String valueOf(String value) {
-        if (value == null || "null".equals(value)) {
-            return null;
+    static Map<String, Object> variableListToMap(List<Variable> variables) {
+        Map<String, Object> variableMap = new HashMap<String, Object>();
+        for (Variable variable : variables) {
+            variableMap.put(variable.getKey(), variable.getValue());
         }
-        return value;
+        return variableMap;
     }
 
     public static class RequestBuilder {
@@ -335,6 +384,10 @@ public final class GraphQLRequestEntity {
         List<Variable> variables = new ArrayList<Variable>();
         List<Class> scalars = new ArrayList<Class>();
         GraphQLTemplate.GraphQLMethod requestMethod = GraphQLTemplate.GraphQLMethod.QUERY;
+        boolean minify;
+        boolean canonical;
+        long cacheTtl = -1;
+        List<String> cacheTags = Collections.emptyList();
 
         RequestBuilder() { }
 
@@ -393,10 +446,74 @@ public final class GraphQLRequestEntity {
             return this;
         }
 
+        /**
+         * Renders the request built from a class without the spaces that aren't needed to separate fields. Requests
+         * set as a string are sent as given.
+         *
+         * @param minify true to minify the rendered request
+         * @return RequestBuilder
+         */
+        public RequestBuilder minify(boolean minify) {
+            this.minify = minify;
+            return this;
+        }
+
+        /**
+         * Renders the request built from a class in canonical form: fields are sorted by name and every inline
+         * argument value is hoisted into a generated, typed variable, so the request text is the same whatever the
+         * argument values. The generated variables are declared with the variableType of the {@code @GraphQLArgument}
+         * or the type set with {@link Argument#setType(String)}, and building fails when an argument has neither.
+         *
+         * @param canonical true to render the request in canonical form
+         * @return RequestBuilder
+         */
+        public RequestBuilder canonical(boolean canonical) {
+            this.canonical = canonical;
+            return this;
+        }
+
+        /**
+         * Overrides the time to live of the response in the {@link QueryCache} of the template, zero to never cache
+         * it.
+         *
+         * @param duration time the response is served from the cache
+         * @param unit unit of the duration
+         * @return RequestBuilder
+         */
+        public RequestBuilder cacheTtl(long duration, TimeUnit unit) {
+            this.cacheTtl = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Tags of the request in the {@link QueryCache} of the template: the response of a query is tagged with them,
+         * while a mutation invalidates every cached response tagged with any of them.
+         *
+         * @param cacheTags tags of the request
+         * @return RequestBuilder
+         */
+        public RequestBuilder cacheTags(String... cacheTags) {
+            this.cacheTags = Arrays.asList(cacheTags);
+            return this;
+        }
+
         public GraphQLRequestEntity build() throws IllegalStateException {
             if (url == null) throw new IllegalStateException("url must be set");
             if (this.clazz == null && this.request == null) throw new IllegalStateException("request must be set");
             return new GraphQLRequestEntity(this);
         }
+
+        /**
+         * Compiles the request into an immutable prepared request. Arguments and variables set on this builder become
+         * the defaults of every entity bound from it.
+         *
+         * @return PreparedGraphQLRequest
+         * @throws IllegalStateException if the url or request is not set
+         */
+        public PreparedGraphQLRequest prepare() throws IllegalStateException {
+            if (url == null) throw new IllegalStateException("url must be set");
+            if (this.clazz == null && this.request == null) throw new IllegalStateException("request must be set");
+            return new PreparedGraphQLRequest(this);
+        }
     }
 }
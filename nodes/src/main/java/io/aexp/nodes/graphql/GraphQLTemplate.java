@@ -15,10 +15,36 @@ package io.aexp.nodes.graphql;
 
 import io.aexp.nodes.graphql.exceptions.GraphQLException;
 import io.aexp.nodes.graphql.internal.DefaultObjectMapperFactory;
+import io.aexp.nodes.graphql.internal.Error;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Executes GraphQL request entities and maps the results into response entities.
+ * <p>
+ * A template holds no per-request state, so a single instance can be shared across threads and should be reused
+ * rather than created per request. Request entities are not shareable in the same way, since executing one sets its
+ * request method.
+ */
 public class GraphQLTemplate {
 
-    private Fetcher fetch;
+    static final int DEFAULT_MAX_GET_URL_LENGTH = 2048;
+
+    private final Fetcher fetch;
+    private final AbstractFetcher transport;
+    private final ObjectMapperFactory objectMapperFactory;
+    private volatile ObjectMapper responseMapper;
+    private volatile ObjectMapper elementMapper;
 
     public enum GraphQLMethod {
         QUERY("query"),
@@ -33,6 +59,15 @@ public class GraphQLTemplate {
         }
     }
 
+    /**
+     * Returns a builder for a template configured with transport options, such as timeouts or persisted queries.
+     *
+     * @return TemplateBuilder
+     */
+    public static TemplateBuilder Builder() {
+        return new TemplateBuilder();
+    }
+
     /**
      * Constructs a new GraphQL template instance using the default ObjectMapper factory.
      */
@@ -45,15 +80,17 @@ public class GraphQLTemplate {
      * @param objectMapperFactory factory class used for creating ObjectMapper instances
      */
     public GraphQLTemplate(final ObjectMapperFactory objectMapperFactory) {
-        this(new Fetch(objectMapperFactory));
+        this(new Fetch(objectMapperFactory), objectMapperFactory);
     }
 
     /**
-     * Constructs a new GraphQL template instance using the specified ObjectMapper factory.
+     * Constructs a new GraphQL template instance using the specified fetcher. Merged responses and streamed lists are
+     * bound with the mappers of the fetcher when it is one of the library's own, and with the default ObjectMapper
+     * factory otherwise.
      * @param fetcher custom fetch provider
      */
     public GraphQLTemplate(final Fetcher fetcher) {
-        fetch = fetcher;
+        this(fetcher, null);
     }
 
     /**
@@ -76,7 +113,32 @@ public class GraphQLTemplate {
      * @param readTimeout Sets the read timeout to a specified timeout, in milliseconds
      */
     public GraphQLTemplate(final ObjectMapperFactory objectMapperFactory, int connectTimeout, int readTimeout) {
-        fetch = new Fetch(objectMapperFactory, connectTimeout, readTimeout);
+        this(new Fetch(objectMapperFactory, connectTimeout, readTimeout), objectMapperFactory);
+    }
+
+    private GraphQLTemplate(Fetcher fetcher, ObjectMapperFactory objectMapperFactory) {
+        this.fetch = fetcher;
+        this.transport = AbstractFetcher.transportOf(fetcher);
+        if (transport != null) {
+            this.objectMapperFactory = transport.getObjectMapperFactory();
+        } else if (objectMapperFactory != null) {
+            this.objectMapperFactory = objectMapperFactory;
+        } else {
+            this.objectMapperFactory = new DefaultObjectMapperFactory();
+        }
+    }
+
+    private GraphQLTemplate(TemplateBuilder builder) {
+        Fetcher fetcher = new Fetch(builder);
+        if (builder.singleFlight) {
+            fetcher = new SingleFlightFetcher(fetcher);
+        }
+        if (builder.cache != null) {
+            fetcher = builder.cache.wrap(fetcher);
+        }
+        fetch = fetcher;
+        transport = AbstractFetcher.transportOf(fetcher);
+        objectMapperFactory = builder.objectMapperFactory;
     }
 
     /**
@@ -129,4 +191,520 @@ public class GraphQLTemplate {
         if (null != method) requestEntity.setRequestMethod(method);
         return fetch.send(requestEntity, responseClass);
     }
+
+    /**
+     * Execute a GraphQL query request asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> queryAsync(GraphQLRequestEntity requestEntity,
+                                                                      Class<T> responseClass) throws GraphQLException {
+        return executeAsync(GraphQLMethod.QUERY, requestEntity, responseClass, null);
+    }
+
+    /**
+     * Execute a GraphQL query request asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @param executor executor the response is handled on
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> queryAsync(GraphQLRequestEntity requestEntity,
+                                                                      Class<T> responseClass, Executor executor)
+            throws GraphQLException {
+        return executeAsync(GraphQLMethod.QUERY, requestEntity, responseClass, executor);
+    }
+
+    /**
+     * Execute a GraphQL mutation request asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> mutateAsync(GraphQLRequestEntity requestEntity,
+                                                                       Class<T> responseClass) throws GraphQLException {
+        return executeAsync(GraphQLMethod.MUTATE, requestEntity, responseClass, null);
+    }
+
+    /**
+     * Execute a GraphQL mutation request asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @param executor executor the response is handled on
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> mutateAsync(GraphQLRequestEntity requestEntity,
+                                                                       Class<T> responseClass, Executor executor)
+            throws GraphQLException {
+        return executeAsync(GraphQLMethod.MUTATE, requestEntity, responseClass, executor);
+    }
+
+    /**
+     * Execute any static GraphQL request asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> executeAsync(GraphQLRequestEntity requestEntity,
+                                                                        Class<T> responseClass) throws GraphQLException {
+        return executeAsync(null, requestEntity, responseClass, null);
+    }
+
+    /**
+     * Execute any static GraphQL request asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @param executor executor the response is handled on, may be null
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> executeAsync(GraphQLRequestEntity requestEntity,
+                                                                        Class<T> responseClass, Executor executor)
+            throws GraphQLException {
+        return executeAsync(null, requestEntity, responseClass, executor);
+    }
+
+    /**
+     * Execute any GraphQL request asynchronously.
+     * <p>
+     * Only {@code HttpClientFetcher} sends without blocking: the response is handled on the executor. The default
+     * fetcher and custom fetchers block a thread while sending, so they are run on the executor itself, or on the
+     * template's {@link TemplateBuilder#executor(Executor) blocking executor} when none is given, never on the common
+     * pool. The returned future completes exceptionally with a {@link GraphQLException} if the request fails.
+     *
+     * @param method sets the request execution verb, optionally null when sending a fully built static request query
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @param executor executor the response is handled on, or null for the fetcher's default, the blocking executor
+     *     for blocking fetchers
+     * @return CompletableFuture\<GraphQLResponseEntity\<T>>
+     * @throws GraphQLException if the request entity is null
+     */
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> executeAsync(GraphQLMethod method,
+                                                                        GraphQLRequestEntity requestEntity,
+                                                                        Class<T> responseClass, Executor executor)
+            throws GraphQLException {
+        if (null == requestEntity) {
+            throw new GraphQLException("requestEntity must not be null");
+        }
+        if (null != method) requestEntity.setRequestMethod(method);
+        return FutureUtil.sendAsync(fetch, requestEntity, responseClass, executor);
+    }
+
+    /**
+     * Execute the requests of a merged request as a single GraphQL query.
+     *
+     * @param mergedRequest requests merged into one document
+     * @return GraphQLMergedResponse
+     */
+    public GraphQLMergedResponse query(GraphQLMergedRequest mergedRequest) throws GraphQLException {
+        return execute(GraphQLMethod.QUERY, mergedRequest);
+    }
+
+    /**
+     * Execute the requests of a merged request as a single GraphQL mutation.
+     *
+     * @param mergedRequest requests merged into one document
+     * @return GraphQLMergedResponse
+     */
+    public GraphQLMergedResponse mutate(GraphQLMergedRequest mergedRequest) throws GraphQLException {
+        return execute(GraphQLMethod.MUTATE, mergedRequest);
+    }
+
+    /**
+     * Execute the requests of a merged request as a single GraphQL query asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param mergedRequest requests merged into one document
+     * @return CompletableFuture\<GraphQLMergedResponse>
+     */
+    public CompletableFuture<GraphQLMergedResponse> queryAsync(GraphQLMergedRequest mergedRequest) throws GraphQLException {
+        return executeAsync(GraphQLMethod.QUERY, mergedRequest, null);
+    }
+
+    /**
+     * Execute the requests of a merged request as a single GraphQL query asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param mergedRequest requests merged into one document
+     * @param executor executor the response is handled on, may be null
+     * @return CompletableFuture\<GraphQLMergedResponse>
+     */
+    public CompletableFuture<GraphQLMergedResponse> queryAsync(GraphQLMergedRequest mergedRequest, Executor executor)
+            throws GraphQLException {
+        return executeAsync(GraphQLMethod.QUERY, mergedRequest, executor);
+    }
+
+    /**
+     * Execute the requests of a merged request as a single GraphQL mutation asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param mergedRequest requests merged into one document
+     * @return CompletableFuture\<GraphQLMergedResponse>
+     */
+    public CompletableFuture<GraphQLMergedResponse> mutateAsync(GraphQLMergedRequest mergedRequest) throws GraphQLException {
+        return executeAsync(GraphQLMethod.MUTATE, mergedRequest, null);
+    }
+
+    /**
+     * Execute the requests of a merged request as a single GraphQL mutation asynchronously, see
+     * {@link #executeAsync(GraphQLMethod, GraphQLRequestEntity, Class, Executor)}.
+     *
+     * @param mergedRequest requests merged into one document
+     * @param executor executor the response is handled on, may be null
+     * @return CompletableFuture\<GraphQLMergedResponse>
+     */
+    public CompletableFuture<GraphQLMergedResponse> mutateAsync(GraphQLMergedRequest mergedRequest, Executor executor)
+            throws GraphQLException {
+        return executeAsync(GraphQLMethod.MUTATE, mergedRequest, executor);
+    }
+
+    /**
+     * Execute independent GraphQL requests concurrently and wait for their responses, see
+     * {@link GraphQLParallelRequest}.
+     *
+     * @param parallelRequest requests to be executed upon, with the concurrency, deadline and mode of the execution
+     * @return GraphQLParallelResponse, in the order the requests were added
+     * @throws GraphQLException if any request fails or the deadline passes in fail-fast mode
+     */
+    public GraphQLParallelResponse executeAll(GraphQLParallelRequest parallelRequest) throws GraphQLException {
+        CompletableFuture<GraphQLParallelResponse> response = executeAllAsync(parallelRequest);
+        try {
+            return response.get();
+        } catch (ExecutionException exception) {
+            throw FutureUtil.toGraphQLException(exception.getCause());
+        } catch (InterruptedException exception) {
+            // Cancelling the execution keeps the requests not sent yet from being sent
+            response.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new GraphQLException("Interrupted while waiting for the responses");
+        }
+    }
+
+    /**
+     * Execute independent GraphQL requests concurrently, see {@link GraphQLParallelRequest}. The returned future
+     * completes exceptionally with a {@link GraphQLException} if any request fails or the deadline passes in fail-fast
+     * mode; cancelling it stops sending the requests not sent yet.
+     *
+     * @param parallelRequest requests to be executed upon, with the concurrency, deadline and mode of the execution
+     * @return CompletableFuture\<GraphQLParallelResponse>
+     * @throws GraphQLException if the parallel request is null
+     */
+    public CompletableFuture<GraphQLParallelResponse> executeAllAsync(GraphQLParallelRequest parallelRequest)
+            throws GraphQLException {
+        if (null == parallelRequest) {
+            throw new GraphQLException("parallelRequest must not be null");
+        }
+        return new ParallelExecution(fetch, parallelRequest).start();
+    }
+
+    private GraphQLMergedResponse execute(GraphQLMethod method, GraphQLMergedRequest mergedRequest) throws GraphQLException {
+        if (null == mergedRequest) {
+            throw new GraphQLException("mergedRequest must not be null");
+        }
+        GraphQLResponseEntity<TokenBuffer> response = fetch.send(mergedRequest.toRequestEntity(method), TokenBuffer.class);
+        return mergedRequest.split(response, responseMapper());
+    }
+
+    private CompletableFuture<GraphQLMergedResponse> executeAsync(GraphQLMethod method,
+                                                                  final GraphQLMergedRequest mergedRequest,
+                                                                  Executor executor) throws GraphQLException {
+        if (null == mergedRequest) {
+            throw new GraphQLException("mergedRequest must not be null");
+        }
+        return FutureUtil.sendAsync(fetch, mergedRequest.toRequestEntity(method), TokenBuffer.class, executor).thenApply(
+                new Function<GraphQLResponseEntity<TokenBuffer>, GraphQLMergedResponse>() {
+                    @Override
+                    public GraphQLMergedResponse apply(GraphQLResponseEntity<TokenBuffer> response) {
+                        return mergedRequest.split(response, responseMapper());
+                    }
+                });
+    }
+
+    /**
+     * Sends the request and opens a reader over a list of its data, parsed as the response is read when the fetcher
+     * is one of the library's own, and read from the whole response otherwise.
+     *
+     * @param method sets the request execution verb, optionally null when sending a fully built static request query
+     * @param requestEntity request entity to be executed upon
+     * @param elementClass class the elements of the list are bound to
+     * @param path dot separated path of the list from the data
+     * @return ElementReader\<E>
+     * @throws GraphQLException if the request fails or the response has errors before its data
+     */
+    <E> ElementReader<E> openElements(GraphQLMethod method, GraphQLRequestEntity requestEntity, Class<E> elementClass,
+                                      String path) throws GraphQLException {
+        if (null == requestEntity) {
+            throw new GraphQLException("requestEntity must not be null");
+        }
+        if (null != method) requestEntity.setRequestMethod(method);
+        ObjectReader elementReader = elementMapper().readerFor(elementClass);
+        if (fetch instanceof AbstractFetcher) {
+            return ((AbstractFetcher) fetch).openElements(requestEntity, elementReader,
+                    responseMapper().readerFor(Error[].class), path);
+        }
+        GraphQLResponseEntity<TokenBuffer> response = fetch.send(requestEntity, TokenBuffer.class);
+        TokenBuffer data = response.getResponse();
+        if (data == null) {
+            data = new TokenBuffer(null, false);
+        }
+        try {
+            return ElementReader.ofData(data.asParser(elementMapper()), elementReader, path, response.getErrors());
+        } catch (IOException exception) {
+            GraphQLException graphQLException = new GraphQLException();
+            graphQLException.setDescription(exception.getMessage());
+            throw graphQLException;
+        }
+    }
+
+    /**
+     * @return executor blocking sends and reads are run on when no executor is given
+     */
+    Executor getBlockingExecutor() {
+        if (transport != null) {
+            return transport.getBlockingExecutor();
+        }
+        return FutureUtil.BLOCKING_EXECUTOR;
+    }
+
+    /**
+     * The data of a merged response is buffered as is and bound per request afterwards, with the mapper of the
+     * library's fetcher sending the requests. A template sending through a custom fetcher creates a mapper configured
+     * the same way the first time a merged request is executed. The errors of streamed lists are bound with it too.
+     *
+     * @return ObjectMapper
+     */
+    private ObjectMapper responseMapper() {
+        if (transport != null) {
+            return transport.getMapper();
+        }
+        ObjectMapper mapper = responseMapper;
+        if (mapper == null) {
+            mapper = AbstractFetcher.newMapper(objectMapperFactory);
+            responseMapper = mapper;
+        }
+        return mapper;
+    }
+
+    /**
+     * Elements of streamed lists are bound as resources are, with a deserialization mapper of the factory of the
+     * fetcher created the first time a list is streamed.
+     *
+     * @return ObjectMapper
+     */
+    private ObjectMapper elementMapper() {
+        ObjectMapper mapper = elementMapper;
+        if (mapper == null) {
+            mapper = objectMapperFactory.newDeserializerMapper();
+            elementMapper = mapper;
+        }
+        return mapper;
+    }
+
+    public static class TemplateBuilder {
+        ObjectMapperFactory objectMapperFactory = new DefaultObjectMapperFactory();
+        int connectTimeout = -1;
+        int readTimeout = -1;
+        boolean persistedQueries;
+        boolean httpGet;
+        int maxGetUrlLength = DEFAULT_MAX_GET_URL_LENGTH;
+        int compressionThreshold = -1;
+        String binaryMediaType;
+        JsonFactory binaryFactory;
+        long batchWindow = -1;
+        int maxBatchSize;
+        QueryCache cache;
+        boolean singleFlight;
+        Executor executor;
+
+        public TemplateBuilder objectMapperFactory(ObjectMapperFactory objectMapperFactory) {
+            this.objectMapperFactory = objectMapperFactory;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout timeout, in milliseconds, used when opening a communications link
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param readTimeout timeout, in milliseconds, used when reading the response
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder readTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Sends automatic persisted queries: requests carry the SHA-256 hash of the query in the
+         * {@code extensions.persistedQuery} field instead of the query text, and are sent again with the query text
+         * only when the server answers {@code PersistedQueryNotFound}.
+         *
+         * @param persistedQueries true to send automatic persisted queries
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder persistedQueries(boolean persistedQueries) {
+            this.persistedQueries = persistedQueries;
+            return this;
+        }
+
+        /**
+         * Sends queries as GET requests carrying the URL encoded {@code query}, {@code variables} and
+         * {@code extensions} parameters, so HTTP caches between the client and the server can answer them. Queries
+         * whose url would be longer than {@link #maxGetUrlLength(int)} and mutations are still posted.
+         * <p>
+         * The entity tag of each GET response is kept along with its body, so the next identical request is sent with
+         * {@code If-None-Match} and a {@code 304 Not Modified} answer is bound again from the kept body into a new
+         * response entity, carrying the headers of the {@code 304} response.
+         *
+         * @param httpGet true to send queries as GET requests
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder httpGet(boolean httpGet) {
+            this.httpGet = httpGet;
+            return this;
+        }
+
+        /**
+         * @param maxGetUrlLength length of the url above which queries are posted, 2048 by default
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder maxGetUrlLength(int maxGetUrlLength) {
+            this.maxGetUrlLength = maxGetUrlLength;
+            return this;
+        }
+
+        /**
+         * Gzips request bodies longer than the threshold and sends them with {@code Content-Encoding: gzip}, which the
+         * server must accept. Responses are always requested with {@code Accept-Encoding: gzip, deflate} and inflated
+         * as they are parsed; setting an {@code Accept-Encoding} request header overrides it.
+         *
+         * @param compressionThreshold length in bytes of the request body above which it is gzipped, -1 (the default)
+         *     to never compress request bodies
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder compressRequestsAbove(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * Asks for responses in a binary Jackson dataformat, falling back to JSON: requests are sent with
+         * {@code Accept: <mediaType>, application/json;q=0.9}, and only responses whose {@code Content-Type} is the
+         * media type are parsed with the factory. Both formats are bound by the mappers of the
+         * {@link #objectMapperFactory(ObjectMapperFactory) objectMapperFactory}. Request bodies are still sent as JSON.
+         *
+         * <pre>
+         * GraphQLTemplate.Builder().binaryFormat("application/cbor", new CBORFactory()).build();
+         * </pre>
+         *
+         * @param mediaType media type of the format, e.g. {@code application/cbor} or {@code application/x-jackson-smile}
+         * @param factory factory of the format's parsers, e.g. {@code CBORFactory} or {@code SmileFactory}
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder binaryFormat(String mediaType, JsonFactory factory) {
+            this.binaryMediaType = mediaType;
+            this.binaryFactory = factory;
+            return this;
+        }
+
+        /**
+         * Batches posted requests: requests to the same url with the same headers are collected for the window, or
+         * until {@code maxBatchSize} of them are waiting, and sent as a single JSON array body. The server answers
+         * with an array of responses in the same order, each carrying its own {@code data} and {@code errors}. An error
+         * status fails every request of the batch. The server must support batched requests, as Apollo Server does.
+         *
+         * @param window time requests are collected for, from the first request of the batch
+         * @param unit unit of the window
+         * @param maxBatchSize number of requests sending the batch before the window elapsed
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder batch(long window, TimeUnit unit, int maxBatchSize) {
+            this.batchWindow = unit.toNanos(window);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Serves queries from the cache, see {@link QueryCache}. A cache can be shared by several templates.
+         *
+         * @param cache cache of query responses
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder cache(QueryCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Coalesces identical queries in flight at the same time into a single request, see
+         * {@link SingleFlightFetcher}.
+         *
+         * @param singleFlight true to coalesce identical queries
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder singleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        /**
+         * Sets the executor requests are sent on when an asynchronous method is called without one. The default
+         * fetcher blocks a thread for the whole exchange, so the executor should be sized for blocking calls. By
+         * default, a shared pool of daemon threads created on demand is used, never the common pool.
+         *
+         * @param executor executor blocking requests are sent on
+         * @return TemplateBuilder
+         */
+        public TemplateBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public GraphQLTemplate build() throws IllegalStateException {
+            if (objectMapperFactory == null) throw new IllegalStateException("objectMapperFactory must be set");
+            if ((binaryMediaType == null) != (binaryFactory == null)) {
+                throw new IllegalStateException("binaryFormat needs both a media type and a factory");
+            }
+            if (batchWindow >= 0 && maxBatchSize <= 0) throw new IllegalStateException("maxBatchSize must be positive");
+            return new GraphQLTemplate(this);
+        }
+
+        /**
+         * @return the batch window set on the builder, or null when requests aren't batched
+         */
+        RequestBatcher.Window batchWindow() {
+            if (batchWindow < 0) {
+                return null;
+            }
+            return new RequestBatcher.Window(batchWindow, maxBatchSize);
+        }
+
+        /**
+         * @return the binary format set on the builder, or null when only JSON is accepted
+         */
+        BinaryFormat binaryFormat() {
+            if (binaryFactory == null) {
+                return null;
+            }
+            return new BinaryFormat(binaryMediaType, binaryFactory);
+        }
+    }
 }
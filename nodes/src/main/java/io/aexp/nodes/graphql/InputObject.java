@@ -16,8 +16,6 @@ package io.aexp.nodes.graphql;
 import java.util.HashMap;
 import java.util.Map;
 
-import static io.aexp.nodes.graphql.StringUtil.formatGraphQLParameter;
-
 public final class InputObject<T> {
 
     private Map<String, T> map;
@@ -28,13 +26,19 @@ public final class InputObject<T> {
 
     protected String getMessage() {
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("{");
+        appendMessage(stringBuilder);
+        return stringBuilder.toString();
+    }
+
+    void appendMessage(StringBuilder stringBuilder) {
+        stringBuilder.append('{');
+        boolean first = true;
         for (Map.Entry<String, T> entry : map.entrySet()) {
-            if (stringBuilder.length() != 1) stringBuilder.append(",");
-            stringBuilder.append(formatGraphQLParameter(entry.getKey(), entry.getValue()));
+            if (!first) stringBuilder.append(',');
+            StringUtil.appendGraphQLParameter(stringBuilder, entry.getKey(), entry.getValue());
+            first = false;
         }
-        stringBuilder.append("}");
-        return stringBuilder.toString();
+        stringBuilder.append('}');
     }
 
     public static class Builder<T> {
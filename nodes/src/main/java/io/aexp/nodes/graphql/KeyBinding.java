@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds keys to an argument of a prepared request, or as the values of its variables, merging the requests of several
+ * keys into one document.
+ */
+final class KeyBinding<V> {
+
+    private final PreparedGraphQLRequest request;
+    private final String dotPath;
+    private final String argumentName;
+    private final Class<V> responseClass;
+
+    /**
+     * @param request request prepared from a class
+     * @param dotPath path of the field taking the key as an argument, as set on {@link Arguments}, or null to bind
+     *     keys as maps of variable values
+     * @param argumentName name of the argument the key is bound to, or null to bind keys as maps of variable values
+     * @param responseClass class the entities are bound to
+     */
+    KeyBinding(PreparedGraphQLRequest request, String dotPath, String argumentName, Class<V> responseClass) {
+        this.request = request;
+        this.dotPath = dotPath;
+        this.argumentName = argumentName;
+        this.responseClass = responseClass;
+    }
+
+    /**
+     * Validates the binding set on a builder.
+     *
+     * @param request request set on the builder, may be null
+     * @param dotPath path set on the builder, may be null
+     * @param argumentName argument name set on the builder, may be null
+     * @throws IllegalStateException if the request or argument is not set, or the request was prepared from a string
+     */
+    static void validate(PreparedGraphQLRequest request, String dotPath, String argumentName) throws IllegalStateException {
+        validate(request);
+        if (dotPath == null || argumentName == null) throw new IllegalStateException("argument must be set");
+    }
+
+    /**
+     * Validates the request set on a builder binding keys as maps of variable values.
+     *
+     * @param request request set on the builder, may be null
+     * @throws IllegalStateException if the request is not set or was prepared from a string
+     */
+    static void validate(PreparedGraphQLRequest request) throws IllegalStateException {
+        if (request == null) throw new IllegalStateException("request must be set");
+        if (request.getStaticRequest() != null) throw new IllegalStateException("request must be prepared from a class");
+    }
+
+    /**
+     * Merges the requests of the keys, the request of each key at the index of the key.
+     *
+     * @param keys keys to bind, at least one
+     * @return GraphQLMergedRequest
+     */
+    GraphQLMergedRequest merge(List<?> keys) {
+        GraphQLMergedRequest.MergedRequestBuilder mergedRequest = GraphQLMergedRequest.Builder();
+        for (Object key : keys) {
+            if (dotPath == null) {
+                mergedRequest.request(request.bind(null, toVariables((Map<?, ?>) key)), responseClass);
+            } else {
+                Argument<Object> argument = new Argument<Object>(argumentName, key);
+                mergedRequest.request(request.bind(new Arguments(dotPath, argument)), responseClass);
+            }
+        }
+        return mergedRequest.build();
+    }
+
+    private static List<Variable> toVariables(Map<?, ?> values) {
+        List<Variable> variables = new ArrayList<Variable>(values.size());
+        for (Map.Entry<?, ?> value : values.entrySet()) {
+            variables.add(new Variable<Object>(String.valueOf(value.getKey()), value.getValue()));
+        }
+        return variables;
+    }
+
+    Class<V> getResponseClass() {
+        return responseClass;
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.aexp.nodes.graphql.annotations.GraphQLArgument;
+import io.aexp.nodes.graphql.annotations.GraphQLArguments;
+import io.aexp.nodes.graphql.annotations.GraphQLIgnore;
+import io.aexp.nodes.graphql.annotations.GraphQLProperty;
+import io.aexp.nodes.graphql.annotations.GraphQLVariable;
+import io.aexp.nodes.graphql.annotations.GraphQLVariables;
+
+/**
+ * Reflected request tree of a model class, built once per class and set of scalars and shared by every request entity
+ * created from it.
+ * <p>
+ * The property tree held here is never modified after construction. Request entities applying their own arguments work
+ * on a {@link #copyChildren() copy}, and entities without arguments reuse the request text rendered the first time it
+ * is requested for each request method and output mode.
+ */
+final class ModelMetadata {
+
+    private static final ClassValue<ConcurrentMap<List<Class>, ModelMetadata>> CACHE =
+            new ClassValue<ConcurrentMap<List<Class>, ModelMetadata>>() {
+                @Override
+                protected ConcurrentMap<List<Class>, ModelMetadata> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<List<Class>, ModelMetadata>();
+                }
+            };
+
+    private final List<Class> scalars;
+    private final Map<String, Property> children;
+    private final Map<String, Object> variables;
+    private final Map<String, Object> hoistedValues;
+    private volatile ModelMetadata canonical;
+    private final AtomicReferenceArray<String> requests =
+            new AtomicReferenceArray<String>(2 * (GraphQLTemplate.GraphQLMethod.values().length + 1));
+
+    private ModelMetadata(Class clazz, List<Class> scalars) {
+        this.scalars = scalars;
+        Map<String, Object> propertyVariables = new HashMap<String, Object>();
+        Map<String, Property> children = getChildren(clazz, propertyVariables);
+        GraphQLProperty graphQLProperty = (GraphQLProperty) clazz.getAnnotation(GraphQLProperty.class);
+        if (graphQLProperty != null) {
+            Property resourceProperty = new Property();
+            List<Argument> arguments = null;
+            String resourceName = graphQLProperty.name();
+            if (graphQLProperty.arguments().length > 0) {
+                arguments = new ArrayList<Argument>();
+                for (GraphQLArgument graphQLArgument : graphQLProperty.arguments()) {
+                    arguments = setArgument(arguments, graphQLArgument);
+                }
+            }
+            resourceProperty.setArguments(arguments);
+            resourceProperty.setChildren(children);
+            Map<String, Property> resourceChild = new HashMap<String, Property>();
+            resourceChild.put(resourceName, resourceProperty);
+            children = resourceChild;
+        }
+        this.children = Collections.unmodifiableMap(children);
+        this.variables = Collections.unmodifiableMap(propertyVariables);
+        this.hoistedValues = Collections.emptyMap();
+    }
+
+    private ModelMetadata(ModelMetadata base, List<Arguments> argumentsList) {
+        this.scalars = base.scalars;
+        Property root = new Property();
+        root.setChildren(base.copyChildren());
+        for (Arguments arguments : argumentsList) {
+            GraphQLRequestEntity.setArguments(root, arguments.getDotPath(), arguments.getArguments());
+        }
+        this.children = Collections.unmodifiableMap(root.getChildren());
+        this.variables = base.variables;
+        this.hoistedValues = Collections.emptyMap();
+    }
+
+    /**
+     * Creates metadata over an already built tree, as done by the {@link Canonicalizer}.
+     *
+     * @param scalars scalars the tree was built with
+     * @param children unmodifiable children of the request root
+     * @param variables unmodifiable variables declared on the request root
+     * @param hoistedValues unmodifiable values of the variables the argument values were hoisted into
+     */
+    ModelMetadata(List<Class> scalars, Map<String, Property> children, Map<String, Object> variables,
+                  Map<String, Object> hoistedValues) {
+        this.scalars = scalars;
+        this.children = Collections.unmodifiableMap(children);
+        this.variables = variables;
+        this.hoistedValues = hoistedValues;
+    }
+
+    /**
+     * Returns the metadata of the class, reflecting over it only the first time the class is requested with the given
+     * scalars.
+     *
+     * @param clazz the class used to construct the request
+     * @param scalars classes to be treated as scalar values rather than nested objects
+     * @return ModelMetadata
+     */
+    static ModelMetadata of(Class clazz, List<Class> scalars) {
+        ConcurrentMap<List<Class>, ModelMetadata> byScalars = CACHE.get(clazz);
+        ModelMetadata metadata = byScalars.get(scalars);
+        if (metadata == null) {
+            List<Class> key = Collections.unmodifiableList(new ArrayList<Class>(scalars));
+            ModelMetadata created = new ModelMetadata(clazz, key);
+            metadata = byScalars.putIfAbsent(key, created);
+            if (metadata == null) metadata = created;
+        }
+        return metadata;
+    }
+
+    /**
+     * Returns new metadata with the arguments set on a copy of this tree. The result is not cached; it is meant to be
+     * held by a prepared request.
+     *
+     * @param arguments arguments to set on the copied tree
+     * @return ModelMetadata
+     * @throws io.aexp.nodes.graphql.exceptions.GraphQLException if an argument path is invalid
+     */
+    ModelMetadata withArguments(List<Arguments> arguments) {
+        return new ModelMetadata(this, arguments);
+    }
+
+    /**
+     * Returns the canonical form of this metadata, building it only the first time it is requested.
+     *
+     * @return ModelMetadata
+     * @throws io.aexp.nodes.graphql.exceptions.GraphQLException if an argument to hoist has no declared type
+     */
+    ModelMetadata canonical() {
+        ModelMetadata result = canonical;
+        if (result == null) {
+            result = Canonicalizer.canonicalize(scalars, children, variables);
+            canonical = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the request text for the method, rendering it only the first time it is requested.
+     *
+     * @param method request method, or null for a request without an operation type
+     * @param minify true for the minified request text
+     * @return String
+     */
+    String getRequest(GraphQLTemplate.GraphQLMethod method, boolean minify) {
+        int index = 0;
+        if (method != null) {
+            index = method.ordinal() + 1;
+        }
+        index = 2 * index;
+        if (minify) {
+            index++;
+        }
+        String request = requests.get(index);
+        if (request == null) {
+            request = render(method, minify);
+            requests.set(index, request);
+        }
+        return request;
+    }
+
+    /**
+     * Shared, unmodifiable children of the request root. The properties must not be modified.
+     *
+     * @return Map\<String, Property>
+     */
+    Map<String, Property> getChildren() {
+        return children;
+    }
+
+    Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Values of the variables generated for hoisted argument values, keyed by variable name without the {@code $}
+     * prefix. Empty unless the metadata is {@link #canonical() canonical}.
+     *
+     * @return Map\<String, Object>
+     */
+    Map<String, Object> getHoistedValues() {
+        return hoistedValues;
+    }
+
+    /**
+     * Deep copies the children of the request root so arguments can be set on the copy without affecting the shared
+     * tree. Iteration order of the copy matches the original.
+     *
+     * @return Map\<String, Property>
+     */
+    Map<String, Property> copyChildren() {
+        return Property.copyChildren(children);
+    }
+
+    private String render(GraphQLTemplate.GraphQLMethod method, boolean minify) {
+        Property root = new Property();
+        root.setChildren(children);
+        root.setMethod(method);
+        root.setVariables(variables);
+        return QueryWriter.write(root, null, minify);
+    }
+
+    private boolean isList(Field field) {
+        String simpleName = field.getType().getSimpleName();
+        return simpleName.equalsIgnoreCase("ArrayList") ||
+                simpleName.equalsIgnoreCase("List") ||
+                field.getType().isArray();
+    }
+
+    private boolean isProperty(Field field) {
+        return isProperty(field.getType());
+    }
+
+    private boolean isProperty(Class clazz) {
+        if (scalars != null) {
+            for (Class scalar : scalars) {
+                if (scalar.equals(clazz)) return true;
+            }
+        }
+        return clazz.isPrimitive()
+                || clazz.getPackage().getName().equalsIgnoreCase("java.lang")
+                || clazz.getPackage().getName().equalsIgnoreCase("java.time");
+    }
+
+    /**
+     * Adds the arguments into the argument list from the GraphQLArgument annotation to provide the correct type
+     *
+     * @param arguments list of arguments to add the annotated argument to
+     * @param graphQLArgument annotated argument to add to the request construction
+     * @return List\<Argument>
+     */
+    private List<Argument> setArgument(List<Argument> arguments, GraphQLArgument graphQLArgument) {
+        String type = graphQLArgument.type();
+        boolean optional = graphQLArgument.optional();
+        String value = valueOf(graphQLArgument.value());
+        Argument argument;
+        if (value == null) {
+            argument = new Argument<String>(graphQLArgument.name(), value, optional);
+        } else if ("Boolean".equalsIgnoreCase(type)) {
+            argument = new Argument<Boolean>(graphQLArgument.name(), Boolean.valueOf(value), optional);
+        } else if ("Integer".equalsIgnoreCase(type)) {
+            argument = new Argument<Integer>(graphQLArgument.name(), Integer.valueOf(value), optional);
+        } else if ("Float".equalsIgnoreCase(type)) {
+            argument = new Argument<Float>(graphQLArgument.name(), Float.valueOf(value), optional);
+        } else {
+            argument = new Argument<String>(graphQLArgument.name(), value, optional);
+        }
+        if (!graphQLArgument.variableType().isEmpty()) {
+            argument.setType(graphQLArgument.variableType());
+        }
+        arguments.add(argument);
+        return arguments;
+    }
+
+    /**
+     * Recursively iterates over nested classes building the request tree while checking for any annotations to apply to
+     * the fields.
+     *
+     * @param clazz the class used to construct the request
+     * @param propertyVariables set of variables set on a GraphQL property or field defined in the class
+     * @return Map\<String, Property>
+     */
+    private Map<String, Property> getChildren(Class clazz, Map<String, Object> propertyVariables) {
+        Field[] declaredFields = clazz.getDeclaredFields();
+        ArrayList<Field> fields = new ArrayList<Field>(Arrays.asList(declaredFields));
+        Class<?> superClass = clazz.getSuperclass();
+        while (!superClass.getPackage().getName().equalsIgnoreCase("java.lang")) {
+            Field[] superClassFields = superClass.getDeclaredFields();
+            fields.addAll(Arrays.asList(superClassFields));
+            superClass = superClass.getSuperclass();
+        }
+
+        Map<String, Property> children = new HashMap<String, Property>();
+        for (Field field : fields) {
+            if (field.isSynthetic() || field.isEnumConstant()) continue;
+
+            GraphQLIgnore ignoreAnnotation = field.getAnnotation(GraphQLIgnore.class);
+            if (ignoreAnnotation != null) {
+                continue;
+            }
+
+            String propertyKey = field.getName();
+            List<Argument> arguments = null;
+            Property property = new Property();
+
+            GraphQLProperty propertyAnnotation = field.getAnnotation(GraphQLProperty.class);
+            if (propertyAnnotation != null) {
+                arguments = new ArrayList<Argument>();
+                String name = propertyAnnotation.name();
+                property.setResourceName(name);
+                propertyKey = field.getName();
+                for (GraphQLArgument graphQLArgument : propertyAnnotation.arguments()) {
+                    arguments = setArgument(arguments, graphQLArgument);
+                }
+            }
+            GraphQLArguments argumentsAnnotation = field.getAnnotation(GraphQLArguments.class);
+            if (argumentsAnnotation != null) {
+                if (arguments == null) arguments = new ArrayList<Argument>();
+                for (GraphQLArgument graphQLArgument : argumentsAnnotation.value()) {
+                    arguments = setArgument(arguments, graphQLArgument);
+                }
+            }
+            GraphQLArgument graphQLArgument = field.getAnnotation(GraphQLArgument.class);
+            if (graphQLArgument != null) {
+                if (arguments == null) arguments = new ArrayList<Argument>();
+                arguments = setArgument(arguments, graphQLArgument);
+            }
+
+            GraphQLVariables variablesAnnotation = field.getAnnotation(GraphQLVariables.class);
+            if (variablesAnnotation != null) {
+                if (arguments == null) arguments = new ArrayList<Argument>();
+                for (GraphQLVariable graphQLVariable : variablesAnnotation.value()) {
+                    arguments.add(new Argument<String>(graphQLVariable.name(), "$" + graphQLVariable.name()));
+                    propertyVariables.put("$" + graphQLVariable.name(), graphQLVariable.scalar());
+                }
+            }
+
+            GraphQLVariable graphQLVariable = field.getAnnotation(GraphQLVariable.class);
+            if (graphQLVariable != null) {
+                if (arguments == null) arguments = new ArrayList<Argument>();
+                arguments.add(new Argument<String>(graphQLVariable.name(), "$" + graphQLVariable.name()));
+                propertyVariables.put("$" + graphQLVariable.name(), graphQLVariable.scalar());
+            }
+
+            property.setArguments(arguments);
+
+            if (isList(field)) {
+                Type type = field.getGenericType();
+                if (type instanceof ParameterizedType) {
+                    ParameterizedType pType = (ParameterizedType) type;
+                    Class containedClass = (Class) pType.getActualTypeArguments()[0];
+                    if (!isProperty(containedClass)) {
+                        property.setChildren(getChildren(containedClass, propertyVariables));
+                    }
+                }
+            } else if (!isProperty(field)) {
+                property.setChildren(getChildren(field.getType(), propertyVariables));
+            }
+            children.put(propertyKey, property);
+        }
+        return children;
+    }
+
+    private static String valueOf(String value) {
+        if (value == null || "null".equals(value)) {
+            return null;
+        }
+        return value;
+    }
+}
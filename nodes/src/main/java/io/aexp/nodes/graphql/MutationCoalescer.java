@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+
+/**
+ * Write-behind queue in front of a prepared mutation, coalescing the writes to the same entity.
+ * <p>
+ * Writes are keyed by an entity key chosen by the caller. A write to a key that is still waiting replaces the waiting
+ * record, or is combined with it by the {@link CoalescerBuilder#merge(BinaryOperator) merge function}, so only one
+ * mutation is sent per key and flush. Waiting writes are flushed as {@link GraphQLMergedRequest merged} mutations once
+ * the {@link CoalescerBuilder#window(long, TimeUnit) window} elapses after the first of them, once
+ * {@link CoalescerBuilder#maxBatchSize(int) maxBatchSize} keys are waiting, or when {@link #flush()} is called. The
+ * window is 2 ms unless set; a coalescer built with {@link CoalescerBuilder#manualFlush() manual flushes} only sends
+ * writes on {@link #flush()} or once maxBatchSize keys are waiting. Every caller whose write was coalesced gets the
+ * result of the mutation that was sent.
+ * <p>
+ * A key is never written by two mutations at once: writes to a key whose previous mutation is in flight wait until it
+ * is acknowledged, so the last write always wins on the server.
+ *
+ * <pre>
+ * MutationCoalescer&lt;String, InputObject&lt;Object&gt;, UpdateUser&gt; coalescer = MutationCoalescer.Builder(UpdateUser.class)
+ *     .template(graphQLTemplate)
+ *     .request(preparedUpdateUser)
+ *     .argument("updateUser", "input")
+ *     .window(50, TimeUnit.MILLISECONDS)
+ *     .build();
+ * CompletableFuture&lt;UpdateUser&gt; acknowledged = coalescer.write(userId, input);
+ * </pre>
+ *
+ * @param <K> type of the entity keys
+ * @param <R> type of the records
+ * @param <V> class the mutation results are bound to
+ */
+public final class MutationCoalescer<K, R, V> {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final long DEFAULT_WINDOW_MILLIS = 2;
+
+    private final GraphQLTemplate template;
+    private final KeyBinding<V> binding;
+    private final BinaryOperator<Object> merge;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<K, Write<K, V>> waiting = new LinkedHashMap<K, Write<K, V>>();
+    private final Set<K> inFlight = new HashSet<K>();
+    private boolean scheduled;
+
+    @SuppressWarnings("unchecked")
+    private MutationCoalescer(CoalescerBuilder<? super R, V> builder) {
+        this.template = builder.template;
+        this.binding = new KeyBinding<V>(builder.request, builder.dotPath, builder.argumentName, builder.responseClass);
+        // Waiting records are either written records or results of the merge function, so always of its type
+        this.merge = (BinaryOperator<Object>) builder.merge;
+        if (builder.manualFlush) {
+            this.windowNanos = 0;
+        } else {
+            this.windowNanos = builder.windowNanos;
+        }
+        this.maxBatchSize = builder.maxBatchSize;
+        this.executor = builder.executor;
+    }
+
+    /**
+     * @param responseClass class the mutation results are bound to
+     * @return CoalescerBuilder of any type of records until a {@link CoalescerBuilder#merge(BinaryOperator) merge
+     *     function} sets it
+     */
+    public static <V> CoalescerBuilder<Object, V> Builder(Class<V> responseClass) {
+        return new CoalescerBuilder<Object, V>(responseClass);
+    }
+
+    /**
+     * Queues a write, coalescing it with the write waiting for the same key if there is one.
+     *
+     * @param key key of the entity written
+     * @param record record bound to the mutation
+     * @return future completed with the result of the mutation carrying the write once it is acknowledged, or
+     *     exceptionally with a {@link GraphQLException} if it failed or has errors
+     */
+    public CompletableFuture<V> write(K key, R record) {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        boolean full;
+        boolean schedule = false;
+        lock.lock();
+        try {
+            Write<K, V> write = waiting.get(key);
+            if (write == null) {
+                waiting.put(key, new Write<K, V>(key, record, future));
+            } else {
+                if (merge == null) {
+                    write.record = record;
+                } else {
+                    write.record = merge.apply(write.record, record);
+                }
+                write.futures.add(future);
+            }
+            full = waiting.size() >= maxBatchSize;
+            if (!full && !scheduled && windowNanos > 0) {
+                scheduled = true;
+                schedule = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full) {
+            flush();
+        } else if (schedule) {
+            schedule();
+        }
+        return future;
+    }
+
+    /**
+     * Sends the waiting writes now, except those to keys whose previous mutation is still in flight, which are sent
+     * once it is acknowledged.
+     *
+     * @return future completed once the writes sent are acknowledged, whether they succeeded or not
+     */
+    public CompletableFuture<Void> flush() {
+        List<List<Write<K, V>>> batches = new ArrayList<List<Write<K, V>>>();
+        lock.lock();
+        try {
+            scheduled = false;
+            List<Write<K, V>> batch = null;
+            Iterator<Write<K, V>> writes = waiting.values().iterator();
+            while (writes.hasNext()) {
+                Write<K, V> write = writes.next();
+                if (inFlight.contains(write.key)) continue;
+                writes.remove();
+                inFlight.add(write.key);
+                if (batch == null || batch.size() >= maxBatchSize) {
+                    batch = new ArrayList<Write<K, V>>();
+                    batches.add(batch);
+                }
+                batch.add(write);
+            }
+        } finally {
+            lock.unlock();
+        }
+        CompletableFuture<?>[] sent = new CompletableFuture<?>[batches.size()];
+        for (int index = 0; index < sent.length; index++) {
+            sent[index] = send(batches.get(index));
+        }
+        return CompletableFuture.allOf(sent);
+    }
+
+    /**
+     * @return the number of writes waiting to be sent, once coalesced
+     */
+    public int waiting() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void schedule() {
+        RequestBatcher.TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private CompletableFuture<Void> send(final List<Write<K, V>> batch) {
+        final CompletableFuture<Void> acknowledged = new CompletableFuture<Void>();
+        CompletableFuture<GraphQLMergedResponse> response;
+        try {
+            List<Object> records = new ArrayList<Object>(batch.size());
+            for (Write<K, V> write : batch) {
+                records.add(write.record);
+            }
+            response = template.mutateAsync(binding.merge(records), executor);
+        } catch (RuntimeException exception) {
+            response = FutureUtil.failedFuture(exception);
+        }
+        response.whenComplete(new BiConsumer<GraphQLMergedResponse, Throwable>() {
+            @Override
+            public void accept(GraphQLMergedResponse mergedResponse, Throwable throwable) {
+                release(batch);
+                for (int index = 0; index < batch.size(); index++) {
+                    if (throwable != null) {
+                        fail(batch.get(index), throwable);
+                    } else {
+                        complete(batch.get(index), mergedResponse.get(index, binding.getResponseClass()));
+                    }
+                }
+                acknowledged.complete(null);
+            }
+        });
+        return acknowledged;
+    }
+
+    /**
+     * Marks the keys of the batch as no longer in flight, sending the writes that waited for them.
+     */
+    private void release(List<Write<K, V>> batch) {
+        boolean held = false;
+        lock.lock();
+        try {
+            for (Write<K, V> write : batch) {
+                inFlight.remove(write.key);
+                if (waiting.containsKey(write.key)) held = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (held) {
+            flush();
+        }
+    }
+
+    private void complete(Write<K, V> write, GraphQLResponseEntity<V> response) {
+        Error[] errors = response.getErrors();
+        if (errors != null && errors.length > 0) {
+            GraphQLException exception = new GraphQLException(errors[0].getMessage());
+            exception.setErrors(errors);
+            fail(write, exception);
+            return;
+        }
+        for (CompletableFuture<V> future : write.futures) {
+            future.complete(response.getResponse());
+        }
+    }
+
+    private void fail(Write<K, V> write, Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        for (CompletableFuture<V> future : write.futures) {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * Write waiting for its key, with the futures of every caller coalesced into it.
+     */
+    private static final class Write<K, V> {
+        private final K key;
+        private final List<CompletableFuture<V>> futures = new ArrayList<CompletableFuture<V>>();
+        private Object record;
+
+        Write(K key, Object record, CompletableFuture<V> future) {
+            this.key = key;
+            this.record = record;
+            futures.add(future);
+        }
+    }
+
+    /**
+     * @param <R> type the records of the built coalescer must extend
+     * @param <V> class the mutation results are bound to
+     */
+    public static final class CoalescerBuilder<R, V> {
+        private final Class<V> responseClass;
+        private GraphQLTemplate template;
+        private PreparedGraphQLRequest request;
+        private String dotPath;
+        private String argumentName;
+        private boolean variables;
+        private BinaryOperator<R> merge;
+        private long windowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WINDOW_MILLIS);
+        private boolean manualFlush;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private Executor executor;
+
+        private CoalescerBuilder(Class<V> responseClass) {
+            this.responseClass = responseClass;
+        }
+
+        /**
+         * @param template template executing the mutations
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> template(GraphQLTemplate template) {
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * @param request mutation prepared from the class the results are bound to, each record is bound to a copy
+         *     of it
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> request(PreparedGraphQLRequest request) {
+            this.request = request;
+            return this;
+        }
+
+        /**
+         * Binds each record as the value of an argument, e.g. an {@link InputObject}.
+         *
+         * @param dotPath path of the field taking the record as an argument, as set on {@link Arguments}
+         * @param argumentName name of the argument the record is bound to
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> argument(String dotPath, String argumentName) {
+            this.dotPath = dotPath;
+            this.argumentName = argumentName;
+            return this;
+        }
+
+        /**
+         * Binds each record, a {@code Map<String, ?>}, as the values of the variables declared by the mutation.
+         *
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> variables() {
+            this.variables = true;
+            return this;
+        }
+
+        /**
+         * @param merge combines the waiting record of a key with a new one, the new record replaces the waiting one
+         *     by default
+         * @return CoalescerBuilder of records of the type the merge function combines
+         */
+        @SuppressWarnings("unchecked")
+        public <S extends R> CoalescerBuilder<S, V> merge(BinaryOperator<S> merge) {
+            // Only the type argument changes, the builder holds no record yet
+            CoalescerBuilder<S, V> builder = (CoalescerBuilder<S, V>) this;
+            builder.merge = merge;
+            return builder;
+        }
+
+        /**
+         * @param duration time writes wait after the first of them before they are flushed, 2 ms by default
+         * @param unit unit of the duration
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> window(long duration, TimeUnit unit) {
+            this.windowNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Flushes writes only when {@link MutationCoalescer#flush()} is called or once maxBatchSize keys are waiting,
+         * instead of after a window. Futures of writes to such a coalescer never complete until it is flushed.
+         *
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> manualFlush() {
+            this.manualFlush = true;
+            return this;
+        }
+
+        /**
+         * @param maxBatchSize number of waiting keys flushing the writes before the window elapsed, and maximum
+         *     number of writes merged into one mutation, 100 by default
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param executor executor the responses are handled on, see
+         *     {@link GraphQLTemplate#executeAsync(GraphQLTemplate.GraphQLMethod, GraphQLRequestEntity, Class, Executor)}
+         * @return CoalescerBuilder
+         */
+        public CoalescerBuilder<R, V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @return MutationCoalescer of records of the type set by the merge function, or of any type without one
+         */
+        public <K, S extends R> MutationCoalescer<K, S, V> build() throws IllegalStateException {
+            if (template == null) throw new IllegalStateException("template must be set");
+            if (variables) {
+                KeyBinding.validate(request);
+                if (dotPath != null) throw new IllegalStateException("records are bound either to an argument or to variables");
+            } else {
+                KeyBinding.validate(request, dotPath, argumentName);
+            }
+            if (maxBatchSize <= 0) throw new IllegalStateException("maxBatchSize must be positive");
+            if (windowNanos <= 0) throw new IllegalStateException("window must be positive");
+            return new MutationCoalescer<K, S, V>(this);
+        }
+    }
+}
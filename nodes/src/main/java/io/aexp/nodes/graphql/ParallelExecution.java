@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Single execution of a {@link GraphQLParallelRequest}, sending the next request each time one is answered.
+ * <p>
+ * The result completes once every request is answered, on the first failure in fail-fast mode, or when the deadline
+ * passes, whichever comes first; requests are never sent once it is complete, including when a caller cancels it.
+ * <p>
+ * Fetchers may answer inline, e.g. from a cache, so the requests to send are counted and sent by a loop on a single
+ * thread at a time: an answer arriving while the loop runs only adds to the count, and the call stack stays flat
+ * whatever the number of requests.
+ */
+final class ParallelExecution {
+
+    private final Fetcher fetch;
+    private final GraphQLParallelRequest parallelRequest;
+    private final GraphQLResponseEntity<?>[] responses;
+    private final GraphQLException[] exceptions;
+    private final boolean[] answered;
+    private final CompletableFuture<GraphQLParallelResponse> result = new CompletableFuture<GraphQLParallelResponse>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private int sent;
+    private int remaining;
+    private int toSend;
+    private boolean sending;
+    private boolean done;
+
+    ParallelExecution(Fetcher fetch, GraphQLParallelRequest parallelRequest) {
+        this.fetch = fetch;
+        this.parallelRequest = parallelRequest;
+        this.responses = new GraphQLResponseEntity<?>[parallelRequest.size()];
+        this.exceptions = new GraphQLException[parallelRequest.size()];
+        this.answered = new boolean[parallelRequest.size()];
+        this.remaining = parallelRequest.size();
+    }
+
+    /**
+     * Sends the first requests, up to the concurrency of the parallel request.
+     *
+     * @return CompletableFuture\<GraphQLParallelResponse>
+     */
+    CompletableFuture<GraphQLParallelResponse> start() {
+        if (parallelRequest.getDeadline() != GraphQLParallelRequest.NO_DEADLINE) {
+            final ScheduledFuture<?> timeout = RequestBatcher.TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire();
+                }
+            }, parallelRequest.getDeadline(), TimeUnit.MILLISECONDS);
+            result.whenComplete(new BiConsumer<GraphQLParallelResponse, Throwable>() {
+                @Override
+                public void accept(GraphQLParallelResponse response, Throwable throwable) {
+                    timeout.cancel(false);
+                }
+            });
+        }
+        sendNext(parallelRequest.getConcurrency());
+        return result;
+    }
+
+    /**
+     * Sends the next requests, unless another call is already sending, in which case that call sends them as well.
+     *
+     * @param count number of requests to send
+     */
+    private void sendNext(int count) {
+        lock.lock();
+        try {
+            toSend += count;
+            if (sending) {
+                return;
+            }
+            sending = true;
+        } finally {
+            lock.unlock();
+        }
+        while (true) {
+            int index;
+            lock.lock();
+            try {
+                // A cancelled result stops the execution as well
+                if (toSend == 0 || done || result.isDone() || sent == responses.length) {
+                    toSend = 0;
+                    sending = false;
+                    return;
+                }
+                toSend--;
+                index = sent++;
+            } finally {
+                lock.unlock();
+            }
+            send(index, parallelRequest.getResponseClasses().get(index));
+        }
+    }
+
+    private <T> void send(final int index, Class<T> responseClass) {
+        CompletableFuture<GraphQLResponseEntity<T>> response;
+        try {
+            response = FutureUtil.sendAsync(fetch, parallelRequest.getRequestEntities().get(index), responseClass,
+                    parallelRequest.getExecutor());
+        } catch (RuntimeException exception) {
+            answer(index, null, exception);
+            return;
+        }
+        response.whenComplete(new BiConsumer<GraphQLResponseEntity<T>, Throwable>() {
+            @Override
+            public void accept(GraphQLResponseEntity<T> responseEntity, Throwable throwable) {
+                answer(index, responseEntity, throwable);
+            }
+        });
+    }
+
+    private void answer(int index, GraphQLResponseEntity<?> response, Throwable throwable) {
+        GraphQLException exception = null;
+        if (throwable != null) {
+            exception = FutureUtil.toGraphQLException(throwable);
+        }
+        boolean failed;
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            answered[index] = true;
+            responses[index] = response;
+            exceptions[index] = exception;
+            remaining--;
+            failed = exception != null && parallelRequest.getMode() == GraphQLParallelRequest.Mode.FAIL_FAST;
+            done = failed || remaining == 0;
+        } finally {
+            lock.unlock();
+        }
+        if (failed) {
+            result.completeExceptionally(exception);
+        } else if (done) {
+            result.complete(newResponse());
+        } else {
+            sendNext(1);
+        }
+    }
+
+    /**
+     * Fails every request not answered yet.
+     */
+    private void expire() {
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            done = true;
+            for (int index = 0; index < answered.length; index++) {
+                if (!answered[index]) {
+                    answered[index] = true;
+                    exceptions[index] = deadlineExceeded();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (parallelRequest.getMode() == GraphQLParallelRequest.Mode.FAIL_FAST) {
+            result.completeExceptionally(deadlineExceeded());
+        } else {
+            result.complete(newResponse());
+        }
+    }
+
+    private GraphQLException deadlineExceeded() {
+        return new GraphQLException("Deadline of " + parallelRequest.getDeadline() + " ms exceeded");
+    }
+
+    /**
+     * Only called once done, when the answers can't change anymore.
+     */
+    private GraphQLParallelResponse newResponse() {
+        return new GraphQLParallelResponse(parallelRequest.getResponseClasses(), responses, exceptions);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A request compiled once and bound to argument and variable values many times.
+ * <p>
+ * Created from {@link GraphQLRequestEntity.RequestBuilder#prepare()}, a prepared request holds the request tree and
+ * the request text rendered up front. It is immutable and can be shared across threads; every call to {@code bind}
+ * returns a new request entity that shares the compiled tree, copying it only when arguments are bound. Entities bound
+ * without arguments or variables reuse the request body encoded the first time it was sent.
+ *
+ * <pre>
+ * PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+ *     .url("http://graphql.example.com/graphql")
+ *     .request(SampleModel.class)
+ *     .prepare();
+ * graphQLTemplate.query(prepared.bind(new Variable&lt;&gt;("id", "d070633a9f9")), SampleModel.class);
+ * </pre>
+ */
+public final class PreparedGraphQLRequest {
+
+    private final URL url;
+    private final Map<String, String> headers;
+    private final Map<String, Object> variables;
+    private final List<Class> scalars;
+    private final GraphQLTemplate.GraphQLMethod requestMethod;
+    private final boolean minify;
+    private final boolean canonical;
+    private final long cacheTtl;
+    private final Set<String> cacheTags;
+    private final String request;
+    private final ModelMetadata metadata;
+    private volatile EncodedBody encodedBody;
+
+    PreparedGraphQLRequest(GraphQLRequestEntity.RequestBuilder builder) {
+        this.url = builder.url;
+        this.requestMethod = builder.requestMethod;
+        this.minify = builder.minify;
+        this.canonical = builder.canonical;
+        this.cacheTtl = builder.cacheTtl;
+        this.cacheTags = Collections.unmodifiableSet(new HashSet<String>(builder.cacheTags));
+        this.headers = Collections.unmodifiableMap(new HashMap<String, String>(builder.headers));
+        this.scalars = Collections.unmodifiableList(new ArrayList<Class>(builder.scalars));
+        boolean hasArguments = builder.arguments != null && !builder.arguments.isEmpty();
+        if (builder.request != null) {
+            if (hasArguments) {
+                throw new IllegalStateException("arguments can only be set on requests built from a class");
+            }
+            this.request = builder.request;
+            this.metadata = null;
+        } else {
+            ModelMetadata classMetadata = ModelMetadata.of(builder.clazz, this.scalars);
+            if (hasArguments) {
+                classMetadata = classMetadata.withArguments(builder.arguments);
+            }
+            this.request = null;
+            this.metadata = classMetadata;
+        }
+        ModelMetadata canonicalMetadata = null;
+        if (canonical && metadata != null) {
+            canonicalMetadata = metadata.canonical();
+        }
+        this.variables = Collections.unmodifiableMap(GraphQLRequestEntity.withHoistedValues(canonicalMetadata,
+                GraphQLRequestEntity.variableListToMap(builder.variables)));
+    }
+
+    /**
+     * Binds the prepared request as is.
+     *
+     * @return GraphQLRequestEntity
+     */
+    public GraphQLRequestEntity bind() {
+        return new GraphQLRequestEntity(this, null, null);
+    }
+
+    /**
+     * Binds the prepared request with variable values, overriding prepared variables with the same key.
+     *
+     * @param variables variables to bind
+     * @return GraphQLRequestEntity
+     */
+    public GraphQLRequestEntity bind(Variable... variables) {
+        return new GraphQLRequestEntity(this, null, Arrays.asList(variables));
+    }
+
+    /**
+     * Binds the prepared request with argument values, overriding prepared arguments on the same path.
+     *
+     * @param arguments arguments to bind
+     * @return GraphQLRequestEntity
+     * @throws io.aexp.nodes.graphql.exceptions.GraphQLException if an argument path is invalid or the request was
+     *     prepared from a string
+     */
+    public GraphQLRequestEntity bind(Arguments... arguments) {
+        return new GraphQLRequestEntity(this, Arrays.asList(arguments), null);
+    }
+
+    /**
+     * Binds the prepared request with argument and variable values.
+     *
+     * @param arguments arguments to bind, may be null
+     * @param variables variables to bind, may be null
+     * @return GraphQLRequestEntity
+     * @throws io.aexp.nodes.graphql.exceptions.GraphQLException if an argument path is invalid or the request was
+     *     prepared from a string
+     */
+    public GraphQLRequestEntity bind(List<Arguments> arguments, List<Variable> variables) {
+        return new GraphQLRequestEntity(this, arguments, variables);
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    public List<Class> getScalars() {
+        return scalars;
+    }
+
+    public GraphQLTemplate.GraphQLMethod getRequestMethod() {
+        return requestMethod;
+    }
+
+    public String getRequest() {
+        if (request != null) {
+            return request;
+        }
+        if (canonical) {
+            return metadata.canonical().getRequest(requestMethod, minify);
+        }
+        return metadata.getRequest(requestMethod, minify);
+    }
+
+    boolean isMinify() {
+        return minify;
+    }
+
+    boolean isCanonical() {
+        return canonical;
+    }
+
+    long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    Set<String> getCacheTags() {
+        return cacheTags;
+    }
+
+    String getStaticRequest() {
+        return request;
+    }
+
+    ModelMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns the request body encoded by the mapper, encoding it only the first time it is requested for that
+     * mapper. The returned array is shared and must not be modified.
+     *
+     * @param mapper serialization mapper of the fetcher sending the request
+     * @return byte[]
+     * @throws JsonProcessingException if the variables can't be serialized
+     */
+    byte[] getEncodedBody(ObjectMapper mapper) throws JsonProcessingException {
+        EncodedBody body = encodedBody;
+        if (body == null || body.mapper != mapper) {
+            Request encoded = new Request();
+            encoded.setQuery(getRequest());
+            encoded.setVariables(variables);
+            body = new EncodedBody(mapper, mapper.writeValueAsBytes(encoded));
+            encodedBody = body;
+        }
+        return body.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedGraphQLRequest{" +
+                "request='" + this.getRequest() + '\'' +
+                ", url='" + url + '\'' +
+                '}';
+    }
+
+    private static final class EncodedBody {
+        private final ObjectMapper mapper;
+        private final byte[] bytes;
+
+        EncodedBody(ObjectMapper mapper, byte[] bytes) {
+            this.mapper = mapper;
+            this.bytes = bytes;
+        }
+    }
+}
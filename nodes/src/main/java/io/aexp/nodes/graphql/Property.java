@@ -14,6 +14,7 @@
 package io.aexp.nodes.graphql;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,7 +25,6 @@ final class Property {
     private List<Argument> arguments;
     private Map<String, Object> variables;
     private Map<String, Property> children;
-    private StringBuilder message = new StringBuilder();
 
     Property() {
         this.arguments = null;
@@ -39,41 +39,49 @@ final class Property {
      * @return String
      */
     protected String getMessage(String field) {
-        if (method != null)  message.append(method.getValue()).append(" ");
-        if (field != null) message.append(field).append(" ");
-        if (variables != null && !variables.isEmpty()) {
-            message.append("(");
-            List<String> variableList = new ArrayList<String>();
-            for (Map.Entry<String, Object> entry : variables.entrySet()) {
-                variableList.add(entry.getKey() + ":" + entry.getValue());
+        return QueryWriter.write(this, field, false);
+    }
+
+    /**
+     * Deep copies the property, its arguments and its children. Variables are shared as they are never modified once
+     * the request tree is built.
+     *
+     * @return Property
+     */
+    Property copy() {
+        Property copy = new Property();
+        copy.resourceName = resourceName;
+        copy.method = method;
+        copy.variables = variables;
+        if (arguments != null) {
+            List<Argument> copiedArguments = new ArrayList<Argument>(arguments.size());
+            for (Argument argument : arguments) {
+                Argument<Object> copiedArgument =
+                        new Argument<Object>(argument.getKey(), argument.getValue(), argument.isOptional());
+                copiedArgument.setType(argument.getType());
+                copiedArguments.add(copiedArgument);
             }
-            message.append(StringUtil.joinStringArray(",", variableList));
-            message.append(")");
+            copy.arguments = copiedArguments;
         }
-        if (this.resourceName != null) message.append(": ").append(resourceName).append(" ");
-        if (this.arguments != null && !this.arguments.isEmpty()) {
-            List<String> argumentList = new ArrayList<String>();
-            for (Argument argument: arguments) {
-                if (!argument.isOptional() || argument.getValue() != null) {
-                    argumentList.add(StringUtil.formatGraphQLParameter(argument.getKey(), argument.getValue()));
-                }
-            }
-            if (!argumentList.isEmpty()) {
-                message.append("(");
-                message.append(StringUtil.joinStringArray(",", argumentList));
-                message.append(") ");
-            }
+        copy.children = copyChildren(children);
+        return copy;
+    }
+
+    /**
+     * Deep copies a children map, keeping the iteration order of the original so the copy renders identically.
+     *
+     * @param children children to copy, may be null
+     * @return Map\<String, Property>
+     */
+    static Map<String, Property> copyChildren(Map<String, Property> children) {
+        if (children == null) {
+            return null;
         }
-        if (children != null && !children.isEmpty()) {
-            message.append("{ ");
-            for (Map.Entry<String, Property> entry : children.entrySet()) {
-                message.append(entry.getValue().getMessage(entry.getKey()));
-            }
-            message.append("} ");
+        Map<String, Property> copy = new LinkedHashMap<String, Property>();
+        for (Map.Entry<String, Property> entry : children.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
         }
-        String res = message.toString();
-        message.setLength(0);
-        return res;
+        return copy;
     }
 
     String getResourceName() {
@@ -124,7 +132,6 @@ final class Property {
                 ", arguments=" + arguments +
                 ", variables=" + variables +
                 ", children=" + children +
-                ", message=" + message.toString() +
                 '}';
     }
 }
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory cache of query responses, set on {@link GraphQLTemplate.TemplateBuilder#cache(QueryCache)} or wrapped
+ * around any fetcher with {@link #wrap(Fetcher)}.
+ * <p>
+ * Responses are keyed on the url, the rendered query, the variables, the response class and the values of the
+ * {@code Authorization} and {@code Cookie} request headers, so a template shared by several callers never serves one
+ * caller's response to another, along with the request headers selected with {@link CacheBuilder#headers(String...)}.
+ * Header names are compared ignoring case. Responses that don't depend on the caller can be shared across credentials
+ * with {@link CacheBuilder#withoutCredentialHeaders()}. Only queries answered without errors are
+ * cached, for the {@link CacheBuilder#ttl(long, TimeUnit) default time to live} or the one set on the request with
+ * {@link GraphQLRequestEntity.RequestBuilder#cacheTtl(long, TimeUnit)}. Once expired, a response is still served for
+ * the {@link CacheBuilder#staleWhileRevalidate(long, TimeUnit) stale-while-revalidate} window while it is refreshed
+ * in the background. Concurrent misses and refreshes of a key share a single request. The least recently used
+ * responses are evicted beyond {@link CacheBuilder#maxEntries(int) maxEntries}.
+ * <p>
+ * Mutations are never cached. A mutation invalidates every response tagged with any of its
+ * {@link GraphQLRequestEntity.RequestBuilder#cacheTags(String...) cache tags} once it completes, whether it succeeded
+ * or not. Cached response entities are shared by every caller hitting the entry, so they should be treated as
+ * read-only.
+ *
+ * <pre>
+ * QueryCache cache = QueryCache.Builder()
+ *     .ttl(5, TimeUnit.MINUTES)
+ *     .staleWhileRevalidate(1, TimeUnit.MINUTES)
+ *     .maxEntries(500)
+ *     .build();
+ * GraphQLTemplate graphQLTemplate = GraphQLTemplate.Builder().cache(cache).build();
+ * </pre>
+ */
+public final class QueryCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long DEFAULT_TTL_SECONDS = 60;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final List<String> CREDENTIAL_HEADERS = Arrays.asList("Authorization", "Cookie");
+
+    private final int maxEntries;
+    private final long ttl;
+    private final long staleWhileRevalidate;
+    private final Set<String> headerNames;
+    private final Executor executor;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Set<RequestKey>> tagIndex = new HashMap<String, Set<RequestKey>>();
+    private final ConcurrentMap<RequestKey, CompletableFuture<GraphQLResponseEntity<?>>> inFlight =
+            new ConcurrentHashMap<RequestKey, CompletableFuture<GraphQLResponseEntity<?>>>();
+    private final LinkedHashMap<RequestKey, CachedResponse> entries;
+    private long generation;
+
+    private QueryCache(CacheBuilder builder) {
+        this.maxEntries = builder.maxEntries;
+        this.ttl = builder.ttl;
+        this.staleWhileRevalidate = builder.staleWhileRevalidate;
+        Set<String> names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        names.addAll(builder.headerNames);
+        if (builder.credentialHeaders) {
+            names.addAll(CREDENTIAL_HEADERS);
+        }
+        this.headerNames = Collections.unmodifiableSet(names);
+        this.executor = builder.executor;
+        this.clock = builder.clock;
+        this.entries = new LinkedHashMap<RequestKey, CachedResponse>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RequestKey, CachedResponse> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public static CacheBuilder Builder() {
+        return new CacheBuilder();
+    }
+
+    /**
+     * Wraps a fetcher so the queries it sends go through this cache. The returned fetcher is also an
+     * {@link AsyncFetcher}, sending without blocking when the wrapped fetcher does.
+     *
+     * @param fetcher fetcher sending the requests missing the cache
+     * @return Fetcher
+     */
+    public Fetcher wrap(Fetcher fetcher) {
+        return new CachingFetcher(fetcher, this);
+    }
+
+    /**
+     * Removes every response tagged with any of the tags.
+     *
+     * @param tags tags of the responses to remove
+     */
+    public void invalidate(String... tags) {
+        invalidate(Arrays.asList(tags));
+    }
+
+    /**
+     * Removes every cached response.
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            generation++;
+            entries.clear();
+            tagIndex.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached responses, including expired ones not evicted yet
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            // Responses loading while the tags are invalidated may predate the change, so they are not stored
+            generation++;
+            for (String tag : tags) {
+                Set<RequestKey> keys = tagIndex.remove(tag);
+                if (keys == null) continue;
+                for (RequestKey key : keys) {
+                    CachedResponse entry = entries.remove(key);
+                    if (entry != null) unindex(key, entry);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    RequestKey keyOf(GraphQLRequestEntity requestEntity, Class<?> responseClass) {
+        return RequestKey.of(requestEntity, responseClass, headerNames);
+    }
+
+    /**
+     * @param requestEntity request entity being sent
+     * @return the time to live of the response, in nanoseconds, zero when it must not be cached
+     */
+    long ttlOf(GraphQLRequestEntity requestEntity) {
+        if (requestEntity.getCacheTtl() >= 0) {
+            return TimeUnit.MILLISECONDS.toNanos(requestEntity.getCacheTtl());
+        }
+        return ttl;
+    }
+
+    CachedResponse get(RequestKey key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long generation() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long now() {
+        return clock.getAsLong();
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stores a response, unless it carries errors or tags were invalidated since it was requested.
+     *
+     * @param key key of the response
+     * @param response response to store
+     * @param requestEntity request entity the response answers
+     * @param loadGeneration generation read before the request was sent
+     */
+    void put(RequestKey key, GraphQLResponseEntity<?> response, GraphQLRequestEntity requestEntity, long loadGeneration) {
+        if (response.getErrors() != null && response.getErrors().length > 0) {
+            return;
+        }
+        long responseTtl = ttlOf(requestEntity);
+        long freshUntil = now() + responseTtl;
+        CachedResponse entry = new CachedResponse(response, requestEntity.getCacheTags(), freshUntil,
+                freshUntil + staleWhileRevalidate);
+        lock.lock();
+        try {
+            if (loadGeneration != generation) {
+                return;
+            }
+            CachedResponse previous = entries.put(key, entry);
+            if (previous != null) unindex(key, previous);
+            for (String tag : entry.tags) {
+                Set<RequestKey> keys = tagIndex.get(tag);
+                if (keys == null) {
+                    keys = new HashSet<RequestKey>();
+                    tagIndex.put(tag, keys);
+                }
+                keys.add(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ConcurrentMap<RequestKey, CompletableFuture<GraphQLResponseEntity<?>>> getInFlight() {
+        return inFlight;
+    }
+
+    private void unindex(RequestKey key, CachedResponse entry) {
+        for (String tag : entry.tags) {
+            Set<RequestKey> keys = tagIndex.get(tag);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) tagIndex.remove(tag);
+        }
+    }
+
+    static final class CachedResponse {
+        private final GraphQLResponseEntity<?> response;
+        private final Set<String> tags;
+        private final long freshUntil;
+        private final long staleUntil;
+
+        CachedResponse(GraphQLResponseEntity<?> response, Set<String> tags, long freshUntil, long staleUntil) {
+            this.response = response;
+            this.tags = tags;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+        }
+
+        GraphQLResponseEntity<?> getResponse() {
+            return response;
+        }
+
+        boolean isFresh(long now) {
+            return now - freshUntil < 0;
+        }
+
+        boolean isUsable(long now) {
+            return now - staleUntil < 0;
+        }
+    }
+
+    public static final class CacheBuilder {
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private long ttl = TimeUnit.SECONDS.toNanos(DEFAULT_TTL_SECONDS);
+        private long staleWhileRevalidate;
+        private Set<String> headerNames = new HashSet<String>();
+        private boolean credentialHeaders = true;
+        private Executor executor;
+        private LongSupplier clock = new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return System.nanoTime();
+            }
+        };
+
+        private CacheBuilder() {
+        }
+
+        /**
+         * @param maxEntries maximum number of cached responses, the least recently used are evicted beyond it
+         * @return CacheBuilder
+         */
+        public CacheBuilder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * @param duration time responses are served from the cache, one minute by default
+         * @param unit unit of the duration
+         * @return CacheBuilder
+         */
+        public CacheBuilder ttl(long duration, TimeUnit unit) {
+            this.ttl = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param duration time an expired response is still served while it is refreshed in the background, none by
+         *     default
+         * @param unit unit of the duration
+         * @return CacheBuilder
+         */
+        public CacheBuilder staleWhileRevalidate(long duration, TimeUnit unit) {
+            this.staleWhileRevalidate = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param headerNames names of the request headers whose values are part of the cache key, on top of
+         *     {@code Authorization} and {@code Cookie}, e.g. a tenant header when responses depend on it
+         * @return CacheBuilder
+         */
+        public CacheBuilder headers(String... headerNames) {
+            this.headerNames.addAll(Arrays.asList(headerNames));
+            return this;
+        }
+
+        /**
+         * Leaves the {@code Authorization} and {@code Cookie} headers out of the cache key, so one response is served
+         * to every caller whatever their credentials. Only for responses that don't depend on the caller; headers
+         * selected with {@link #headers(String...)} are still part of the key.
+         *
+         * @return CacheBuilder
+         */
+        public CacheBuilder withoutCredentialHeaders() {
+            this.credentialHeaders = false;
+            return this;
+        }
+
+        /**
+         * @param executor executor running background refreshes of fetchers that block, defaults to the blocking
+         *     executor of the template
+         * @return CacheBuilder
+         */
+        public CacheBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        CacheBuilder clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public QueryCache build() throws IllegalStateException {
+            if (maxEntries <= 0) throw new IllegalStateException("maxEntries must be positive");
+            if (ttl < 0 || staleWhileRevalidate < 0) {
+                throw new IllegalStateException("ttl and staleWhileRevalidate must not be negative");
+            }
+            return new QueryCache(this);
+        }
+    }
+}
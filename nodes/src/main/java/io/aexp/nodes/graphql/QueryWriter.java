@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a request tree into GraphQL query text in a single pass.
+ * <p>
+ * The whole document is appended into one builder, reused per thread, instead of building a string for every property
+ * in the tree. The writer never modifies the tree, so a shared tree can be rendered from several threads at once.
+ * <p>
+ * The default output keeps a space after every name and punctuator. The minified output only keeps the single space
+ * needed to separate sibling fields.
+ */
+final class QueryWriter {
+
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    private final StringBuilder builder;
+    private final boolean minify;
+
+    private QueryWriter(StringBuilder builder, boolean minify) {
+        this.builder = builder;
+        this.minify = minify;
+    }
+
+    /**
+     * Renders the property and its children.
+     *
+     * @param property property to render
+     * @param field field name of the property, or null for the request root
+     * @param minify true to leave out the spaces that aren't needed to separate fields
+     * @return String
+     */
+    static String write(Property property, String field, boolean minify) {
+        StringBuilder builder = BUFFER.get();
+        if (builder.length() != 0) {
+            builder = new StringBuilder();
+        }
+        try {
+            new QueryWriter(builder, minify).writeProperty(field, property);
+            return builder.toString();
+        } finally {
+            builder.setLength(0);
+            if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    private void writeProperty(String field, Property property) {
+        GraphQLTemplate.GraphQLMethod method = property.getMethod();
+        if (method != null) {
+            builder.append(method.getValue());
+            space();
+        }
+        if (field != null) {
+            builder.append(field);
+            space();
+        }
+        writeVariables(property.getVariables());
+        if (property.getResourceName() != null) {
+            if (minify) {
+                builder.append(':');
+            } else {
+                builder.append(": ");
+            }
+            builder.append(property.getResourceName());
+            space();
+        }
+        writeArguments(property.getArguments());
+        Map<String, Property> children = property.getChildren();
+        if (children != null && !children.isEmpty()) {
+            builder.append('{');
+            space();
+            boolean first = true;
+            for (Map.Entry<String, Property> entry : children.entrySet()) {
+                if (minify && !first) builder.append(' ');
+                writeProperty(entry.getKey(), entry.getValue());
+                first = false;
+            }
+            builder.append('}');
+            space();
+        }
+    }
+
+    private void writeVariables(Map<String, Object> variables) {
+        if (variables == null || variables.isEmpty()) {
+            return;
+        }
+        builder.append('(');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            if (!first) builder.append(',');
+            builder.append(entry.getKey()).append(':').append(entry.getValue());
+            first = false;
+        }
+        builder.append(')');
+    }
+
+    private void writeArguments(List<Argument> arguments) {
+        if (arguments == null || arguments.isEmpty()) {
+            return;
+        }
+        boolean first = true;
+        for (Argument argument : arguments) {
+            if (argument.isOptional() && argument.getValue() == null) continue;
+            if (first) {
+                builder.append('(');
+            } else {
+                builder.append(',');
+            }
+            StringUtil.appendGraphQLParameter(builder, argument.getKey(), argument.getValue());
+            first = false;
+        }
+        if (!first) {
+            builder.append(')');
+            space();
+        }
+    }
+
+    private void space() {
+        if (!minify) builder.append(' ');
+    }
+}
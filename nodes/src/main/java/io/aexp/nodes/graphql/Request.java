@@ -13,12 +13,16 @@
 
 package io.aexp.nodes.graphql;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.Map;
 
 final class Request {
     private String query;
     private Map<String, Object> variables;
+    private Map<String, Object> extensions;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public String getQuery() {
         return query;
     }
@@ -35,6 +39,15 @@ final class Request {
         this.variables = variables;
     }
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Map<String, Object> getExtensions() {
+        return extensions;
+    }
+
+    void setExtensions(Map<String, Object> extensions) {
+        this.extensions = extensions;
+    }
+
     @Override
     public String toString() {
         return "Request{" +
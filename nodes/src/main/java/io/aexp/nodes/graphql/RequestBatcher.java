@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects the requests posted to the same url with the same headers, and hands them to the fetcher as a single batch
+ * once the batch window has elapsed since the first of them, or as soon as the batch is full.
+ * <p>
+ * A single daemon thread shared by every batcher, and by every {@link BatchLoader}, flushes the batches whose window
+ * elapsed. It only encodes the batch and hands it to the fetcher's asynchronous transport, so it never waits on the
+ * network.
+ */
+final class RequestBatcher {
+
+    static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nodes-request-batcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AbstractFetcher fetcher;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Map.Entry<String, Map<String, String>>, List<Pending>> batches =
+            new HashMap<Map.Entry<String, Map<String, String>>, List<Pending>>();
+
+    /**
+     * @param fetcher fetcher sending the batches
+     * @param window batch window and size set on the builder
+     */
+    RequestBatcher(AbstractFetcher fetcher, Window window) {
+        this.fetcher = fetcher;
+        this.windowNanos = window.nanos;
+        this.maxBatchSize = window.maxBatchSize;
+    }
+
+    /**
+     * Adds a request to the batch of its url and headers.
+     *
+     * @param url url of the GraphQL server
+     * @param headers headers of the request
+     * @param body body of the single request
+     * @param responseClass class of the expected response resource
+     * @return future completed with the response to the request once its batch is answered
+     */
+    CompletableFuture<GraphQLResponseEntity<?>> submit(final URL url, final Map<String, String> headers, RequestBody body,
+                                                       Class<?> responseClass) {
+        Pending pending = new Pending(body, responseClass);
+        final Map.Entry<String, Map<String, String>> key =
+                new AbstractMap.SimpleImmutableEntry<String, Map<String, String>>(url.toString(), headers);
+        final List<Pending> batch;
+        boolean first = false;
+        boolean full = false;
+        lock.lock();
+        try {
+            List<Pending> current = batches.get(key);
+            if (current == null) {
+                current = new ArrayList<Pending>();
+                batches.put(key, current);
+                first = true;
+            }
+            current.add(pending);
+            if (current.size() >= maxBatchSize) {
+                batches.remove(key);
+                full = true;
+            }
+            batch = current;
+        } finally {
+            lock.unlock();
+        }
+        if (full) {
+            fetcher.sendBatch(url, headers, batch);
+        } else if (first) {
+            TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(key, url, headers, batch);
+                }
+            }, windowNanos, TimeUnit.NANOSECONDS);
+        }
+        return pending.getFuture();
+    }
+
+    private void flush(Map.Entry<String, Map<String, String>> key, URL url, Map<String, String> headers,
+                       List<Pending> batch) {
+        lock.lock();
+        try {
+            if (batches.get(key) != batch) {
+                // Already sent once it was full
+                return;
+            }
+            batches.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        fetcher.sendBatch(url, headers, batch);
+    }
+
+    /**
+     * Request waiting in a batch for its response.
+     */
+    static final class Pending {
+        private final RequestBody body;
+        private final Class<?> responseClass;
+        private final CompletableFuture<GraphQLResponseEntity<?>> future = new CompletableFuture<GraphQLResponseEntity<?>>();
+
+        Pending(RequestBody body, Class<?> responseClass) {
+            this.body = body;
+            this.responseClass = responseClass;
+        }
+
+        RequestBody getBody() {
+            return body;
+        }
+
+        Class<?> getResponseClass() {
+            return responseClass;
+        }
+
+        CompletableFuture<GraphQLResponseEntity<?>> getFuture() {
+            return future;
+        }
+    }
+
+    /**
+     * Batch window and size, as set on the template or fetcher builder.
+     */
+    static final class Window {
+        private final long nanos;
+        private final int maxBatchSize;
+
+        /**
+         * @param nanos time, in nanoseconds, requests are collected for before their batch is sent
+         * @param maxBatchSize number of requests sending the batch before its window elapsed
+         */
+        Window(long nanos, int maxBatchSize) {
+            this.nanos = nanos;
+            this.maxBatchSize = maxBatchSize;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Body of a GraphQL request, either already encoded or serialized on demand straight onto an output stream.
+ * <p>
+ * The request is always encoded as UTF-8 JSON. A body serialized on demand is never held in memory as a whole by the
+ * body itself, so variables backed by an {@link java.util.Iterator} are written element by element. Such variables can
+ * only be written once, so the body can't be written again: requests with such variables are never sent as persisted
+ * queries or GET requests, see {@link GraphQLRequestEntity#hasOneShotVariables()}.
+ */
+final class RequestBody {
+
+    private final byte[] bytes;
+    private final ObjectMapper mapper;
+    private final Request request;
+
+    private RequestBody(byte[] bytes, ObjectMapper mapper, Request request) {
+        this.bytes = bytes;
+        this.mapper = mapper;
+        this.request = request;
+    }
+
+    /**
+     * @param bytes encoded body, must not be modified
+     * @return RequestBody
+     */
+    static RequestBody of(byte[] bytes) {
+        return new RequestBody(bytes, null, null);
+    }
+
+    /**
+     * @param mapper mapper serializing the request
+     * @param request request serialized each time the body is written
+     * @return RequestBody
+     */
+    static RequestBody of(ObjectMapper mapper, Request request) {
+        return new RequestBody(null, mapper, request);
+    }
+
+    /**
+     * @return the encoded body, or null when the body is serialized on demand and its length isn't known up front
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the encoded body, serializing it into a new array when it isn't encoded yet
+     * @throws IOException if the request can't be serialized
+     */
+    byte[] toByteArray() throws IOException {
+        if (bytes != null) {
+            return bytes;
+        }
+        return mapper.writeValueAsBytes(request);
+    }
+
+    /**
+     * Writes the body to the stream, without closing it.
+     *
+     * @param outputStream stream to write to
+     * @throws IOException if the request can't be serialized or written
+     */
+    void writeTo(OutputStream outputStream) throws IOException {
+        if (bytes != null) {
+            outputStream.write(bytes);
+            return;
+        }
+        JsonGenerator generator = mapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            mapper.writeValue(generator, request);
+        } finally {
+            generator.close();
+        }
+    }
+}
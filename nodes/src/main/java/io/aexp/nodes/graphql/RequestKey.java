@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Identity of a request and its expected response: url, request text, variables, response class and request headers.
+ * The url is compared as a string, since {@link java.net.URL#equals(Object)} resolves host names, and header names are
+ * compared ignoring case.
+ */
+final class RequestKey {
+
+    private final String url;
+    private final String request;
+    private final Map<String, Object> variables;
+    private final Map<String, String> headers;
+    private final Class<?> responseClass;
+    private final int hash;
+
+    private RequestKey(String url, String request, Map<String, Object> variables, Map<String, String> headers,
+                       Class<?> responseClass) {
+        this.url = url;
+        this.request = request;
+        this.variables = variables;
+        this.headers = headers;
+        this.responseClass = responseClass;
+        this.hash = Arrays.hashCode(new Object[] {url, request, variables, headers, responseClass});
+    }
+
+    /**
+     * @param requestEntity request entity being sent
+     * @param responseClass class of the expected response resource
+     * @param headerNames names of the headers part of the key, compared ignoring case, or null for every header
+     * @return RequestKey
+     */
+    static RequestKey of(GraphQLRequestEntity requestEntity, Class<?> responseClass, Set<String> headerNames) {
+        return new RequestKey(requestEntity.getUrl().toString(), requestEntity.getRequest(),
+                new HashMap<String, Object>(requestEntity.getVariables()),
+                normalize(requestEntity.getHeaders(), headerNames), responseClass);
+    }
+
+    /**
+     * @param url url carrying the whole request, as sent with GET
+     * @param headers request headers, all part of the key
+     * @param responseClass class of the expected response resource
+     * @return RequestKey
+     */
+    static RequestKey of(String url, Map<String, String> headers, Class<?> responseClass) {
+        return new RequestKey(url, "", Collections.<String, Object>emptyMap(), normalize(headers, null), responseClass);
+    }
+
+    private static Map<String, String> normalize(Map<String, String> headers, Set<String> headerNames) {
+        if (headers.isEmpty() || (headerNames != null && headerNames.isEmpty())) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> normalized = new TreeMap<String, String>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (headerNames == null || containsIgnoringCase(headerNames, header.getKey())) {
+                normalized.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue());
+            }
+        }
+        return normalized;
+    }
+
+    private static boolean containsIgnoringCase(Set<String> names, String name) {
+        if (names.contains(name)) {
+            return true;
+        }
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RequestKey)) return false;
+        RequestKey other = (RequestKey) o;
+        return hash == other.hash
+                && url.equals(other.url)
+                && request.equals(other.request)
+                && variables.equals(other.variables)
+                && headers.equals(other.headers)
+                && responseClass.equals(other.responseClass);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Response body read fully into a byte array recycled per thread.
+ * <p>
+ * The array is sized from the {@code Content-Length} of the response, so a body is usually read with a single
+ * allocation at most, and none once the thread has read a body at least as large. Arrays larger than
+ * {@value #MAX_RETAINED_CAPACITY} bytes are not kept, so a single large response doesn't pin its buffer to the thread.
+ * A buffer must be {@link #release() released} once the body has been parsed and must not be used afterwards.
+ */
+final class ResponseBuffer {
+
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MIN_CAPACITY = 256;
+    private static final ThreadLocal<byte[]> POOL = new ThreadLocal<byte[]>();
+
+    private final byte[] bytes;
+    private final int length;
+
+    private ResponseBuffer(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    /**
+     * Reads the stream until its end, without closing it.
+     *
+     * @param inputStream stream to read
+     * @param expectedLength expected length of the body, used to size the buffer; longer bodies are still read fully
+     * @return ResponseBuffer
+     * @throws IOException if the stream can't be read
+     */
+    static ResponseBuffer read(InputStream inputStream, int expectedLength) throws IOException {
+        byte[] bytes = acquire(Math.max(expectedLength, MIN_CAPACITY));
+        int length = 0;
+        try {
+            while (true) {
+                if (length == bytes.length) {
+                    // Only grow when the body turns out to be longer than expected
+                    int next = inputStream.read();
+                    if (next < 0) break;
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    bytes[length++] = (byte) next;
+                }
+                int read = inputStream.read(bytes, length, bytes.length - length);
+                if (read < 0) break;
+                length += read;
+            }
+        } catch (IOException exception) {
+            recycle(bytes);
+            throw exception;
+        }
+        return new ResponseBuffer(bytes, length);
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Hands the array back to the pool of the current thread.
+     */
+    void release() {
+        recycle(bytes);
+    }
+
+    private static byte[] acquire(int capacity) {
+        byte[] pooled = POOL.get();
+        if (pooled != null && pooled.length >= capacity) {
+            // Taken out of the pool so a nested read on the same thread never shares it
+            POOL.remove();
+            return pooled;
+        }
+        return new byte[capacity];
+    }
+
+    private static void recycle(byte[] bytes) {
+        if (bytes.length > MAX_RETAINED_CAPACITY) {
+            return;
+        }
+        byte[] pooled = POOL.get();
+        if (pooled == null || pooled.length < bytes.length) {
+            POOL.set(bytes);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Fetcher coalescing identical queries in flight at the same time into a single request.
+ * <p>
+ * Queries with the same url, request text, variables, headers and response class that are sent while an identical
+ * query is still waiting for its response don't send their own request: they wait for that one and receive the same
+ * response entity, deserialized once, or the same exception. Unlike a {@link QueryCache}, nothing is kept once the
+ * response arrives. Mutations are always sent. Shared response entities should be treated as read-only.
+ *
+ * <pre>
+ * GraphQLTemplate graphQLTemplate = new GraphQLTemplate(new SingleFlightFetcher(HttpClientFetcher.Builder().build()));
+ * </pre>
+ */
+public final class SingleFlightFetcher implements Fetcher, AsyncFetcher {
+
+    private final Fetcher delegate;
+    private final ConcurrentMap<RequestKey, CompletableFuture<GraphQLResponseEntity<?>>> inFlight =
+            new ConcurrentHashMap<RequestKey, CompletableFuture<GraphQLResponseEntity<?>>>();
+
+    /**
+     * @param delegate fetcher sending the requests
+     */
+    public SingleFlightFetcher(Fetcher delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return fetcher sending the requests
+     */
+    Fetcher getDelegate() {
+        return delegate;
+    }
+
+    public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) throws GraphQLException {
+        if (requestEntity.isMutation()) {
+            return delegate.send(requestEntity, responseClass);
+        }
+        RequestKey key = RequestKey.of(requestEntity, responseClass, null);
+        CompletableFuture<GraphQLResponseEntity<?>> created = new CompletableFuture<GraphQLResponseEntity<?>>();
+        CompletableFuture<GraphQLResponseEntity<?>> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return FutureUtil.await(existing);
+        }
+        try {
+            GraphQLResponseEntity<T> response = delegate.send(requestEntity, responseClass);
+            inFlight.remove(key, created);
+            created.complete(response);
+            return response;
+        } catch (Throwable throwable) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(throwable);
+            throw throwable;
+        }
+    }
+
+    public <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(GraphQLRequestEntity requestEntity,
+                                                                     Class<T> responseClass, Executor executor) {
+        if (requestEntity.isMutation()) {
+            return FutureUtil.sendAsync(delegate, requestEntity, responseClass, executor);
+        }
+        final RequestKey key = RequestKey.of(requestEntity, responseClass, null);
+        final CompletableFuture<GraphQLResponseEntity<?>> created = new CompletableFuture<GraphQLResponseEntity<?>>();
+        CompletableFuture<GraphQLResponseEntity<?>> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return FutureUtil.dependent(existing);
+        }
+        CompletableFuture<GraphQLResponseEntity<T>> response;
+        try {
+            response = FutureUtil.sendAsync(delegate, requestEntity, responseClass, executor);
+        } catch (Throwable throwable) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(throwable);
+            throw throwable;
+        }
+        response.whenComplete(new BiConsumer<GraphQLResponseEntity<T>, Throwable>() {
+            @Override
+            public void accept(GraphQLResponseEntity<T> responseEntity, Throwable throwable) {
+                inFlight.remove(key, created);
+                if (throwable == null) {
+                    created.complete(responseEntity);
+                } else {
+                    created.completeExceptionally(throwable);
+                }
+            }
+        });
+        return FutureUtil.dependent(created);
+    }
+}
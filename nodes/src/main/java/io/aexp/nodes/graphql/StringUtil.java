@@ -14,8 +14,6 @@
 package io.aexp.nodes.graphql;
 
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 abstract class StringUtil {
 
@@ -23,66 +21,51 @@ abstract class StringUtil {
     }
 
     /**
-     * Joins and array to a delimited string
+     * Appends an argument formatted to conform with GraphQL specification based on the type
      *
-     * @param deliminator the deliminator that the string should be concatenated with
-     * @param array the array to be joined together
-     * @return String
+     * @param builder the builder the parameter is appended to
+     * @param key the key the parameter is assigned to
+     * @param value the value to assign to the key
      */
-    static String joinStringArray(String deliminator, List<String> array) {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (String item : array) {
-            if (stringBuilder.length() != 0) stringBuilder.append(deliminator);
-            stringBuilder.append(item);
+    static <T> void appendGraphQLParameter(StringBuilder builder, String key, T value) {
+        builder.append(key).append(':');
+        if (value instanceof List) {
+            appendGraphQLArgumentList(builder, (List) value);
+        } else {
+            appendGraphQLValue(builder, value);
         }
-        return stringBuilder.toString();
     }
 
     /**
-     * Formats arguments to confirm with GraphQL specification based on the type
+     * Appends a list of values formatted to conform with GraphQL specification based on the type of each value
      *
-     * @param key the key the parameter is assigned to
-     * @param value the value to assign to the key
-     * @return String
+     * @param builder the builder the values are appended to
+     * @param values the array of values to format
      */
-    static <T> String formatGraphQLParameter(String key, T value) {
-        StringBuilder stringBuilder = new StringBuilder();
-        Pattern pattern = Pattern.compile("^\\$");
-        Matcher matcher = pattern.matcher("" + value);
-        if (value instanceof String && !matcher.find()) {
-            stringBuilder.append(key).append(":\"").append(value).append("\"");
-        } else if (value instanceof List) {
-            stringBuilder.append(key).append(":").append(formatGraphQLArgumentList((List) value));
-        } else if (value instanceof InputObject) {
-            stringBuilder.append(key).append(":").append(((InputObject) value).getMessage());
-        } else {
-            stringBuilder.append(key).append(":").append(value);
+    private static void appendGraphQLArgumentList(StringBuilder builder, List values) {
+        builder.append('[');
+        boolean first = true;
+        for (Object value: values) {
+            if (!first) builder.append(',');
+            appendGraphQLValue(builder, value);
+            first = false;
         }
-        return stringBuilder.toString();
+        builder.append(']');
     }
 
     /**
-     * Formats a list of values to confirm with GraphQL specification based on the type of each value
+     * Appends a single value, quoting strings unless they reference a variable
      *
-     * @param values the array of values to format
-     * @return String
+     * @param builder the builder the value is appended to
+     * @param value the value to format
      */
-    private static String formatGraphQLArgumentList(List values) {
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("[");
-        Pattern p = Pattern.compile("^\\$");
-        for (Object value: values) {
-            if (stringBuilder.length() != 1) stringBuilder.append(",");
-            Matcher m = p.matcher("" + value);
-            if (value instanceof String && !m.find()) {
-                stringBuilder.append("\"").append(value).append("\"");
-            } else if (value instanceof InputObject) {
-                stringBuilder.append(((InputObject) value).getMessage());
-            } else {
-                stringBuilder.append(value);
-            }
+    private static void appendGraphQLValue(StringBuilder builder, Object value) {
+        if (value instanceof String && !((String) value).startsWith("$")) {
+            builder.append('"').append((String) value).append('"');
+        } else if (value instanceof InputObject) {
+            ((InputObject) value).appendMessage(builder);
+        } else {
+            builder.append(value);
         }
-        stringBuilder.append("]");
-        return stringBuilder.toString();
     }
 }
@@ -27,4 +27,6 @@ public @interface GraphQLArgument {
     String value() default "null";
     String type() default "null";
     boolean optional() default false;
+    /** GraphQL type of the variable the argument is hoisted into by a canonical request, e.g. {@code ID!}. */
+    String variableType() default "";
 }
@@ -14,11 +14,14 @@
 package io.aexp.nodes.graphql.internal;
 
 import java.util.Arrays;
+import java.util.Map;
 
 public final class Error {
 
     private String message;
     private Location[] locations;
+    private Object[] path;
+    private Map<String, Object> extensions;
 
     public String getMessage() {
         return message;
@@ -36,6 +39,25 @@ public final class Error {
         this.locations = locations;
     }
 
+    /**
+     * @return path of the response field the error was raised for, made of field names and list indices, or null
+     */
+    public Object[] getPath() {
+        return path;
+    }
+
+    void setPath(Object[] path) {
+        this.path = path;
+    }
+
+    public Map<String, Object> getExtensions() {
+        return extensions;
+    }
+
+    void setExtensions(Map<String, Object> extensions) {
+        this.extensions = extensions;
+    }
+
     @Override
     public String toString() {
         return "Error{" +
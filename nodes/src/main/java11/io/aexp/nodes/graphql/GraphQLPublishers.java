@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link Flow.Publisher Publishers} of the responses of a {@link GraphQLTemplate}, for reactive pipelines.
+ * <p>
+ * The publishers are lazy: nothing is sent until a subscriber requests an element, and every subscription sends the
+ * request again. A response publisher emits the single response entity of its request; it sends the request with the
+ * template's asynchronous methods, so {@link HttpClientFetcher} doesn't block any thread while waiting. An element
+ * publisher emits the elements of a list of the data, as they are parsed from the response: an element is only read
+ * from the response once it is requested, so a slow subscriber slows the reading down instead of buffering the whole
+ * list. Elements are read on the executor, blocking it while the response arrives.
+ * <p>
+ * Cancelling a subscription ignores a response still coming and closes a response being read; an element being
+ * read when the subscription is cancelled is dropped once read. Failures are signalled as a {@link GraphQLException},
+ * including the errors of the response, which fail an element publisher before its first element when they precede
+ * the data and after its last element otherwise.
+ *
+ * <pre>
+ * Flow.Publisher&lt;Repository&gt; repositories = GraphQLPublishers.queryElements(graphQLTemplate, requestEntity,
+ *     Repository.class, "viewer.repositories.nodes", executor);
+ * </pre>
+ * <p>
+ * Only available when running on Java 11 or later.
+ */
+public final class GraphQLPublishers {
+
+    private GraphQLPublishers() {
+    }
+
+    /**
+     * @param template template executing the request
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @return Flow.Publisher\<GraphQLResponseEntity\<T>> sending a GraphQL query request per subscription
+     */
+    public static <T> Flow.Publisher<GraphQLResponseEntity<T>> query(GraphQLTemplate template,
+                                                                    GraphQLRequestEntity requestEntity,
+                                                                    Class<T> responseClass) {
+        return execute(template, GraphQLTemplate.GraphQLMethod.QUERY, requestEntity, responseClass, null);
+    }
+
+    /**
+     * @param template template executing the request
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @return Flow.Publisher\<GraphQLResponseEntity\<T>> sending a GraphQL mutation request per subscription
+     */
+    public static <T> Flow.Publisher<GraphQLResponseEntity<T>> mutate(GraphQLTemplate template,
+                                                                     GraphQLRequestEntity requestEntity,
+                                                                     Class<T> responseClass) {
+        return execute(template, GraphQLTemplate.GraphQLMethod.MUTATE, requestEntity, responseClass, null);
+    }
+
+    /**
+     * @param template template executing the request
+     * @param method sets the request execution verb, optionally null when sending a fully built static request query
+     * @param requestEntity request entity to be executed upon
+     * @param responseClass response from the execution
+     * @param executor executor the response is handled on, or null for the fetcher's default, the template's blocking
+     *     executor for blocking fetchers
+     * @return Flow.Publisher\<GraphQLResponseEntity\<T>> sending the request per subscription
+     */
+    public static <T> Flow.Publisher<GraphQLResponseEntity<T>> execute(final GraphQLTemplate template,
+                                                                      final GraphQLTemplate.GraphQLMethod method,
+                                                                      final GraphQLRequestEntity requestEntity,
+                                                                      final Class<T> responseClass,
+                                                                      final Executor executor) {
+        return new Flow.Publisher<GraphQLResponseEntity<T>>() {
+            @Override
+            public void subscribe(Flow.Subscriber<? super GraphQLResponseEntity<T>> subscriber) {
+                if (subscriber == null) {
+                    throw new NullPointerException("subscriber must not be null");
+                }
+                subscriber.onSubscribe(new ResponseSubscription<T>(subscriber, template, method, requestEntity,
+                        responseClass, executor));
+            }
+        };
+    }
+
+    /**
+     * Publishes the elements of a list of the data of a GraphQL query, read on the template's blocking executor, see
+     * {@link #elements(GraphQLTemplate, GraphQLTemplate.GraphQLMethod, GraphQLRequestEntity, Class, String, Executor)}.
+     *
+     * @param template template executing the request
+     * @param requestEntity request entity to be executed upon
+     * @param elementClass class the elements are bound to
+     * @param path dot separated path of the list from the data, e.g. {@code viewer.repositories.nodes}
+     * @return Flow.Publisher\<E>
+     */
+    public static <E> Flow.Publisher<E> queryElements(GraphQLTemplate template, GraphQLRequestEntity requestEntity,
+                                                      Class<E> elementClass, String path) {
+        return elements(template, GraphQLTemplate.GraphQLMethod.QUERY, requestEntity, elementClass, path, null);
+    }
+
+    /**
+     * Publishes the elements of a list of the data of a GraphQL query, see
+     * {@link #elements(GraphQLTemplate, GraphQLTemplate.GraphQLMethod, GraphQLRequestEntity, Class, String, Executor)}.
+     *
+     * @param template template executing the request
+     * @param requestEntity request entity to be executed upon
+     * @param elementClass class the elements are bound to
+     * @param path dot separated path of the list from the data, e.g. {@code viewer.repositories.nodes}
+     * @param executor executor the elements are read on
+     * @return Flow.Publisher\<E>
+     */
+    public static <E> Flow.Publisher<E> queryElements(GraphQLTemplate template, GraphQLRequestEntity requestEntity,
+                                                      Class<E> elementClass, String path, Executor executor) {
+        return elements(template, GraphQLTemplate.GraphQLMethod.QUERY, requestEntity, elementClass, path, executor);
+    }
+
+    /**
+     * Publishes the elements of a list of the data of a GraphQL request, sending the request per subscription.
+     * <p>
+     * When a field of the path is null or absent the publisher completes without elements. Null elements are skipped.
+     * With the library's own fetchers the response is parsed as elements are requested; any other fetcher reads the
+     * whole response first. The request is always posted with its query, without batching or persisted queries.
+     *
+     * @param template template executing the request
+     * @param method sets the request execution verb, optionally null when sending a fully built static request query
+     * @param requestEntity request entity to be executed upon
+     * @param elementClass class the elements are bound to
+     * @param path dot separated path of the list from the data, e.g. {@code viewer.repositories.nodes}
+     * @param executor executor the elements are read on, or null for the template's
+     *     {@link GraphQLTemplate.TemplateBuilder#executor(Executor) blocking executor}; the reads block it, so it
+     *     should be sized for blocking calls or start a virtual thread per task
+     * @return Flow.Publisher\<E>
+     */
+    public static <E> Flow.Publisher<E> elements(final GraphQLTemplate template,
+                                                 final GraphQLTemplate.GraphQLMethod method,
+                                                 final GraphQLRequestEntity requestEntity, final Class<E> elementClass,
+                                                 final String path, Executor executor) {
+        final Executor readExecutor;
+        if (executor == null) {
+            readExecutor = template.getBlockingExecutor();
+        } else {
+            readExecutor = executor;
+        }
+        return new Flow.Publisher<E>() {
+            @Override
+            public void subscribe(Flow.Subscriber<? super E> subscriber) {
+                if (subscriber == null) {
+                    throw new NullPointerException("subscriber must not be null");
+                }
+                subscriber.onSubscribe(new ElementSubscription<E>(subscriber, template, method, requestEntity,
+                        elementClass, path, readExecutor));
+            }
+        };
+    }
+
+    private static IllegalArgumentException nonPositiveRequest(long n) {
+        return new IllegalArgumentException("Requested " + n + " elements, the demand must be positive");
+    }
+
+    /**
+     * Subscription sending the request on the first request for an element.
+     */
+    private static final class ResponseSubscription<T> implements Flow.Subscription {
+        private final Flow.Subscriber<? super GraphQLResponseEntity<T>> subscriber;
+        private final GraphQLTemplate template;
+        private final GraphQLTemplate.GraphQLMethod method;
+        private final GraphQLRequestEntity requestEntity;
+        private final Class<T> responseClass;
+        private final Executor executor;
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean requested;
+        private boolean done;
+        private CompletableFuture<GraphQLResponseEntity<T>> response;
+
+        ResponseSubscription(Flow.Subscriber<? super GraphQLResponseEntity<T>> subscriber, GraphQLTemplate template,
+                             GraphQLTemplate.GraphQLMethod method, GraphQLRequestEntity requestEntity,
+                             Class<T> responseClass, Executor executor) {
+            this.subscriber = subscriber;
+            this.template = template;
+            this.method = method;
+            this.requestEntity = requestEntity;
+            this.responseClass = responseClass;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (terminate()) subscriber.onError(nonPositiveRequest(n));
+                return;
+            }
+            lock.lock();
+            try {
+                if (done || requested) {
+                    return;
+                }
+                requested = true;
+            } finally {
+                lock.unlock();
+            }
+            CompletableFuture<GraphQLResponseEntity<T>> sent;
+            try {
+                sent = template.executeAsync(method, requestEntity, responseClass, executor);
+            } catch (RuntimeException exception) {
+                sent = FutureUtil.failedFuture(exception);
+            }
+            lock.lock();
+            try {
+                response = sent;
+            } finally {
+                lock.unlock();
+            }
+            sent.whenComplete(new BiConsumer<GraphQLResponseEntity<T>, Throwable>() {
+                @Override
+                public void accept(GraphQLResponseEntity<T> responseEntity, Throwable throwable) {
+                    lock.lock();
+                    try {
+                        if (done) {
+                            return;
+                        }
+                        done = true;
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (throwable != null) {
+                        subscriber.onError(FutureUtil.toGraphQLException(throwable));
+                        return;
+                    }
+                    subscriber.onNext(responseEntity);
+                    subscriber.onComplete();
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            terminate();
+        }
+
+        /**
+         * Ends the subscription, ignoring the response if it is still coming.
+         *
+         * @return true when the subscription wasn't done yet
+         */
+        private boolean terminate() {
+            boolean active;
+            CompletableFuture<GraphQLResponseEntity<T>> sent;
+            lock.lock();
+            try {
+                active = !done;
+                done = true;
+                sent = response;
+            } finally {
+                lock.unlock();
+            }
+            if (sent != null) {
+                sent.cancel(false);
+            }
+            return active;
+        }
+    }
+
+    /**
+     * Subscription reading elements on the executor while there is demand for them, sending the request on the first
+     * request for an element.
+     */
+    private static final class ElementSubscription<E> implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super E> subscriber;
+        private final GraphQLTemplate template;
+        private final GraphQLTemplate.GraphQLMethod method;
+        private final GraphQLRequestEntity requestEntity;
+        private final Class<E> elementClass;
+        private final String path;
+        private final Executor executor;
+        private final ReentrantLock lock = new ReentrantLock();
+        private long demand;
+        private boolean running;
+        private boolean done;
+        private ElementReader<E> reader;
+
+        ElementSubscription(Flow.Subscriber<? super E> subscriber, GraphQLTemplate template,
+                            GraphQLTemplate.GraphQLMethod method, GraphQLRequestEntity requestEntity,
+                            Class<E> elementClass, String path, Executor executor) {
+            this.subscriber = subscriber;
+            this.template = template;
+            this.method = method;
+            this.requestEntity = requestEntity;
+            this.elementClass = elementClass;
+            this.path = path;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (terminate()) subscriber.onError(nonPositiveRequest(n));
+                return;
+            }
+            boolean start;
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                // The demand saturates at Long.MAX_VALUE, meaning an unbounded demand
+                demand += n;
+                if (demand < 0) demand = Long.MAX_VALUE;
+                start = !running;
+                running = true;
+            } finally {
+                lock.unlock();
+            }
+            if (start) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException exception) {
+                    fail(exception);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            terminate();
+        }
+
+        /**
+         * Ends the subscription. A read in progress closes the reader itself once it sees the subscription is done.
+         *
+         * @return true when the subscription wasn't done yet
+         */
+        private boolean terminate() {
+            boolean active;
+            lock.lock();
+            try {
+                active = !done;
+                done = true;
+            } finally {
+                lock.unlock();
+            }
+            closeIfIdle();
+            return active;
+        }
+
+        /**
+         * Reads elements while there is demand for them, opening the reader on the first run.
+         */
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    lock.lock();
+                    try {
+                        if (done || demand == 0) {
+                            running = false;
+                            break;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (reader == null) {
+                        reader = template.openElements(method, requestEntity, elementClass, path);
+                        continue;
+                    }
+                    if (!reader.hasNext()) {
+                        complete();
+                        return;
+                    }
+                    E element = reader.next();
+                    lock.lock();
+                    try {
+                        if (done) {
+                            continue;
+                        }
+                        demand--;
+                    } finally {
+                        lock.unlock();
+                    }
+                    subscriber.onNext(element);
+                }
+            } catch (Exception exception) {
+                fail(exception);
+                return;
+            }
+            closeIfIdle();
+        }
+
+        private void complete() {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                done = true;
+                running = false;
+            } finally {
+                lock.unlock();
+            }
+            close();
+            subscriber.onComplete();
+        }
+
+        private void fail(Exception exception) {
+            boolean active;
+            lock.lock();
+            try {
+                active = !done;
+                done = true;
+                running = false;
+            } finally {
+                lock.unlock();
+            }
+            close();
+            if (active) subscriber.onError(FutureUtil.toGraphQLException(exception));
+        }
+
+        /**
+         * Closes the reader once the subscription is done, unless a read is in progress and will close it itself.
+         */
+        private void closeIfIdle() {
+            lock.lock();
+            try {
+                if (!done || running) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            close();
+        }
+
+        private void close() {
+            ElementReader<E> opened;
+            lock.lock();
+            try {
+                opened = reader;
+                reader = null;
+            } finally {
+                lock.unlock();
+            }
+            if (opened == null) {
+                return;
+            }
+            try {
+                opened.close();
+            } catch (IOException exception) {
+                // The rest of the response is not needed, there is nothing to recover
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.internal.DefaultObjectMapperFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {@link Fetcher} sending requests over the {@link HttpClient} of Java 11, to be passed to
+ * {@link GraphQLTemplate#GraphQLTemplate(Fetcher)}.
+ * <p>
+ * Requests are sent over HTTP/2 by default, so concurrent requests to the same server are multiplexed over a few
+ * pooled connections instead of opening a connection per request. The asynchronous methods of the template send
+ * without blocking any thread while waiting for the response. The client is built once and shared by every request,
+ * so a single fetcher should be shared across threads. The size and keep alive time of the connection pool are set
+ * for all clients of the JVM with the {@code jdk.httpclient.connectionPoolSize} and
+ * {@code jdk.httpclient.keepalive.timeout} system properties; a fully configured client can also be passed to
+ * {@link FetcherBuilder#httpClient(HttpClient)}. Responses compressed with gzip or deflate are inflated as they are
+ * parsed. A blocking send parks the calling thread without holding a monitor, so the fetcher doesn't pin the carrier
+ * of a virtual thread, see {@link VirtualThreads}.
+ *
+ * <pre>
+ * GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder()
+ *     .connectTimeout(Duration.ofSeconds(1))
+ *     .requestTimeout(Duration.ofSeconds(5))
+ *     .build());
+ * </pre>
+ * <p>
+ * Only available when running on Java 11 or later.
+ */
+public final class HttpClientFetcher extends AbstractFetcher {
+
+    private static final int CLIENT_ERROR_THRESHOLD = 400;
+    private static final int SERVER_ERROR_THRESHOLD = 500;
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    private HttpClientFetcher(FetcherBuilder builder) {
+        super(builder.objectMapperFactory, builder.persistedQueries, builder.httpGet, builder.maxGetUrlLength,
+                builder.compressionThreshold, builder.binaryFormat(),
+                builder.batchWindow(), null);
+        this.requestTimeout = builder.requestTimeout;
+        if (builder.httpClient != null) {
+            this.client = builder.httpClient;
+        } else {
+            HttpClient.Builder clientBuilder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .followRedirects(HttpClient.Redirect.NEVER);
+            if (builder.version != null) {
+                clientBuilder.version(builder.version);
+            }
+            if (builder.executor != null) {
+                clientBuilder.executor(builder.executor);
+            }
+            if (builder.connectTimeout != null) {
+                clientBuilder.connectTimeout(builder.connectTimeout);
+            }
+            this.client = clientBuilder.build();
+        }
+    }
+
+    public static FetcherBuilder Builder() {
+        return new FetcherBuilder();
+    }
+
+    HttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    RawResponse request(URL url, Map<String, String> headers, RequestBody body) throws IOException {
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(newRequest(url, headers, bytesOf(body)), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        }
+        return new RawResponse(response.statusCode(), reasonPhrase(response.statusCode()), response.headers().map(),
+                response.body());
+    }
+
+    @Override
+    CompletableFuture<RawResponse> requestAsync(URL url, Map<String, String> headers, RequestBody body,
+                                                Executor executor) {
+        HttpRequest request;
+        try {
+            request = newRequest(url, headers, bytesOf(body));
+        } catch (IOException exception) {
+            CompletableFuture<RawResponse> failed = new CompletableFuture<RawResponse>();
+            failed.completeExceptionally(exception);
+            return failed;
+        }
+        // The body is buffered so mapping the response never blocks on the connection
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(
+                new Function<HttpResponse<byte[]>, RawResponse>() {
+                    @Override
+                    public RawResponse apply(HttpResponse<byte[]> response) {
+                        return new RawResponse(response.statusCode(), reasonPhrase(response.statusCode()),
+                                response.headers().map(), response.body());
+                    }
+                });
+    }
+
+    /**
+     * The body is encoded up front, as UTF-8 JSON, since the client only streams a body from a publisher or from
+     * another thread.
+     */
+    private static byte[] bytesOf(RequestBody body) throws IOException {
+        if (body == null) {
+            return null;
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * @param url url of the GraphQL server
+     * @param headers headers of the request
+     * @param body encoded request body, or null to send a GET request
+     * @return HttpRequest
+     */
+    HttpRequest newRequest(URL url, Map<String, String> headers, byte[] body) throws IOException {
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException exception) {
+            throw new IOException("Invalid url " + url, exception);
+        }
+        if (body == null) {
+            request.GET();
+        } else if (compresses(body.length)) {
+            request.POST(HttpRequest.BodyPublishers.ofByteArray(CompressionUtil.gzip(body)))
+                    .header("Content-Type", "application/json")
+                    .header(CompressionUtil.CONTENT_ENCODING, CompressionUtil.GZIP);
+        } else {
+            request.POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .header("Content-Type", "application/json");
+        }
+        request.header("Accept", getAccept())
+                .header(CompressionUtil.ACCEPT_ENCODING, CompressionUtil.SUPPORTED_ENCODINGS);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            request.setHeader(entry.getKey(), entry.getValue());
+        }
+        if (requestTimeout != null) {
+            request.timeout(requestTimeout);
+        }
+        return request.build();
+    }
+
+    /**
+     * HTTP/2 responses carry no reason phrase, so errors are described by their status class.
+     */
+    private static String reasonPhrase(int status) {
+        if (status >= SERVER_ERROR_THRESHOLD) {
+            return "Server Error";
+        } else if (status >= CLIENT_ERROR_THRESHOLD) {
+            return "Client Error";
+        }
+        return null;
+    }
+
+    public static final class FetcherBuilder {
+        private ObjectMapperFactory objectMapperFactory = new DefaultObjectMapperFactory();
+        private boolean persistedQueries;
+        private boolean httpGet;
+        private int maxGetUrlLength = GraphQLTemplate.DEFAULT_MAX_GET_URL_LENGTH;
+        private int compressionThreshold = -1;
+        private String binaryMediaType;
+        private JsonFactory binaryFactory;
+        private long batchWindow = -1;
+        private int maxBatchSize;
+        private HttpClient httpClient;
+        private HttpClient.Version version;
+        private Executor executor;
+        private Duration connectTimeout;
+        private Duration requestTimeout;
+
+        private FetcherBuilder() {
+        }
+
+        public FetcherBuilder objectMapperFactory(ObjectMapperFactory objectMapperFactory) {
+            this.objectMapperFactory = objectMapperFactory;
+            return this;
+        }
+
+        /**
+         * @param persistedQueries true to send automatic persisted queries, see
+         *     {@link GraphQLTemplate.TemplateBuilder#persistedQueries(boolean)}
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder persistedQueries(boolean persistedQueries) {
+            this.persistedQueries = persistedQueries;
+            return this;
+        }
+
+        /**
+         * @param httpGet true to send queries as GET requests, see
+         *     {@link GraphQLTemplate.TemplateBuilder#httpGet(boolean)}
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder httpGet(boolean httpGet) {
+            this.httpGet = httpGet;
+            return this;
+        }
+
+        /**
+         * @param maxGetUrlLength length of the url above which queries are posted, 2048 by default
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder maxGetUrlLength(int maxGetUrlLength) {
+            this.maxGetUrlLength = maxGetUrlLength;
+            return this;
+        }
+
+        /**
+         * @param compressionThreshold length in bytes of the request body above which it is gzipped, -1 (the default)
+         *     to never compress request bodies, see {@link GraphQLTemplate.TemplateBuilder#compressRequestsAbove(int)}
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder compressRequestsAbove(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * @param mediaType media type of the binary format preferred over JSON for responses
+         * @param factory factory of the format's parsers, see
+         *     {@link GraphQLTemplate.TemplateBuilder#binaryFormat(String, JsonFactory)}
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder binaryFormat(String mediaType, JsonFactory factory) {
+            this.binaryMediaType = mediaType;
+            this.binaryFactory = factory;
+            return this;
+        }
+
+        /**
+         * @param window time posted requests are collected for before they are sent as a single batch, see
+         *     {@link GraphQLTemplate.TemplateBuilder#batch(long, TimeUnit, int)}
+         * @param unit unit of the window
+         * @param maxBatchSize number of requests sending the batch before the window elapsed
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder batch(long window, TimeUnit unit, int maxBatchSize) {
+            this.batchWindow = unit.toNanos(window);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Uses a client configured by the caller, which can't be combined with the other client options.
+         *
+         * @param httpClient client used to send every request
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder httpClient(HttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        /**
+         * @param version preferred HTTP version, defaults to HTTP/2 falling back to HTTP/1.1 when the server
+         *     doesn't support it
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder version(HttpClient.Version version) {
+            this.version = version;
+            return this;
+        }
+
+        /**
+         * @param executor executor running the client's asynchronous tasks, defaults to the client's own thread pool
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout timeout used when opening a connection
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param requestTimeout timeout of each request, from sending it until the response headers are received
+         * @return FetcherBuilder
+         */
+        public FetcherBuilder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        public HttpClientFetcher build() throws IllegalStateException {
+            if (objectMapperFactory == null) throw new IllegalStateException("objectMapperFactory must be set");
+            if ((binaryMediaType == null) != (binaryFactory == null)) {
+                throw new IllegalStateException("binaryFormat needs both a media type and a factory");
+            }
+            if (batchWindow >= 0 && maxBatchSize <= 0) throw new IllegalStateException("maxBatchSize must be positive");
+            if (httpClient != null && (version != null || executor != null || connectTimeout != null)) {
+                throw new IllegalStateException("httpClient can't be combined with version, executor or connectTimeout");
+            }
+            return new HttpClientFetcher(this);
+        }
+
+        private RequestBatcher.Window batchWindow() {
+            if (batchWindow < 0) {
+                return null;
+            }
+            return new RequestBatcher.Window(batchWindow, maxBatchSize);
+        }
+
+        private BinaryFormat binaryFormat() {
+            if (binaryFactory == null) {
+                return null;
+            }
+            return new BinaryFormat(binaryMediaType, binaryFactory);
+        }
+    }
+}
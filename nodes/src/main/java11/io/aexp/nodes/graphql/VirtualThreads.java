@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors running each task on its own virtual thread, on Java 21 or later.
+ * <p>
+ * A virtual thread blocked on I/O releases its carrier thread, so thousands of concurrent blocking
+ * {@link GraphQLTemplate#query(GraphQLRequestEntity, Class)} calls only need a few platform threads, as long as the
+ * fetcher doesn't pin the carrier while it waits. {@link HttpClientFetcher} doesn't: a blocking send waits on the
+ * client's future with no monitor held, which {@code VirtualThreadsTest} checks with the {@code jdk.VirtualThreadPinned}
+ * event of Flight Recorder on Java 21. The default fetcher goes through {@link java.net.HttpURLConnection}, which may
+ * block inside {@code synchronized} sections of the JDK and so pin the carrier on releases before JDK 24, so templates
+ * called from virtual threads should be built on {@link HttpClientFetcher}:
+ *
+ * <pre>
+ * final GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().build());
+ * ExecutorService executor = VirtualThreads.newExecutor();
+ * Future&lt;GraphQLResponseEntity&lt;SampleModel&gt;&gt; response = executor.submit(
+ *     new Callable&lt;GraphQLResponseEntity&lt;SampleModel&gt;&gt;() {
+ *         public GraphQLResponseEntity&lt;SampleModel&gt; call() {
+ *             return graphQLTemplate.query(requestEntity, SampleModel.class);
+ *         }
+ *     });
+ * executor.shutdown();
+ * </pre>
+ * <p>
+ * Only available when running on Java 11 or later; the executors are only created on Java 21 or later.
+ */
+public final class VirtualThreads {
+
+    private static final int VIRTUAL_THREADS_RELEASE = 21;
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true when the running JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return Runtime.version().feature() >= VIRTUAL_THREADS_RELEASE;
+    }
+
+    /**
+     * Returns an executor starting a new virtual thread for each task, to be closed with
+     * {@link ExecutorService#shutdown()} once its tasks are submitted.
+     *
+     * @return ExecutorService
+     * @throws UnsupportedOperationException if the running JVM doesn't support virtual threads
+     */
+    public static ExecutorService newExecutor() throws UnsupportedOperationException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java " + VIRTUAL_THREADS_RELEASE + " or later");
+        }
+        try {
+            // Looked up reflectively so the class still compiles and loads on older releases
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (InvocationTargetException exception) {
+            throw new UnsupportedOperationException("Virtual threads are not available", exception.getCause());
+        } catch (ReflectiveOperationException exception) {
+            throw new UnsupportedOperationException("Virtual threads are not available", exception);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelAccount;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchLoaderTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void loadsDistinctKeysInOneRequest() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {"
+                + "\"q0_account\": {\"simpleString\": \"first\"}, \"q1_account\": {\"simpleString\": \"second\"}}}"));
+        BatchLoader<String, TestModelAccount> loader = loader().manualDispatch().build();
+
+        List<CompletableFuture<TestModelAccount>> futures = loader.loadMany(Arrays.asList("a1", "a2", "a1"));
+        loader.dispatch();
+
+        assertEquals("first", futures.get(0).get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("second", futures.get(1).get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("first", futures.get(2).get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(1, server.getRequestCount());
+        String body = server.takeRequest().getBody().readUtf8();
+        assertTrue(body, body.contains("q0_account : account (id:\\\"a1\\\")"));
+        assertTrue(body, body.contains("q1_account : account (id:\\\"a2\\\")"));
+    }
+
+    @Test
+    public void memoizesLoadedKeys() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"first\"}}}"));
+        BatchLoader<String, TestModelAccount> loader = loader().manualDispatch().build();
+
+        CompletableFuture<TestModelAccount> first = loader.load("a1");
+        loader.dispatch();
+        first.get(5, TimeUnit.SECONDS);
+        CompletableFuture<TestModelAccount> again = loader.load("a1");
+        loader.dispatch();
+
+        assertEquals("first", again.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void sendsBatchOnceTheWindowElapses() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {"
+                + "\"q0_account\": {\"simpleString\": \"first\"}, \"q1_account\": {\"simpleString\": \"second\"}}}"));
+        BatchLoader<String, TestModelAccount> loader = loader().window(200, TimeUnit.MILLISECONDS).build();
+
+        CompletableFuture<TestModelAccount> first = loader.load("a1");
+        CompletableFuture<TestModelAccount> second = loader.load("a2");
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("second", second.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void sendsBatchAfterTheDefaultWindow() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"first\"}}}"));
+        BatchLoader<String, TestModelAccount> loader = loader().build();
+
+        assertEquals("first", loader.load("a1").get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void sendsFullBatchWithoutDispatch() throws Exception {
+        // Both batches are in flight at once, so they get the same response whatever order they arrive in
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"loaded\"}}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"loaded\"}}}"));
+        BatchLoader<String, TestModelAccount> loader = loader().maxBatchSize(1).build();
+
+        CompletableFuture<TestModelAccount> first = loader.load("a1");
+        CompletableFuture<TestModelAccount> second = loader.load("a2");
+
+        assertEquals("loaded", first.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("loaded", second.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void failsKeysWithErrorsAndForgetsThem() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": null, \"q1_account\": {\"simpleString\": \"second\"}},"
+                + "\"errors\": [{\"message\": \"account not found\", \"path\": [\"q0_account\"]}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"first\"}}}"));
+        BatchLoader<String, TestModelAccount> loader = loader().manualDispatch().build();
+
+        CompletableFuture<TestModelAccount> first = loader.load("a1");
+        CompletableFuture<TestModelAccount> second = loader.load("a2");
+        loader.dispatch();
+
+        ExecutionException exception = null;
+        try {
+            first.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        GraphQLException cause = (GraphQLException) exception.getCause();
+        assertEquals("account not found", cause.getErrors()[0].getMessage());
+        assertEquals("second", second.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+
+        CompletableFuture<TestModelAccount> retried = loader.load("a1");
+        loader.dispatch();
+        assertEquals("first", retried.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void buildRequiresAnArgument() throws Exception {
+        IllegalStateException exception = null;
+        try {
+            BatchLoader.Builder(TestModelAccount.class)
+                    .template(new GraphQLTemplate())
+                    .request(prepared())
+                    .build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+    }
+
+    @Test
+    public void buildRequiresAPositiveWindow() throws Exception {
+        IllegalStateException exception = null;
+        try {
+            loader().window(0, TimeUnit.MILLISECONDS).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("window must be positive", exception.getMessage());
+    }
+
+    private BatchLoader.LoaderBuilder<TestModelAccount> loader() throws Exception {
+        return BatchLoader.Builder(TestModelAccount.class)
+                .template(new GraphQLTemplate())
+                .request(prepared())
+                .argument("account", "id");
+    }
+
+    private PreparedGraphQLRequest prepared() throws Exception {
+        return GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelAccount.class)
+                .prepare();
+    }
+}
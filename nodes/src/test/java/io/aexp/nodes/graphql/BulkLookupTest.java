@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.models.TestModelAccount;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkLookupTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void returnsChunksInInputOrder() throws Exception {
+        server.enqueue(accounts("a1", "a2"));
+        server.enqueue(accounts("a3", "a4"));
+        server.enqueue(accounts("a5"));
+        BulkLookup<String, TestModelAccount> lookup = lookup().chunkSize(2).parallelism(1).build();
+
+        Iterator<BulkLookup.Chunk<String, TestModelAccount>> chunks = lookup.lookup(Arrays.asList("a1", "a2", "a3", "a4", "a5"));
+
+        for (int index = 0; index < 3; index++) {
+            BulkLookup.Chunk<String, TestModelAccount> chunk = chunks.next();
+            assertEquals(index, chunk.getIndex());
+            assertTrue(chunk.isSuccessful());
+            for (int key = 0; key < chunk.getKeys().size(); key++) {
+                assertEquals(chunk.getKeys().get(key),
+                        chunk.getResponses().get(key).getResponse().getAccount().getSimpleString());
+            }
+        }
+        assertFalse(chunks.hasNext());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void reportsFailedChunksAndCarriesOn() throws Exception {
+        server.enqueue(accounts("a1"));
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{\"errors\": [{\"message\": \"boom\"}]}"));
+        server.enqueue(accounts("a3"));
+        BulkLookup<String, TestModelAccount> lookup = lookup().chunkSize(1).parallelism(1).build();
+
+        Iterator<BulkLookup.Chunk<String, TestModelAccount>> chunks = lookup.lookup(Arrays.asList("a1", "a2", "a3"));
+
+        assertTrue(chunks.next().isSuccessful());
+        BulkLookup.Chunk<String, TestModelAccount> failed = chunks.next();
+        assertFalse(failed.isSuccessful());
+        assertNull(failed.getResponses());
+        assertEquals(Arrays.asList("a2"), failed.getKeys());
+        assertEquals("500", failed.getException().getStatus());
+        assertEquals("a3", chunks.next().getResponses().get(0).getResponse().getAccount().getSimpleString());
+    }
+
+    @Test
+    public void readsKeysOnlyAsChunksAreSent() throws Exception {
+        server.enqueue(accounts("a1", "a2"));
+        server.enqueue(accounts("a3", "a4"));
+        final AtomicInteger read = new AtomicInteger();
+        final Iterator<String> source = Arrays.asList("a1", "a2", "a3", "a4").iterator();
+        Iterator<String> keys = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public String next() {
+                read.incrementAndGet();
+                return source.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        BulkLookup<String, TestModelAccount> lookup = lookup().chunkSize(2).parallelism(1).build();
+
+        Iterator<BulkLookup.Chunk<String, TestModelAccount>> chunks = lookup.lookup(keys);
+        assertEquals(2, read.get());
+        chunks.next();
+        assertEquals(4, read.get());
+        chunks.next();
+        assertFalse(chunks.hasNext());
+    }
+
+    @Test
+    public void buildRejectsNonPositiveChunkSize() throws Exception {
+        IllegalStateException exception = null;
+        try {
+            lookup().chunkSize(0).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+    }
+
+    private MockResponse accounts(String... names) {
+        StringBuilder body = new StringBuilder("{\"data\": {");
+        for (int index = 0; index < names.length; index++) {
+            if (index > 0) body.append(',');
+            body.append("\"q").append(index).append("_account\": {\"simpleString\": \"").append(names[index]).append("\"}");
+        }
+        return new MockResponse().setBody(body.append("}}").toString());
+    }
+
+    private BulkLookup.LookupBuilder<TestModelAccount> lookup() throws Exception {
+        return BulkLookup.Builder(TestModelAccount.class)
+                .template(new GraphQLTemplate())
+                .request(GraphQLRequestEntity.Builder()
+                        .url(server.url("/graphql").toString())
+                        .request(TestModelAccount.class)
+                        .prepare())
+                .argument("account", "id");
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.models.TestModelAccount;
+import io.aexp.nodes.graphql.models.TestModelUser;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkMutationTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void packsInputObjectsIntoAliasedMutations() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"created\"},"
+                + "\"q1_account\": null}, \"errors\": [{\"message\": \"duplicate\", \"path\": [\"q1_account\"]}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"created\"}}}"));
+        BulkMutation<InputObject<String>, TestModelAccount> mutation = BulkMutation.Builder(TestModelAccount.class)
+                .template(new GraphQLTemplate())
+                .request(prepared(TestModelAccount.class))
+                .argument("account", "id")
+                .chunkSize(2)
+                .parallelism(1)
+                .build();
+        List<InputObject<String>> records = new ArrayList<InputObject<String>>();
+        for (String name : Arrays.asList("Ada", "Grace", "Alan")) {
+            records.add(new InputObject.Builder<String>().put("name", name).build());
+        }
+
+        Iterator<BulkLookup.Chunk<InputObject<String>, TestModelAccount>> chunks = mutation.execute(records);
+
+        BulkLookup.Chunk<InputObject<String>, TestModelAccount> first = chunks.next();
+        assertEquals("created", first.getResponses().get(0).getResponse().getAccount().getSimpleString());
+        assertNull(first.getResponses().get(0).getErrors());
+        assertEquals("duplicate", first.getResponses().get(1).getErrors()[0].getMessage());
+        assertEquals(records.get(1), first.getKeys().get(1));
+        BulkLookup.Chunk<InputObject<String>, TestModelAccount> second = chunks.next();
+        assertEquals(Collections.singletonList(records.get(2)), second.getKeys());
+        assertFalse(chunks.hasNext());
+        String body = server.takeRequest().getBody().readUtf8();
+        assertTrue(body, body.startsWith("{\"query\":\"mutation { q0_account : account (id:{name:\\\"Ada\\\"}) { simpleString } "
+                + "q1_account : account (id:{name:\\\"Grace\\\"}) { simpleString } } \""));
+    }
+
+    @Test
+    public void bindsVariableMaps() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_user\": {\"simpleString\": \"u1\"},"
+                + "\"q1_user\": {\"simpleString\": \"u2\"}}}"));
+        BulkMutation<Map<String, String>, TestModelUser> mutation = BulkMutation.Builder(TestModelUser.class)
+                .template(new GraphQLTemplate())
+                .request(prepared(TestModelUser.class))
+                .variables()
+                .build();
+
+        Iterator<BulkLookup.Chunk<Map<String, String>, TestModelUser>> chunks = mutation.execute(Arrays.asList(
+                Collections.singletonMap("id", "u1"), Collections.singletonMap("id", "u2")));
+
+        BulkLookup.Chunk<Map<String, String>, TestModelUser> chunk = chunks.next();
+        assertEquals("u2", chunk.getResponses().get(1).getResponse().getUser().getSimpleString());
+        String body = server.takeRequest().getBody().readUtf8();
+        assertTrue(body, body.contains("\"q0_id\":\"u1\""));
+        assertTrue(body, body.contains("\"q1_id\":\"u2\""));
+    }
+
+    @Test
+    public void buildRejectsArgumentAndVariables() throws Exception {
+        IllegalStateException exception = null;
+        try {
+            BulkMutation.Builder(TestModelAccount.class)
+                    .template(new GraphQLTemplate())
+                    .request(prepared(TestModelAccount.class))
+                    .argument("account", "id")
+                    .variables()
+                    .build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+    }
+
+    private PreparedGraphQLRequest prepared(Class<?> clazz) throws Exception {
+        return GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(clazz)
+                .prepare();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelCanonical;
+import io.aexp.nodes.graphql.models.TestModelOptionalArguments;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CanonicalizerTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+
+    @Test
+    public void sortsFieldsAndHoistsArguments() throws MalformedURLException {
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test", new Argument<String>("id", "abc")))
+                .canonical(true)
+                .build();
+        assertEquals("query ($test_id:ID,$test_nested_first:Int,$test_nested_ids:[String],$test_nested_last:Int){ test (id:$test_id) { count name nested (ids:$test_nested_ids,first:$test_nested_first,last:$test_nested_last) { string } } } ",
+                requestEntity.getRequest());
+        assertEquals("abc", requestEntity.getVariables().get("test_id"));
+    }
+
+    @Test
+    public void sameTextForDifferentArgumentValues() throws MalformedURLException {
+        GraphQLRequestEntity first = canonicalEntity(Arrays.asList("1", "2"), 10);
+        GraphQLRequestEntity second = canonicalEntity(Collections.singletonList("3"), 20);
+        assertEquals("query ($test_id:ID,$test_nested_first:Int,$test_nested_ids:[String],$test_nested_last:Int){ test (id:$test_id) { count name nested (ids:$test_nested_ids,first:$test_nested_first,last:$test_nested_last) { string } } } ",
+                first.getRequest());
+        assertEquals(first.getRequest(), second.getRequest());
+        assertEquals(Arrays.asList("1", "2"), first.getVariables().get("test_nested_ids"));
+        assertEquals(10, first.getVariables().get("test_nested_first"));
+        assertEquals(Collections.singletonList("3"), second.getVariables().get("test_nested_ids"));
+        assertEquals(20, second.getVariables().get("test_nested_first"));
+    }
+
+    @Test
+    public void hoistsOptionalArgumentsAsNullableVariables() throws MalformedURLException {
+        GraphQLRequestEntity set = canonicalEntity(Collections.singletonList("1"), 10);
+        GraphQLRequestEntity unset = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test.nested", new Argument<List<String>>("ids", Collections.singletonList("1"))))
+                .canonical(true)
+                .build();
+        assertEquals(set.getRequest(), unset.getRequest());
+        assertTrue(unset.getRequest().contains("$test_nested_first:Int,"));
+        assertTrue(unset.getVariables().containsKey("test_nested_first"));
+        assertNull(unset.getVariables().get("test_nested_first"));
+        assertTrue(unset.getVariables().containsKey("test_nested_last"));
+        assertNull(unset.getVariables().get("test_nested_last"));
+    }
+
+    @Test
+    public void usesArgumentType() throws MalformedURLException {
+        Argument<String> id = new Argument<String>("id", "abc");
+        id.setType("ID!");
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test", id))
+                .canonical(true)
+                .minify(true)
+                .build();
+        assertTrue(requestEntity.getRequest().contains("$test_id:ID!"));
+        assertTrue(requestEntity.getRequest().contains("test(id:$test_id)"));
+        assertEquals("abc", requestEntity.getVariables().get("test_id"));
+    }
+
+    @Test
+    public void hoistsInputObjectsAsMaps() throws MalformedURLException {
+        Argument<InputObject> ids = new Argument<InputObject>("ids",
+                new InputObject.Builder<Object>().put("first", 1).build());
+        ids.setType("IdsInput");
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test.nested", ids))
+                .canonical(true)
+                .build();
+        assertTrue(requestEntity.getRequest().contains("$test_nested_ids:IdsInput"));
+        Map hoisted = (Map) requestEntity.getVariables().get("test_nested_ids");
+        assertEquals(1, hoisted.get("first"));
+    }
+
+    @Test
+    public void leavesVariableReferencesInline() throws MalformedURLException {
+        List<String> ids = new ArrayList<String>();
+        ids.add("47");
+        ids.add("$id");
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test.nested", new Argument<List<String>>("ids", ids)))
+                .canonical(true)
+                .minify(true)
+                .build();
+        assertTrue(requestEntity.getRequest().contains("nested(ids:[\"47\",$id],"));
+        assertFalse(requestEntity.getVariables().containsKey("test_nested_ids"));
+    }
+
+    @Test
+    public void undeclaredTypeThrows() throws MalformedURLException {
+        GraphQLException exception = null;
+        try {
+            GraphQLRequestEntity.Builder()
+                    .url(EXAMPLE_URL)
+                    .request(TestModelOptionalArguments.class)
+                    .arguments(new Arguments("test.nested", new Argument<Integer>("first", 1)))
+                    .canonical(true)
+                    .build();
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("Argument 'ids' on 'test.nested' has no declared type, set the variableType of the " +
+                "@GraphQLArgument or the type of the Argument to use a canonical request", exception.getMessage());
+    }
+
+    @Test
+    public void canonicalFormCachedWithMetadata() {
+        ModelMetadata metadata = ModelMetadata.of(TestModelCanonical.class, Collections.<Class>emptyList());
+        assertSame(metadata.canonical(), metadata.canonical());
+        assertFalse(metadata.getRequest(GraphQLTemplate.GraphQLMethod.QUERY, false)
+                .equals(metadata.canonical().getRequest(GraphQLTemplate.GraphQLMethod.QUERY, false)));
+    }
+
+    @Test
+    public void preparedRequestBindsHoistedValues() throws MalformedURLException {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test.nested", new Argument<Integer>("first", 10)))
+                .canonical(true)
+                .prepare();
+        GraphQLRequestEntity unbound = prepared.bind();
+        GraphQLRequestEntity bound = prepared.bind(new Arguments("test.nested",
+                new Argument<List<String>>("ids", Collections.singletonList("1")), new Argument<Integer>("first", 5)));
+        assertEquals(prepared.getRequest(), unbound.getRequest());
+        assertEquals(unbound.getRequest(), bound.getRequest());
+        assertEquals(10, unbound.getVariables().get("test_nested_first"));
+        assertNull(unbound.getVariables().get("test_nested_ids"));
+        assertEquals(5, bound.getVariables().get("test_nested_first"));
+        assertEquals(Collections.singletonList("1"), bound.getVariables().get("test_nested_ids"));
+    }
+
+    private static GraphQLRequestEntity canonicalEntity(List<String> ids, int first) throws MalformedURLException {
+        return GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelCanonical.class)
+                .arguments(new Arguments("test.nested",
+                        new Argument<List<String>>("ids", ids), new Argument<Integer>("first", first)))
+                .canonical(true)
+                .build();
+    }
+}
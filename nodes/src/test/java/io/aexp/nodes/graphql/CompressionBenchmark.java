@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.internal.DefaultObjectMapperFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the trade-off of compressing request and response bodies: the bytes saved on the wire against the time
+ * spent gzipping request bodies and inflating responses while they are parsed.
+ * <p>
+ * Payloads are list queries of a few hundred bytes per element, from a small page to a large export, and mutations
+ * carrying a list of inputs. For each payload the benchmark prints the plain and gzipped sizes, the CPU time per
+ * operation, and the resulting latency (CPU time plus transfer time) over a few link speeds. Compression pays off
+ * whenever the transfer time saved is larger than the CPU time added, which on fast local links may not be the case
+ * for small bodies.
+ * <p>
+ * Not run as part of the test suite. Run the main method from the test classpath:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; io.aexp.nodes.graphql.CompressionBenchmark
+ * </pre>
+ */
+public final class CompressionBenchmark {
+
+    private static final int[] ELEMENTS = {10, 100, 1000, 10000};
+    private static final long[] LINK_BITS_PER_SECOND = {10000000L, 100000000L, 1000000000L};
+    private static final int WARMUP_MILLIS = 500;
+    private static final int MEASURED_MILLIS = 1000;
+    private static final double NANOS_PER_SECOND = 1000000000d;
+    private static final double NANOS_PER_MILLI = 1000000d;
+    private static final double BITS_PER_BYTE = 8d;
+    private static final double BYTES_PER_KILOBYTE = 1024d;
+    private static final double MEGABITS = 1000000d;
+
+    private CompressionBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper mapper = new DefaultObjectMapperFactory().newSerializerMapper();
+        System.out.println("responses: plain parse vs inflate while parsing");
+        for (int elements : ELEMENTS) {
+            byte[] plain = response(elements);
+            byte[] gzipped = CompressionUtil.gzip(plain);
+            Operation plainParse = parse(mapper, plain, null);
+            Operation gzipParse = parse(mapper, gzipped, CompressionUtil.GZIP);
+            // Both paths are warmed up before measuring either, so neither benefits from the other's compilation
+            measure(plainParse);
+            measure(gzipParse);
+            double plainNanos = measure(plainParse);
+            double gzipNanos = measure(gzipParse);
+            print("response, " + elements + " elements", plain.length, gzipped.length, plainNanos, gzipNanos);
+        }
+        System.out.println();
+        System.out.println("requests: write plain vs gzip before sending");
+        for (int elements : ELEMENTS) {
+            final byte[] plain = mutation(elements);
+            byte[] gzipped = CompressionUtil.gzip(plain);
+            double gzipNanos = measure(new Operation() {
+                @Override
+                public void run() throws IOException {
+                    CompressionUtil.gzip(plain);
+                }
+            });
+            print("mutation, " + elements + " inputs", plain.length, gzipped.length, 0, gzipNanos);
+        }
+    }
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    private static Operation parse(final ObjectMapper mapper, final byte[] body, final String contentEncoding) {
+        return new Operation() {
+            @Override
+            public void run() throws IOException {
+                InputStream inputStream = new ByteArrayInputStream(body);
+                if (contentEncoding != null) {
+                    inputStream = CompressionUtil.decode(inputStream, contentEncoding);
+                }
+                try {
+                    mapper.readTree(inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return average nanoseconds per run, once warmed up
+     */
+    private static double measure(Operation operation) throws IOException {
+        long warmupEnd = System.nanoTime() + WARMUP_MILLIS * (long) NANOS_PER_MILLI;
+        while (System.nanoTime() < warmupEnd) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        long end = start + MEASURED_MILLIS * (long) NANOS_PER_MILLI;
+        int runs = 0;
+        long now;
+        do {
+            operation.run();
+            runs++;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / (double) runs;
+    }
+
+    private static void print(String name, int plainLength, int gzippedLength, double plainNanos, double gzipNanos) {
+        System.out.printf("%-24s %9.1f KB -> %8.1f KB (%4.1f%%)  cpu %7.3f ms -> %7.3f ms%n", name,
+                plainLength / BYTES_PER_KILOBYTE, gzippedLength / BYTES_PER_KILOBYTE, 100d * gzippedLength / plainLength,
+                plainNanos / NANOS_PER_MILLI, gzipNanos / NANOS_PER_MILLI);
+        for (long bitsPerSecond : LINK_BITS_PER_SECOND) {
+            double plainLatency = plainNanos + transferNanos(plainLength, bitsPerSecond);
+            double gzipLatency = gzipNanos + transferNanos(gzippedLength, bitsPerSecond);
+            System.out.printf("    %6.0f Mbit/s  latency %8.3f ms -> %8.3f ms%n", bitsPerSecond / MEGABITS,
+                    plainLatency / NANOS_PER_MILLI, gzipLatency / NANOS_PER_MILLI);
+        }
+    }
+
+    private static double transferNanos(int length, long bitsPerSecond) {
+        return length * BITS_PER_BYTE / bitsPerSecond * NANOS_PER_SECOND;
+    }
+
+    private static byte[] response(int elements) {
+        StringBuilder builder = new StringBuilder("{\"data\":{\"orders\":{\"totalCount\":").append(elements)
+                .append(",\"edges\":[");
+        for (int i = 0; i < elements; i++) {
+            if (i > 0) builder.append(',');
+            builder.append("{\"node\":{\"id\":\"T3JkZXI6").append(100000 + i).append("\",\"status\":\"SHIPPED\",")
+                    .append("\"createdAt\":\"2018-10-").append(10 + i % 20).append("T12:").append(10 + i % 50)
+                    .append(":00Z\",\"total\":{\"amount\":").append(i * 7 % 1000).append(".99,\"currency\":\"USD\"},")
+                    .append("\"customer\":{\"id\":\"Q3VzdG9tZXI6").append(i % 97).append("\",\"name\":\"Customer ")
+                    .append(i % 97).append("\",\"email\":\"customer").append(i % 97).append("@example.com\"},")
+                    .append("\"lines\":[{\"sku\":\"SKU-").append(i % 113).append("\",\"quantity\":").append(1 + i % 3)
+                    .append(",\"description\":\"Item ").append(i % 113).append(" in the catalog\"}]}}");
+        }
+        builder.append("],\"pageInfo\":{\"hasNextPage\":true,\"endCursor\":\"Y3Vyc29y\"}}},\"errors\":null}");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] mutation(int elements) {
+        StringBuilder builder = new StringBuilder("{\"query\":\"mutation ($inputs: [OrderInput!]!) { createOrders(inputs: ")
+                .append("$inputs) { id status } } \",\"variables\":{\"inputs\":[");
+        for (int i = 0; i < elements; i++) {
+            if (i > 0) builder.append(',');
+            builder.append("{\"customerId\":\"Q3VzdG9tZXI6").append(i % 97).append("\",\"currency\":\"USD\",")
+                    .append("\"shippingAddress\":{\"street\":\"").append(i % 500).append(" Main Street\",")
+                    .append("\"city\":\"New York\",\"postalCode\":\"100").append(i % 90 + 10).append("\"},")
+                    .append("\"lines\":[{\"sku\":\"SKU-").append(i % 113).append("\",\"quantity\":").append(1 + i % 3)
+                    .append("}]}");
+        }
+        builder.append("]}}");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.annotations.GraphQLProperty;
+import io.aexp.nodes.graphql.internal.DefaultObjectMapperFactory;
+import io.aexp.nodes.graphql.models.NestedTestModel;
+import io.aexp.nodes.graphql.models.TestModel;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Compares the streaming {@link Deserializer} against the previous tree based implementation, which read the
+ * {@code data} object into a {@link JsonNode} and re-parsed its string form when no {@link GraphQLProperty} was set.
+ * <p>
+ * Not run as part of the test suite. Run the main method from the test classpath, optionally passing the number of
+ * list elements in the payload (defaults to 25000, roughly 2MB):
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; io.aexp.nodes.graphql.DeserializerBenchmark 25000
+ * </pre>
+ */
+public final class DeserializerBenchmark {
+
+    private static final int DEFAULT_ELEMENTS = 25000;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 40;
+    private static final double NANOS_PER_MILLI = 1000000d;
+    private static final double BYTES_PER_MEGABYTE = 1024d * 1024d;
+
+    private DeserializerBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int elements = DEFAULT_ELEMENTS;
+        if (args.length > 0) {
+            elements = Integer.parseInt(args[0]);
+        }
+        ObjectMapperFactory factory = new DefaultObjectMapperFactory();
+
+        byte[] annotated = payload(elements, true);
+        byte[] unannotated = payload(elements, false);
+        System.out.printf("payload: %d elements, %.2f MB%n", elements, annotated.length / BYTES_PER_MEGABYTE);
+
+        run("tree, @GraphQLProperty", reader(factory, new TreeDeserializer<TestModel>(TestModel.class, factory), TestModel.class), annotated);
+        run("streaming, @GraphQLProperty", reader(factory, new Deserializer<TestModel>(TestModel.class, factory), TestModel.class), annotated);
+        run("tree, no annotation", reader(factory, new TreeDeserializer<Unannotated>(Unannotated.class, factory), Unannotated.class),
+                unannotated);
+        run("streaming, no annotation", reader(factory, new Deserializer<Unannotated>(Unannotated.class, factory), Unannotated.class),
+                unannotated);
+    }
+
+    private static ObjectReader reader(ObjectMapperFactory factory, JsonDeserializer<? extends Resource> deserializer, Class<?> type) {
+        ObjectMapper mapper = factory.newSerializerMapper();
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(Resource.class, deserializer);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.registerModule(module);
+        return mapper.readerFor(mapper.getTypeFactory().constructParametricType(Wrapper.class, type));
+    }
+
+    private static void run(String name, ObjectReader reader, byte[] payload) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            reader.readValue(payload);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            reader.readValue(payload);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-30s %8.2f ms/op %8.2f MB allocated/op%n", name,
+                elapsed / NANOS_PER_MILLI / MEASURED_ITERATIONS, allocated / BYTES_PER_MEGABYTE / MEASURED_ITERATIONS);
+    }
+
+    private static byte[] payload(int elements, boolean annotated) {
+        StringBuilder builder = new StringBuilder("{\"data\":{");
+        if (annotated) {
+            builder.append("\"test\":{");
+        }
+        builder.append("\"testString\":\"String\",\"testInteger\":1,\"testList\":[");
+        for (int i = 0; i < elements; i++) {
+            if (i > 0) builder.append(',');
+            builder.append("{\"anotherTestString\":\"another test string ").append(i)
+                    .append("\",\"andAnothaOne\":\"and another one ").append(i).append("\"}");
+        }
+        builder.append(']');
+        if (annotated) {
+            builder.append('}');
+        }
+        builder.append("},\"errors\":null}");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same shape as {@link TestModel} without the class level {@link GraphQLProperty}, so the data object itself is
+     * the resource.
+     */
+    public static final class Unannotated {
+        private String testString;
+        private Integer testInteger;
+        private List<NestedTestModel> testList;
+
+        public String getTestString() {
+            return testString;
+        }
+
+        public void setTestString(String testString) {
+            this.testString = testString;
+        }
+
+        public Integer getTestInteger() {
+            return testInteger;
+        }
+
+        public void setTestInteger(Integer testInteger) {
+            this.testInteger = testInteger;
+        }
+
+        public List<NestedTestModel> getTestList() {
+            return testList;
+        }
+
+        public void setTestList(List<NestedTestModel> testList) {
+            this.testList = testList;
+        }
+    }
+
+    /**
+     * The tree based implementation the streaming deserializer replaced, kept here as the baseline.
+     */
+    private static final class TreeDeserializer<T> extends JsonDeserializer<Resource<T>> {
+
+        private final Class<T> type;
+        private final ObjectMapper mapper;
+
+        TreeDeserializer(Class<T> type, ObjectMapperFactory factory) {
+            this.type = type;
+            this.mapper = factory.newDeserializerMapper();
+        }
+
+        @Override
+        public Resource<T> deserialize(JsonParser jsonParser, DeserializationContext context) throws IOException {
+            Resource<T> resource = new Resource<T>();
+            JsonNode node = jsonParser.getCodec().readTree(jsonParser);
+            GraphQLProperty graphQLProperty = type.getAnnotation(GraphQLProperty.class);
+            if (graphQLProperty != null) {
+                resource.setResource(mapper.treeToValue(node.get(graphQLProperty.name()), type));
+            } else {
+                resource.setResource(mapper.readValue(node.toString(), type));
+            }
+            return resource;
+        }
+    }
+}
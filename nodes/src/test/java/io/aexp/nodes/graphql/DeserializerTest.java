@@ -18,8 +18,10 @@ import io.aexp.nodes.graphql.models.TestModel;
 import io.aexp.nodes.graphql.models.TestModelDateTime;
 import io.aexp.nodes.graphql.models.TestModels;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -28,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class DeserializerTest {
 
@@ -151,4 +154,48 @@ public class DeserializerTest {
         Resource<TestModelDateTime> res = deserializer.deserialize(parser, ctxt);
         assertEquals("Resource{resource=TestModelDateTime{dateTime='2018-10-29T22:00:01Z'}}", res.toString());
     }
+
+    @Test
+    public void deserializeContextualResourceType() throws IOException {
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(Resource.class, new Deserializer<Object>(Object.class, mapper));
+        ObjectMapper wrapperMapper = objectMapperFactory.newDeserializerMapper();
+        wrapperMapper.registerModule(module);
+        String json = "{\"data\": {\"test\": {\"testString\": \"String\"}}}";
+
+        Wrapper<TestModel> typed = wrapperMapper.readValue(json,
+                wrapperMapper.getTypeFactory().constructParametricType(Wrapper.class, TestModel.class));
+        assertEquals("String", typed.getData().getResource().getTestString());
+
+        Wrapper<Object> untyped = wrapperMapper.readValue(json, Wrapper.class);
+        assertEquals("{test={testString=String}}", untyped.getData().getResource().toString());
+    }
+
+    @Test
+    public void deserializeSkipsOtherFields() throws IOException {
+        String json = (
+            "{\n" +
+            "  \"other\": {\"nested\": [1, 2, {\"testString\": \"Wrong\"}]},\n" +
+            "  \"test\": {\"testString\": \"String\", \"testList\": [{\"anotherTestString\": \"AnotherString\"}]},\n" +
+            "  \"trailing\": [\"value\"]\n" +
+            "}"
+        );
+        JsonParser parser = mapper.getFactory().createParser(json);
+        parser.nextToken();
+        Deserializer<TestModel> deserializer = new Deserializer<TestModel>(TestModel.class, mapper);
+        Resource<TestModel> res = deserializer.deserialize(parser, mapper.getDeserializationContext());
+        assertEquals("String", res.getResource().getTestString());
+        assertEquals("AnotherString", res.getResource().getTestList().get(0).getAnotherTestString());
+        assertEquals(JsonToken.END_OBJECT, parser.getCurrentToken());
+        assertNull(parser.nextToken());
+    }
+
+    @Test
+    public void deserializeMissingOrNullResource() throws IOException {
+        Deserializer<TestModel> deserializer = new Deserializer<TestModel>(TestModel.class, mapper);
+        JsonParser missing = mapper.getFactory().createParser("{\"other\": \"value\"}");
+        assertNull(deserializer.deserialize(missing, mapper.getDeserializationContext()).getResource());
+        JsonParser nullValue = mapper.getFactory().createParser("{\"test\": null}");
+        assertNull(deserializer.deserialize(nullValue, mapper.getDeserializationContext()).getResource());
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class ElementReaderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Test
+    public void readsTheElementsAtThePath() throws Exception {
+        ElementReader<TestModelSimple> reader = open("{\"data\": {\"before\": {\"nodes\": [1]}, \"viewer\": "
+                + "{\"name\": \"x\", \"repositories\": {\"nodes\": [{\"simpleString\": \"a\"}, {\"simpleString\": \"b\"}],"
+                + "\"total\": 2}}, \"after\": [3]}, \"extensions\": {}}", "viewer.repositories.nodes");
+
+        assertEquals("[a, b]", read(reader).toString());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void hasNoElementsWhenAFieldOfThePathIsNullOrAbsent() throws Exception {
+        assertEquals(0, read(open("{\"data\": {\"viewer\": null}}", "viewer.repositories")).size());
+        assertEquals(0, read(open("{\"data\": {\"viewer\": {\"other\": []}}}", "viewer.repositories")).size());
+        assertEquals(0, read(open("{\"data\": null}", "viewer.repositories")).size());
+    }
+
+    @Test
+    public void failsBeforeTheElementsOnErrorsSentFirst() throws Exception {
+        GraphQLException exception = null;
+        try {
+            open("{\"errors\": [{\"message\": \"denied\"}], \"data\": {\"users\": [{\"simpleString\": \"a\"}]}}", "users");
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+
+        assertNotNull(exception);
+        assertEquals("denied", exception.getMessage());
+    }
+
+    @Test
+    public void failsAfterTheElementsOnErrorsSentLast() throws Exception {
+        ElementReader<TestModelSimple> reader = open("{\"data\": {\"users\": [{\"simpleString\": \"a\"}]},"
+                + "\"errors\": [{\"message\": \"partial\"}, {\"message\": \"failure\"}]}", "users");
+        List<String> strings = new ArrayList<String>();
+
+        GraphQLException exception = null;
+        try {
+            while (reader.hasNext()) {
+                strings.add(reader.next().getSimpleString());
+            }
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+
+        assertEquals("[a]", strings.toString());
+        assertNotNull(exception);
+        assertEquals(2, exception.getErrors().length);
+    }
+
+    @Test
+    public void failsWhenThePathIsNotAList() throws Exception {
+        IOException exception = null;
+        try {
+            open("{\"data\": {\"users\": {\"simpleString\": \"a\"}}}", "users");
+        } catch (IOException e) {
+            exception = e;
+        }
+
+        assertNotNull(exception);
+        assertEquals("data.users is not a list", exception.getMessage());
+    }
+
+    private ElementReader<TestModelSimple> open(String document, String path) throws IOException {
+        return ElementReader.ofDocument(mapper.getFactory().createParser(document), mapper.readerFor(TestModelSimple.class),
+                mapper.readerFor(Error[].class), path);
+    }
+
+    private static List<String> read(ElementReader<TestModelSimple> reader) throws IOException {
+        List<String> strings = new ArrayList<String>();
+        while (reader.hasNext()) {
+            strings.add(reader.next().getSimpleString());
+        }
+        reader.close();
+        return strings;
+    }
+}
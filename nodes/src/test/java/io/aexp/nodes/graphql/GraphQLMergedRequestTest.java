@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.DefaultObjectMapperFactory;
+import io.aexp.nodes.graphql.models.TestModelOrder;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import io.aexp.nodes.graphql.models.TestModelUser;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class GraphQLMergedRequestTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void mergesRequestsIntoOneAliasedDocument() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {"
+                + "\"q0_user\": {\"simpleString\": \"Ada\"},"
+                + "\"q1_order\": {\"orderStatus\": \"SHIPPED\"}}}"));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .request(request(TestModelOrder.class, "o1"), TestModelOrder.class)
+                .build();
+
+        GraphQLMergedResponse response = new GraphQLTemplate().query(mergedRequest);
+
+        assertEquals(2, response.size());
+        assertEquals("Ada", response.get(0, TestModelUser.class).getResponse().getUser().getSimpleString());
+        assertEquals("SHIPPED", response.get(1, TestModelOrder.class).getResponse().getOrderStatus());
+        assertNull(response.get(0, TestModelUser.class).getErrors());
+        assertEquals(1, server.getRequestCount());
+        assertEquals("{\"query\":\"query ($q0_id:ID!,$q1_id:ID!)"
+                + "{ q0_user : user (id:$q0_id) { simpleString } q1_order : order { orderStatus : status (id:$q1_id) } } \","
+                + "\"variables\":{\"q0_id\":\"u1\",\"q1_id\":\"o1\"}}", server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void splitsErrorsByTheirPath() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_user\": {\"simpleString\": \"Ada\"}, \"q1_order\": null},"
+                + "\"errors\": [{\"message\": \"order not found\", \"path\": [\"q1_order\", \"status\"]},"
+                + "{\"message\": \"rate limited\"}]}"));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .request(request(TestModelOrder.class, "o1"), TestModelOrder.class)
+                .build();
+
+        GraphQLMergedResponse response = new GraphQLTemplate().queryAsync(mergedRequest).get(5, TimeUnit.SECONDS);
+
+        GraphQLResponseEntity<TestModelUser> user = response.get(0, TestModelUser.class);
+        assertEquals("Ada", user.getResponse().getUser().getSimpleString());
+        assertEquals(1, user.getErrors().length);
+        assertEquals("rate limited", user.getErrors()[0].getMessage());
+        GraphQLResponseEntity<TestModelOrder> order = response.get(1, TestModelOrder.class);
+        assertNull(order.getResponse());
+        assertEquals(2, order.getErrors().length);
+        assertEquals("order not found", order.getErrors()[0].getMessage());
+        assertArrayEquals(new Object[] {"order", "status"}, order.getErrors()[0].getPath());
+        assertEquals("rate limited", order.getErrors()[1].getMessage());
+    }
+
+    @Test
+    public void mergesRequestsOfTheSameClass() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {"
+                + "\"q0_user\": {\"simpleString\": \"Ada\"}, \"q1_user\": {\"simpleString\": \"Grace\"}}}"));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .request(request(TestModelUser.class, "u2"), TestModelUser.class)
+                .build();
+
+        GraphQLMergedResponse response = new GraphQLTemplate().query(mergedRequest);
+
+        assertEquals("Ada", response.get(0, TestModelUser.class).getResponse().getUser().getSimpleString());
+        assertEquals("Grace", response.get(1, TestModelUser.class).getResponse().getUser().getSimpleString());
+    }
+
+    @Test
+    public void nullDataLeavesEveryResponseEmpty() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": null, \"errors\": [{\"message\": \"unauthorized\"}]}"));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .request(request(TestModelOrder.class, "o1"), TestModelOrder.class)
+                .build();
+
+        GraphQLMergedResponse response = new GraphQLTemplate().query(mergedRequest);
+
+        assertNull(response.get(0, TestModelUser.class).getResponse());
+        assertEquals("unauthorized", response.get(0, TestModelUser.class).getErrors()[0].getMessage());
+        assertNull(response.get(1, TestModelOrder.class).getResponse());
+        assertEquals("unauthorized", response.get(1, TestModelOrder.class).getErrors()[0].getMessage());
+    }
+
+    @Test
+    public void getChecksTheResponseClass() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_user\": {\"simpleString\": \"Ada\"}}}"));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .build();
+        GraphQLMergedResponse response = new GraphQLTemplate().query(mergedRequest);
+
+        IllegalArgumentException exception = null;
+        try {
+            response.get(0, TestModelSimple.class);
+        } catch (IllegalArgumentException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+    }
+
+    @Test
+    public void buildRejectsRequestsThatCannotBeMerged() throws Exception {
+        IllegalStateException empty = null;
+        try {
+            GraphQLMergedRequest.Builder().build();
+        } catch (IllegalStateException e) {
+            empty = e;
+        }
+        assertNotNull(empty);
+
+        IllegalStateException fromString = null;
+        try {
+            GraphQLMergedRequest.Builder()
+                    .request(GraphQLRequestEntity.Builder().url(server.url("/graphql").toString())
+                            .request("query { simpleString }").build(), TestModelSimple.class)
+                    .build();
+        } catch (IllegalStateException e) {
+            fromString = e;
+        }
+        assertNotNull(fromString);
+
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer token");
+        IllegalStateException differentHeaders = null;
+        try {
+            GraphQLMergedRequest.Builder()
+                    .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                    .request(GraphQLRequestEntity.Builder().url(server.url("/graphql").toString()).headers(headers)
+                            .request(TestModelSimple.class).build(), TestModelSimple.class)
+                    .build();
+        } catch (IllegalStateException e) {
+            differentHeaders = e;
+        }
+        assertEquals("merged requests must share their url and headers", differentHeaders.getMessage());
+    }
+
+    @Test
+    public void failedMergedRequestThrows() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{\"errors\": [{\"message\": \"boom\"}]}"));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .build();
+
+        GraphQLException exception = null;
+        try {
+            new GraphQLTemplate().query(mergedRequest);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("500", exception.getStatus());
+    }
+
+    @Test
+    public void bindsWithTheMappersOfTheFetcher() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_user\": {\"SimpleString\": \"Ada\"}}}"));
+        ObjectMapperFactory caseInsensitive = new ObjectMapperFactory() {
+            @Override
+            public ObjectMapper newSerializerMapper() {
+                return new DefaultObjectMapperFactory().newSerializerMapper();
+            }
+
+            @Override
+            public ObjectMapper newDeserializerMapper() {
+                return new DefaultObjectMapperFactory().newDeserializerMapper()
+                        .configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
+            }
+        };
+        GraphQLTemplate template = new GraphQLTemplate(QueryCache.Builder().build().wrap(new Fetch(caseInsensitive)));
+        GraphQLMergedRequest mergedRequest = GraphQLMergedRequest.Builder()
+                .request(request(TestModelUser.class, "u1"), TestModelUser.class)
+                .build();
+
+        GraphQLMergedResponse response = template.query(mergedRequest);
+
+        assertEquals("Ada", response.get(0, TestModelUser.class).getResponse().getUser().getSimpleString());
+    }
+
+    private GraphQLRequestEntity request(Class<?> clazz, String id) throws Exception {
+        return GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(clazz)
+                .variables(new Variable<String>("id", id))
+                .build();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import io.aexp.nodes.graphql.models.TestModelUser;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GraphQLParallelRequestTest {
+
+    private MockWebServer server;
+    private ExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int current = inFlight.incrementAndGet();
+                try {
+                    while (true) {
+                        int max = maxInFlight.get();
+                        if (current <= max || maxInFlight.compareAndSet(max, current)) break;
+                    }
+                    if (request.getPath().equals("/fail")) {
+                        return new MockResponse().setResponseCode(500);
+                    }
+                    if (request.getPath().equals("/slow")) {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+                    } else {
+                        Thread.sleep(50);
+                    }
+                    return new MockResponse().setBody("{\"data\": {\"simpleString\": \"" + request.getPath() + "\"}}");
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void returnsResponsesInInputOrderWithinTheConcurrency() throws Exception {
+        GraphQLParallelRequest.ParallelRequestBuilder builder = GraphQLParallelRequest.Builder()
+                .concurrency(2)
+                .executor(executor);
+        for (int i = 0; i < 6; i++) {
+            builder.request(request("/simple" + i), TestModelSimple.class);
+        }
+
+        GraphQLParallelResponse response = new GraphQLTemplate().executeAll(builder.build());
+
+        assertEquals(6, response.size());
+        assertTrue(response.isSuccessful());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("/simple" + i, response.get(i, TestModelSimple.class).getResponse().getSimpleString());
+        }
+        assertEquals(6, server.getRequestCount());
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void failsFastWithoutSendingTheRemainingRequests() throws Exception {
+        GraphQLParallelRequest parallelRequest = GraphQLParallelRequest.Builder()
+                .request(request("/fail"), TestModelSimple.class)
+                .request(request("/simple1"), TestModelSimple.class)
+                .request(request("/simple2"), TestModelSimple.class)
+                .concurrency(1)
+                .executor(executor)
+                .build();
+
+        GraphQLException exception = null;
+        try {
+            new GraphQLTemplate().executeAll(parallelRequest);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+
+        assertNotNull(exception);
+        assertEquals("500", exception.getStatus());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void collectsEveryOutcome() throws Exception {
+        GraphQLParallelRequest parallelRequest = GraphQLParallelRequest.Builder()
+                .request(request("/simple0"), TestModelSimple.class)
+                .request(request("/fail"), TestModelSimple.class)
+                .request(request("/simple2"), TestModelSimple.class)
+                .mode(GraphQLParallelRequest.Mode.COLLECT_ALL)
+                .executor(executor)
+                .build();
+
+        GraphQLParallelResponse response = new GraphQLTemplate().executeAll(parallelRequest);
+
+        assertFalse(response.isSuccessful());
+        assertTrue(response.isSuccessful(0));
+        assertEquals("/simple0", response.get(0, TestModelSimple.class).getResponse().getSimpleString());
+        assertFalse(response.isSuccessful(1));
+        assertNull(response.get(1, TestModelSimple.class));
+        assertEquals("500", response.getException(1).getStatus());
+        assertEquals("/simple2", response.get(2, TestModelSimple.class).getResponse().getSimpleString());
+    }
+
+    @Test
+    public void failsTheRequestsNotAnsweredByTheDeadline() throws Exception {
+        GraphQLParallelRequest parallelRequest = GraphQLParallelRequest.Builder()
+                .request(request("/simple0"), TestModelSimple.class)
+                .request(request("/slow"), TestModelSimple.class)
+                .deadline(500, TimeUnit.MILLISECONDS)
+                .mode(GraphQLParallelRequest.Mode.COLLECT_ALL)
+                .executor(executor)
+                .build();
+        long start = System.nanoTime();
+
+        GraphQLParallelResponse response = new GraphQLTemplate().executeAll(parallelRequest);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        assertTrue(response.isSuccessful(0));
+        assertNull(response.get(1, TestModelSimple.class));
+        assertEquals("Deadline of 500 ms exceeded", response.getException(1).getMessage());
+    }
+
+    @Test
+    public void failsFastOnTheDeadline() throws Exception {
+        GraphQLParallelRequest parallelRequest = GraphQLParallelRequest.Builder()
+                .request(request("/slow"), TestModelSimple.class)
+                .deadline(200, TimeUnit.MILLISECONDS)
+                .executor(executor)
+                .build();
+
+        GraphQLException exception = null;
+        try {
+            new GraphQLTemplate().executeAllAsync(parallelRequest).join();
+        } catch (CompletionException e) {
+            exception = (GraphQLException) e.getCause();
+        }
+
+        assertNotNull(exception);
+        assertEquals("Deadline of 200 ms exceeded", exception.getMessage());
+    }
+
+    @Test
+    public void rejectsAnotherResponseClass() throws Exception {
+        GraphQLParallelRequest parallelRequest = GraphQLParallelRequest.Builder()
+                .request(request("/simple0"), TestModelSimple.class)
+                .executor(executor)
+                .build();
+        GraphQLParallelResponse response = new GraphQLTemplate().executeAll(parallelRequest);
+
+        IllegalArgumentException exception = null;
+        try {
+            response.get(0, TestModelUser.class);
+        } catch (IllegalArgumentException e) {
+            exception = e;
+        }
+
+        assertNotNull(exception);
+    }
+
+    @Test
+    public void fetchersAnsweringInlineDoNotGrowTheStack() throws Exception {
+        Fetcher inline = new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                return new GraphQLResponseEntity<T>();
+            }
+        };
+        Executor callerThread = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        GraphQLParallelRequest.ParallelRequestBuilder builder = GraphQLParallelRequest.Builder()
+                .concurrency(1)
+                .executor(callerThread);
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            builder.request(GraphQLRequestEntity.Builder()
+                    .url(server.url("/simple").toString())
+                    .request("query { simpleString }")
+                    .build(), TestModelSimple.class);
+        }
+
+        // A stack overflow in a completion callback would leave the result incomplete instead of failing it
+        GraphQLParallelResponse response = new GraphQLTemplate(inline).executeAllAsync(builder.build())
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(count, response.size());
+        assertTrue(response.isSuccessful());
+    }
+
+    @Test
+    public void validatesTheConfiguration() throws Exception {
+        IllegalStateException exception = null;
+        try {
+            GraphQLParallelRequest.Builder().build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("at least one request must be added", exception.getMessage());
+
+        exception = null;
+        try {
+            GraphQLParallelRequest.Builder().request(request("/simple0"), TestModelSimple.class).concurrency(0).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("concurrency must be positive", exception.getMessage());
+
+        exception = null;
+        try {
+            GraphQLParallelRequest.Builder().request(request("/simple0"), TestModelSimple.class)
+                    .deadline(0, TimeUnit.SECONDS).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("deadline must be positive", exception.getMessage());
+    }
+
+    private GraphQLRequestEntity request(String path) throws Exception {
+        return GraphQLRequestEntity.Builder()
+                .url(server.url(path).toString())
+                .request(TestModelSimple.class)
+                .build();
+    }
+}
@@ -19,6 +19,7 @@ import io.aexp.nodes.graphql.models.TestModel;
 import io.aexp.nodes.graphql.models.TestModelEnum;
 import io.aexp.nodes.graphql.models.TestModelOptionalArguments;
 import io.aexp.nodes.graphql.models.TestModelScalar;
+import io.aexp.nodes.graphql.models.TestModelSimple;
 
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
@@ -27,7 +28,9 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class GraphQLRequestEntityTest {
 
@@ -164,4 +167,20 @@ public class GraphQLRequestEntityTest {
         assertEquals(Collections.singletonList(BigDecimal.class), requestEntity.getScalars());
         assertEquals("GraphQLRequestEntity{request='query { monay money } ', url='"+EXAMPLE_URL+"'}", requestEntity.toString());
     }
+
+    @Test
+    public void mutationsKnownWithoutRendering() throws MalformedURLException {
+        GraphQLRequestEntity staticMutation = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("  mutation { createUser { id } }")
+                .build();
+        assertTrue(staticMutation.isMutation());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelSimple.class)
+                .build();
+        assertFalse(requestEntity.isMutation());
+        requestEntity.setRequestMethod(GraphQLTemplate.GraphQLMethod.MUTATE);
+        assertTrue(requestEntity.isMutation());
+    }
 }
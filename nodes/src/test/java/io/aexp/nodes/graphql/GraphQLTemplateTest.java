@@ -16,18 +16,51 @@ package io.aexp.nodes.graphql;
 import io.aexp.nodes.graphql.exceptions.GraphQLException;
 import io.aexp.nodes.graphql.models.TestModel;
 import io.aexp.nodes.graphql.models.TestModelSimple;
+import io.aexp.nodes.graphql.models.TestModelUser;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -255,4 +288,660 @@ public class GraphQLTemplateTest {
 
 
     }
+
+    @Test
+    public void sharedTemplateAcrossThreads() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/simple")) {
+                    return new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple string\"}}");
+                }
+                return new MockResponse().setBody("{\"data\": {\"test\": {\"testString\": \"String\"}}}");
+            }
+        });
+        final GraphQLRequestEntity.RequestBuilder simpleBuilder = GraphQLRequestEntity.Builder()
+                .url(server.url("/simple").toString())
+                .request(TestModelSimple.class);
+        final GraphQLRequestEntity.RequestBuilder testBuilder = GraphQLRequestEntity.Builder()
+                .url(server.url("/test").toString())
+                .request(TestModel.class);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 40; i++) {
+                final boolean simple = i % 2 == 0;
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        if (simple) {
+                            return graphQLTemplate.query(simpleBuilder.build(), TestModelSimple.class).getResponse().toString();
+                        }
+                        return graphQLTemplate.query(testBuilder.build(), TestModel.class).getResponse().getTestString();
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                if (i % 2 == 0) {
+                    assertEquals("TestTOSimple{simpleString='simple string'}", results.get(i).get());
+                } else {
+                    assertEquals("String", results.get(i).get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void preparedRequestSendsEncodedBody() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"first\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"second\"}}"));
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(server.url("/prepared").toString())
+                .request(TestModelSimple.class)
+                .prepare();
+
+        assertEquals("first", graphQLTemplate.query(prepared.bind(), TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("second", graphQLTemplate.query(prepared.bind(), TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{}}", server.takeRequest().getBody().readUtf8());
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{}}", server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void persistedQuerySentAgainWithQueryWhenNotFound() throws Exception {
+        String hash = "{\"persistedQuery\":{\"version\":1,\"sha256Hash\":\"3f403af237a5786ccae7a0ea18e37d00ed668836b6ac86797b9a14951315f47d\"}}";
+        server.enqueue(new MockResponse().setBody("{\"errors\": [{\"message\": \"PersistedQueryNotFound\"}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"first\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"second\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().persistedQueries(true).build();
+        GraphQLRequestEntity.RequestBuilder builder = GraphQLRequestEntity.Builder()
+                .url(server.url("/persisted").toString())
+                .request(TestModelSimple.class);
+
+        assertEquals("first", template.query(builder.build(), TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("second", template.query(builder.build(), TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("{\"variables\":{},\"extensions\":" + hash + "}", server.takeRequest().getBody().readUtf8());
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{},\"extensions\":" + hash + "}",
+                server.takeRequest().getBody().readUtf8());
+        assertEquals("{\"variables\":{},\"extensions\":" + hash + "}", server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void persistedQueriesStopWhenNotSupported() throws Exception {
+        String plain = "{\"query\":\"query { simpleString } \",\"variables\":{}}";
+        server.enqueue(new MockResponse().setResponseCode(400)
+                .setBody("{\"errors\": [{\"message\": \"PersistedQueryNotSupported\"}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"first\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"second\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().persistedQueries(true).build();
+        GraphQLRequestEntity.RequestBuilder builder = GraphQLRequestEntity.Builder()
+                .url(server.url("/persisted").toString())
+                .request(TestModelSimple.class);
+
+        assertEquals("first", template.query(builder.build(), TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("second", template.queryAsync(builder.build(), TestModelSimple.class).get(5, TimeUnit.SECONDS)
+                .getResponse().getSimpleString());
+        assertTrue(server.takeRequest().getBody().readUtf8().contains("\"extensions\""));
+        assertEquals(plain, server.takeRequest().getBody().readUtf8());
+        assertEquals(plain, server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void persistedQueryNotFoundWithErrorStatus() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400)
+                .setBody("{\"errors\": [{\"message\": \"not found\", \"extensions\": {\"code\": \"PERSISTED_QUERY_NOT_FOUND\"}}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"registered\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().persistedQueries(true).readTimeout(1000).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/persisted").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        assertEquals("registered", template.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+        assertFalse(server.takeRequest().getBody().readUtf8().contains("\"query\""));
+        assertTrue(server.takeRequest().getBody().readUtf8().contains("\"query\""));
+    }
+
+    @Test
+    public void persistedQueriesNotSentWithIteratorVariables() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"streamed\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().persistedQueries(true).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/persisted").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<Iterator<String>>("ids", Arrays.asList("1", "2").iterator()))
+                .build();
+
+        assertEquals("streamed", template.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{\"ids\":[\"1\",\"2\"]}}",
+                server.takeRequest().getBody().readUtf8());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void persistedQueryOtherErrorsThrown() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{\"errors\": [{\"message\": \"boom\"}]}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().persistedQueries(true).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/persisted").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLException exception = null;
+        try {
+            template.query(requestEntity, TestModelSimple.class);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("500", exception.getStatus());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void templateBuilderRequiresObjectMapperFactory() {
+        IllegalStateException exception = null;
+        try {
+            GraphQLTemplate.Builder().objectMapperFactory(null).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("objectMapperFactory must be set", exception.getMessage());
+    }
+
+    @Test
+    public void queryAsync() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"async\"}}"));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/async").toString())
+                .request(TestModelSimple.class)
+                .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<GraphQLResponseEntity<TestModelSimple>> future =
+                    graphQLTemplate.queryAsync(requestEntity, TestModelSimple.class, executor);
+            assertEquals("async", future.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+            assertTrue(server.takeRequest().getBody().readUtf8().startsWith("{\"query\":\"query {"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void mutateAsyncCompletesExceptionally() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{\"errors\": [{\"message\": \"boom\"}]}"));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/async").toString())
+                .request(TestModelSimple.class)
+                .build();
+        ExecutionException exception = null;
+        try {
+            graphQLTemplate.mutateAsync(requestEntity, TestModelSimple.class).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertTrue(exception.getCause() instanceof GraphQLException);
+        assertEquals("500", ((GraphQLException) exception.getCause()).getStatus());
+        assertTrue(server.takeRequest().getBody().readUtf8().startsWith("{\"query\":\"mutation {"));
+    }
+
+    @Test
+    public void persistedQueryAsync() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"errors\": [{\"message\": \"PersistedQueryNotFound\"}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"registered\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().persistedQueries(true).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/persisted").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        assertEquals("registered", template.queryAsync(requestEntity, TestModelSimple.class)
+                .get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+        assertFalse(server.takeRequest().getBody().readUtf8().contains("\"query\""));
+        assertTrue(server.takeRequest().getBody().readUtf8().contains("\"query\""));
+    }
+
+    @Test
+    public void executeAsyncRunsBlockingFetcherOnExecutor() throws Exception {
+        final List<String> threads = new ArrayList<String>();
+        GraphQLTemplate template = new GraphQLTemplate(new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                threads.add(Thread.currentThread().getName());
+                return new GraphQLResponseEntity<T>();
+            }
+        });
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/async").toString())
+                .request("{ simpleString }")
+                .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "graphql-async");
+            }
+        });
+        try {
+            assertNotNull(template.executeAsync(requestEntity, TestModelSimple.class, executor).get(5, TimeUnit.SECONDS));
+            assertNotNull(template.executeAsync(requestEntity, TestModelSimple.class).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("graphql-async", threads.get(0));
+        assertEquals(2, threads.size());
+    }
+
+    @Test
+    public void asyncBlockingFetcherRunsOnDaemonThreads() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        GraphQLTemplate template = new GraphQLTemplate(new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                threads.add(Thread.currentThread());
+                return new GraphQLResponseEntity<T>();
+            }
+        });
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/async").toString())
+                .request("{ simpleString }")
+                .build();
+
+        assertNotNull(template.executeAsync(requestEntity, TestModelSimple.class).get(5, TimeUnit.SECONDS));
+        assertTrue(threads.get(0).isDaemon());
+        assertTrue(threads.get(0).getName(), threads.get(0).getName().startsWith("nodes-blocking-"));
+    }
+
+    @Test
+    public void templateExecutorSendsBlockingRequests() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"sent\"}}"));
+        final AtomicInteger executed = new AtomicInteger();
+        GraphQLTemplate template = GraphQLTemplate.Builder().executor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        }).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/async").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        assertEquals("sent", template.queryAsync(requestEntity, TestModelSimple.class).get(5, TimeUnit.SECONDS)
+                .getResponse().getSimpleString());
+        assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void asyncNullRequestThrows() {
+        GraphQLException exception = null;
+        try {
+            graphQLTemplate.queryAsync(null, TestModelSimple.class);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("requestEntity must not be null", exception.getMessage());
+    }
+
+    @Test
+    public void smallRequestSentWithContentLength() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple\"}}"));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/small").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<String>("name", "caf\u00e9"))
+                .build();
+        graphQLTemplate.query(requestEntity, TestModelSimple.class);
+
+        RecordedRequest request = server.takeRequest();
+        assertNull(request.getHeader("Transfer-Encoding"));
+        assertEquals(Long.toString(request.getBodySize()), request.getHeader("Content-Length"));
+        assertTrue(request.getBody().readUtf8().endsWith("\"variables\":{\"name\":\"caf\u00e9\"}}"));
+    }
+
+    @Test
+    public void largeVariablesStreamedWithChunkedEncoding() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple\"}}"));
+        final int count = 10000;
+        Iterator<String> ids = new Iterator<String>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public String next() {
+                return "\u00e9" + next++;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/large").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<Iterator<String>>("ids", ids))
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        assertEquals("simple", responseEntity.getResponse().getSimpleString());
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+        assertNull(request.getHeader("Content-Length"));
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("\"ids\":[\"\u00e90\",\"\u00e91\","));
+        assertTrue(body.endsWith(",\"\u00e9" + (count - 1) + "\"]}}"));
+    }
+
+    @Test
+    public void readsResponseWithoutContentLength() throws Exception {
+        server.enqueue(new MockResponse().setChunkedBody("{\"data\": {\"simpleString\": \"caf\u00e9\"}}", 8));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/chunked").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        assertEquals("caf\u00e9", responseEntity.getResponse().getSimpleString());
+    }
+
+    @Test
+    public void readsUtf8ResponseWithContentLength() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"\u65e5\u672c caf\u00e9\"}}"));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/utf8").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        assertEquals("\u65e5\u672c caf\u00e9", responseEntity.getResponse().getSimpleString());
+    }
+
+    @Test
+    public void readsGzipResponse() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(gzip("{\"data\": {\"simpleString\": \"caf\u00e9\"}}"))));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/gzip").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        assertEquals("caf\u00e9", responseEntity.getResponse().getSimpleString());
+        assertEquals("gzip, deflate", server.takeRequest().getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void readsDeflateErrorResponse() throws Exception {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        DeflaterOutputStream outputStream = new DeflaterOutputStream(deflated);
+        outputStream.write("{\"errors\": [{\"message\": \"Cannot query field\"}]}".getBytes(StandardCharsets.UTF_8));
+        outputStream.close();
+        server.enqueue(new MockResponse().setResponseCode(400).setHeader("Content-Encoding", "deflate")
+                .setBody(new Buffer().write(deflated.toByteArray())));
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/deflate").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLException exception = null;
+        try {
+            graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("400", exception.getStatus());
+        assertEquals("Cannot query field", exception.getErrors()[0].getMessage());
+    }
+
+    @Test
+    public void compressesRequestsAboveThreshold() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"small\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"large\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().compressRequestsAbove(512).build();
+        GraphQLRequestEntity small = GraphQLRequestEntity.Builder()
+                .url(server.url("/small").toString())
+                .request(TestModelSimple.class)
+                .build();
+        template.query(small, TestModelSimple.class);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            value.append("repeated value ");
+        }
+        GraphQLRequestEntity large = GraphQLRequestEntity.Builder()
+                .url(server.url("/large").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<String>("value", value.toString()))
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = template.query(large, TestModelSimple.class);
+        assertEquals("large", responseEntity.getResponse().getSimpleString());
+
+        RecordedRequest smallRequest = server.takeRequest();
+        assertNull(smallRequest.getHeader("Content-Encoding"));
+        assertTrue(smallRequest.getBody().readUtf8().startsWith("{\"query\":"));
+        RecordedRequest largeRequest = server.takeRequest();
+        assertEquals("gzip", largeRequest.getHeader("Content-Encoding"));
+        assertEquals(Long.toString(largeRequest.getBodySize()), largeRequest.getHeader("Content-Length"));
+        assertTrue(largeRequest.getBodySize() < value.length());
+        assertTrue(gunzip(largeRequest.getBody().readByteArray()).contains("\"value\":\"" + value + "\""));
+    }
+
+    @Test
+    public void compressesStreamedRequests() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().compressRequestsAbove(1024).build();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            ids.add("id" + i);
+        }
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/streamed").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<Iterator<String>>("ids", ids.iterator()))
+                .build();
+        template.query(requestEntity, TestModelSimple.class);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+        String body = gunzip(request.getBody().readByteArray());
+        assertTrue(body.contains("\"ids\":[\"id0\",\"id1\","));
+        assertTrue(body.endsWith(",\"id9999\"]}}"));
+    }
+
+    @Test
+    public void binaryFormatResponseReadWithFormatFactory() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/x-test-format")
+                .setBody("{\"data\": {\"simpleString\": \"binary\"}}"));
+        CountingJsonFactory factory = new CountingJsonFactory();
+        GraphQLTemplate template = GraphQLTemplate.Builder().binaryFormat("application/x-test-format", factory).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/binary").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = template.query(requestEntity, TestModelSimple.class);
+        assertEquals("binary", responseEntity.getResponse().getSimpleString());
+        assertEquals(1, factory.parsers);
+        assertEquals("application/x-test-format, application/json;q=0.9", server.takeRequest().getHeader("Accept"));
+    }
+
+    @Test
+    public void cborResponseBoundWithNestedObjectsAndErrors() throws Exception {
+        Map<String, Object> user = new HashMap<String, Object>();
+        user.put("simpleString", "caf\u00e9");
+        Map<String, Object> location = new HashMap<String, Object>();
+        location.put("line", 1);
+        location.put("column", 9);
+        Map<String, Object> error = new HashMap<String, Object>();
+        error.put("message", "partial");
+        error.put("locations", Collections.singletonList(location));
+        error.put("path", Arrays.asList("user", "other"));
+        Map<String, Object> body = new HashMap<String, Object>();
+        body.put("data", Collections.singletonMap("user", user));
+        body.put("errors", Collections.singletonList(error));
+        byte[] cbor = new ObjectMapper(new CBORFactory()).writeValueAsBytes(body);
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/cbor").setBody(new Buffer().write(cbor)));
+        GraphQLTemplate template = GraphQLTemplate.Builder().binaryFormat("application/cbor", new CBORFactory()).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/cbor").toString())
+                .request(TestModelUser.class)
+                .variables(new Variable<String>("id", "1"))
+                .build();
+
+        GraphQLResponseEntity<TestModelUser> responseEntity = template.query(requestEntity, TestModelUser.class);
+
+        assertEquals("caf\u00e9", responseEntity.getResponse().getUser().getSimpleString());
+        assertEquals(1, responseEntity.getErrors().length);
+        assertEquals("partial", responseEntity.getErrors()[0].getMessage());
+        assertEquals("9", responseEntity.getErrors()[0].getLocations()[0].getColumn());
+        assertEquals("other", responseEntity.getErrors()[0].getPath()[1]);
+        assertEquals("application/cbor, application/json;q=0.9", server.takeRequest().getHeader("Accept"));
+    }
+
+    @Test
+    public void binaryFormatFallsBackToJson() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/json; charset=utf-8")
+                .setBody("{\"data\": {\"simpleString\": \"json\"}}"));
+        CountingJsonFactory factory = new CountingJsonFactory();
+        GraphQLTemplate template = GraphQLTemplate.Builder().binaryFormat("application/x-test-format", factory).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/json").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLResponseEntity<TestModelSimple> responseEntity = template.query(requestEntity, TestModelSimple.class);
+        assertEquals("json", responseEntity.getResponse().getSimpleString());
+        assertEquals(0, factory.parsers);
+    }
+
+    @Test
+    public void binaryFormatNeedsMediaTypeAndFactory() {
+        IllegalStateException exception = null;
+        try {
+            GraphQLTemplate.Builder().binaryFormat("application/cbor", null).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("binaryFormat needs both a media type and a factory", exception.getMessage());
+    }
+
+    @Test
+    public void httpGetSendsQueryInUrl() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"get\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().httpGet(true).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql?tenant=a").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<String>("name", "caf\u00e9 & co"))
+                .build();
+        assertEquals("get", template.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("GET", request.getMethod());
+        assertEquals(0, request.getBodySize());
+        String path = URLDecoder.decode(request.getPath(), "UTF-8");
+        assertTrue(path.startsWith("/graphql?tenant=a&query=query {"));
+        assertTrue(path.endsWith("&variables={\"name\":\"caf\u00e9 & co\"}"));
+    }
+
+    @Test
+    public void httpGetPostsLongQueriesAndMutations() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"long\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"mutated\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().httpGet(true).maxGetUrlLength(40).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+        template.query(requestEntity, TestModelSimple.class);
+        assertEquals("POST", server.takeRequest().getMethod());
+
+        GraphQLTemplate unbounded = GraphQLTemplate.Builder().httpGet(true).build();
+        unbounded.mutate(requestEntity, TestModelSimple.class);
+        RecordedRequest mutation = server.takeRequest();
+        assertEquals("POST", mutation.getMethod());
+        assertTrue(mutation.getBody().readUtf8().startsWith("{\"query\":\"mutation {"));
+    }
+
+    @Test
+    public void httpGetPostsIteratorVariables() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"streamed\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().httpGet(true).maxGetUrlLength(40).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .variables(new Variable<Iterator<String>>("ids", Arrays.asList("1", "2").iterator()))
+                .build();
+        template.query(requestEntity, TestModelSimple.class);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertTrue(request.getBody().readUtf8().endsWith("\"variables\":{\"ids\":[\"1\",\"2\"]}}"));
+    }
+
+    @Test
+    public void httpGetReusesResponseWhenNotModified() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("{\"data\": {\"simpleString\": \"first\"}}"));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\"").setHeader("Age", "5"));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("{\"data\": {\"simpleString\": \"second\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().httpGet(true).build();
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        GraphQLResponseEntity<TestModelSimple> first = template.query(requestEntity, TestModelSimple.class);
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        first.getResponse().setSimpleString("modified by the caller");
+        GraphQLResponseEntity<TestModelSimple> notModified = template.query(requestEntity, TestModelSimple.class);
+        assertNotSame(first.getResponse(), notModified.getResponse());
+        assertEquals("first", notModified.getResponse().getSimpleString());
+        assertEquals(Collections.singletonList("5"), notModified.getHeaders().get("Age"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        GraphQLResponseEntity<TestModelSimple> changed = template.query(requestEntity, TestModelSimple.class);
+        assertEquals("second", changed.getResponse().getSimpleString());
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    private static byte[] gzip(String value) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream outputStream = new GZIPOutputStream(compressed);
+        outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+        outputStream.close();
+        return compressed.toByteArray();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) >= 0) {
+            inflated.write(buffer, 0, read);
+        }
+        return new String(inflated.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stands in for a binary dataformat factory, counting the parsers it creates.
+     */
+    private static final class CountingJsonFactory extends JsonFactory {
+        private int parsers;
+
+        @Override
+        protected JsonParser _createParser(InputStream in, IOContext ctxt) throws IOException {
+            parsers++;
+            return super._createParser(in, ctxt);
+        }
+
+        @Override
+        protected JsonParser _createParser(byte[] data, int offset, int len, IOContext ctxt) throws IOException {
+            parsers++;
+            return super._createParser(data, offset, len, ctxt);
+        }
+    }
 }
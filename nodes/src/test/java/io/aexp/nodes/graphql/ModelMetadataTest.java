@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.GraphQLTemplate.GraphQLMethod;
+import io.aexp.nodes.graphql.models.TestModel;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ModelMetadataTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+
+    @Test
+    public void cachedPerClassAndScalars() {
+        List<Class> noScalars = new ArrayList<Class>();
+        ModelMetadata metadata = ModelMetadata.of(TestModel.class, noScalars);
+        assertSame(metadata, ModelMetadata.of(TestModel.class, Collections.<Class>emptyList()));
+        assertNotSame(metadata, ModelMetadata.of(TestModelSimple.class, noScalars));
+        assertNotSame(metadata, ModelMetadata.of(TestModel.class, Collections.<Class>singletonList(BigDecimal.class)));
+    }
+
+    @Test
+    public void rendersRequestPerMethod() {
+        ModelMetadata metadata = ModelMetadata.of(TestModelSimple.class, Collections.<Class>emptyList());
+        assertEquals("query { simpleString } ", metadata.getRequest(GraphQLMethod.QUERY, false));
+        assertEquals("mutation { simpleString } ", metadata.getRequest(GraphQLMethod.MUTATE, false));
+        assertEquals("{ simpleString } ", metadata.getRequest(null, false));
+        assertTrue(metadata.getVariables().isEmpty());
+    }
+
+    @Test
+    public void copiedChildrenRenderIdentically() {
+        ModelMetadata metadata = ModelMetadata.of(TestModel.class, Collections.<Class>emptyList());
+        Property copy = new Property();
+        copy.setMethod(GraphQLMethod.QUERY);
+        copy.setVariables(metadata.getVariables());
+        copy.setChildren(metadata.copyChildren());
+        assertNotSame(metadata.getChildren().get("test"), copy.getChildren().get("test"));
+        assertEquals(metadata.getRequest(GraphQLMethod.QUERY, false), copy.getMessage(null));
+    }
+
+    @Test
+    public void argumentsDoNotLeakBetweenEntities() throws MalformedURLException {
+        GraphQLRequestEntity withArguments = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .arguments(new Arguments("test", new Argument<String>("id", "someId")))
+                .build();
+        GraphQLRequestEntity withoutArguments = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .build();
+        assertTrue(withArguments.getRequest().contains("test (id:\"someId\")"));
+        assertTrue(withoutArguments.getRequest().contains("test (id:null)"));
+        assertEquals(ModelMetadata.of(TestModel.class, Collections.<Class>emptyList()).getRequest(GraphQLMethod.QUERY, false),
+                withoutArguments.getRequest());
+    }
+
+    @Test
+    public void withArgumentsLeavesCachedTreeUnchanged() {
+        ModelMetadata metadata = ModelMetadata.of(TestModel.class, Collections.<Class>emptyList());
+        ModelMetadata withArguments = metadata.withArguments(Collections.singletonList(
+                new Arguments("test", new Argument<String>("id", "someId"))));
+        assertTrue(withArguments.getRequest(GraphQLMethod.QUERY, false).contains("test (id:\"someId\")"));
+        assertTrue(metadata.getRequest(GraphQLMethod.QUERY, false).contains("test (id:null)"));
+        assertSame(metadata.getVariables(), withArguments.getVariables());
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelAccount;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MutationCoalescerTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void lastWriteWinsPerKey() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"a\"},"
+                + "\"q1_account\": {\"simpleString\": \"b\"}}}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer = coalescer().manualFlush().build();
+
+        CompletableFuture<TestModelAccount> first = coalescer.write("a", "a1");
+        CompletableFuture<TestModelAccount> second = coalescer.write("a", "a2");
+        CompletableFuture<TestModelAccount> other = coalescer.write("b", "b1");
+        assertEquals(2, coalescer.waiting());
+        coalescer.flush().get(5, TimeUnit.SECONDS);
+
+        assertEquals("a", first.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("a", second.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("b", other.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(1, server.getRequestCount());
+        String body = server.takeRequest().getBody().readUtf8();
+        assertTrue(body, body.startsWith("{\"query\":\"mutation { q0_account : account (id:\\\"a2\\\") { simpleString } "
+                + "q1_account : account (id:\\\"b1\\\") { simpleString } } \""));
+    }
+
+    @Test
+    public void mergesWritesWithTheMergeFunction() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"a\"}}}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer = coalescer()
+                .manualFlush()
+                .merge(new BinaryOperator<String>() {
+                    @Override
+                    public String apply(String waiting, String next) {
+                        return waiting + "+" + next;
+                    }
+                })
+                .build();
+
+        coalescer.write("a", "a1");
+        coalescer.write("a", "a2");
+        coalescer.flush().get(5, TimeUnit.SECONDS);
+
+        String body = server.takeRequest().getBody().readUtf8();
+        assertTrue(body, body.contains("(id:\\\"a1+a2\\\")"));
+    }
+
+    @Test
+    public void writeToKeyInFlightWaitsForItsAcknowledgement() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"first\"}}}")
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"second\"}}}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer = coalescer().manualFlush().build();
+
+        CompletableFuture<TestModelAccount> first = coalescer.write("a", "a1");
+        coalescer.flush();
+        CompletableFuture<TestModelAccount> second = coalescer.write("a", "a2");
+        CompletableFuture<Void> held = coalescer.flush();
+
+        assertTrue(held.isDone());
+        assertFalse(first.isDone());
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("second", second.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void flushesOnceMaxBatchSizeKeysWait() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"a\"},"
+                + "\"q1_account\": {\"simpleString\": \"b\"}}}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer = coalescer()
+                .window(1, TimeUnit.MINUTES)
+                .maxBatchSize(2)
+                .build();
+
+        CompletableFuture<TestModelAccount> first = coalescer.write("a", "a1");
+        CompletableFuture<TestModelAccount> second = coalescer.write("b", "b1");
+
+        assertEquals("a", first.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+        assertEquals("b", second.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+    }
+
+    @Test
+    public void flushesOnceTheWindowElapses() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"a\"}}}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer =
+                coalescer().window(100, TimeUnit.MILLISECONDS).build();
+
+        CompletableFuture<TestModelAccount> write = coalescer.write("a", "a1");
+
+        assertEquals("a", write.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+    }
+
+    @Test
+    public void flushesAfterTheDefaultWindow() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": {\"simpleString\": \"a\"}}}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer = coalescer().build();
+
+        CompletableFuture<TestModelAccount> write = coalescer.write("a", "a1");
+
+        assertEquals("a", write.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+    }
+
+    @Test
+    public void buildRequiresAPositiveWindow() throws Exception {
+        IllegalStateException exception = null;
+        try {
+            coalescer().window(0, TimeUnit.MILLISECONDS).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("window must be positive", exception.getMessage());
+    }
+
+    @Test
+    public void failsWritesWithErrors() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"q0_account\": null, \"q1_account\": {\"simpleString\": \"b\"}},"
+                + "\"errors\": [{\"message\": \"conflict\", \"path\": [\"q0_account\"]}]}"));
+        MutationCoalescer<String, String, TestModelAccount> coalescer = coalescer().manualFlush().build();
+
+        CompletableFuture<TestModelAccount> failed = coalescer.write("a", "a1");
+        CompletableFuture<TestModelAccount> written = coalescer.write("b", "b1");
+        coalescer.flush().get(5, TimeUnit.SECONDS);
+
+        ExecutionException exception = null;
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("conflict", ((GraphQLException) exception.getCause()).getErrors()[0].getMessage());
+        assertEquals("b", written.get(5, TimeUnit.SECONDS).getAccount().getSimpleString());
+    }
+
+    private MutationCoalescer.CoalescerBuilder<Object, TestModelAccount> coalescer() throws Exception {
+        return MutationCoalescer.Builder(TestModelAccount.class)
+                .template(new GraphQLTemplate())
+                .request(GraphQLRequestEntity.Builder()
+                        .url(server.url("/graphql").toString())
+                        .request(TestModelAccount.class)
+                        .prepare())
+                .argument("account", "id");
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.GraphQLTemplate.GraphQLMethod;
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.DefaultObjectMapperFactory;
+import io.aexp.nodes.graphql.models.TestModel;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedGraphQLRequestTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+
+    @Test
+    public void bindWithoutValues() throws MalformedURLException {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .prepare();
+        GraphQLRequestEntity built = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .build();
+        GraphQLRequestEntity bound = prepared.bind();
+        assertEquals(built.getRequest(), bound.getRequest());
+        assertEquals(built.getRequest(), prepared.getRequest());
+        assertEquals(EXAMPLE_URL, bound.getUrl().toString());
+        assertSame(prepared, bound.getPrepared());
+        assertEquals(GraphQLMethod.QUERY, prepared.getRequestMethod());
+        assertEquals("PreparedGraphQLRequest{request='" + prepared.getRequest() + "', url='" + EXAMPLE_URL + "'}",
+                prepared.toString());
+    }
+
+    @Test
+    public void bindArguments() throws MalformedURLException {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .prepare();
+        GraphQLRequestEntity first = prepared.bind(new Arguments("test", new Argument<String>("id", "1")));
+        GraphQLRequestEntity second = prepared.bind(new Arguments("test", new Argument<String>("id", "2")));
+        assertTrue(first.getRequest().contains("test (id:\"1\")"));
+        assertTrue(second.getRequest().contains("test (id:\"2\")"));
+        assertTrue(prepared.bind().getRequest().contains("test (id:null)"));
+        assertNull(first.getPrepared());
+    }
+
+    @Test
+    public void bindOverridesPreparedArguments() throws MalformedURLException {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .arguments(new Arguments("test", new Argument<String>("id", "prepared")))
+                .prepare();
+        assertTrue(prepared.getRequest().contains("test (id:\"prepared\")"));
+        assertTrue(prepared.bind().getRequest().contains("test (id:\"prepared\")"));
+        assertTrue(prepared.bind(new Arguments("test", new Argument<String>("id", "bound"))).getRequest()
+                .contains("test (id:\"bound\")"));
+    }
+
+    @Test
+    public void bindVariables() throws MalformedURLException {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "token");
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .headers(headers)
+                .variables(new Variable<String>("variableName", "prepared"), new Variable<Integer>("anothaVariable", 1))
+                .prepare();
+        headers.put("Authorization", "changed");
+
+        GraphQLRequestEntity bound = prepared.bind(new Variable<String>("variableName", "bound"));
+        assertEquals("bound", bound.getVariables().get("variableName"));
+        assertEquals(1, bound.getVariables().get("anothaVariable"));
+        assertEquals("prepared", prepared.getVariables().get("variableName"));
+        assertEquals("token", bound.getHeaders().get("Authorization"));
+        assertEquals(prepared.getRequest(), bound.getRequest());
+        assertNull(bound.getPrepared());
+
+        List<Variable> variables = new ArrayList<Variable>();
+        variables.add(new Variable<Integer>("anothaVariable", 2));
+        assertEquals(2, prepared.bind(null, variables).getVariables().get("anothaVariable"));
+    }
+
+    @Test
+    public void changedMethodIsNotPrepared() throws MalformedURLException {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelSimple.class)
+                .prepare();
+        GraphQLRequestEntity bound = prepared.bind();
+        bound.setRequestMethod(GraphQLMethod.QUERY);
+        assertSame(prepared, bound.getPrepared());
+        bound.setRequestMethod(GraphQLMethod.MUTATE);
+        assertNull(bound.getPrepared());
+        assertEquals("mutation { simpleString } ", bound.getRequest());
+        assertEquals("query { simpleString } ", prepared.getRequest());
+    }
+
+    @Test
+    public void stringRequest() throws MalformedURLException {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("{ simpleString }")
+                .prepare();
+        GraphQLRequestEntity bound = prepared.bind();
+        bound.setRequestMethod(GraphQLMethod.MUTATE);
+        assertEquals("{ simpleString }", bound.getRequest());
+        assertSame(prepared, bound.getPrepared());
+
+        GraphQLException exception = null;
+        try {
+            prepared.bind(new Arguments("test", new Argument<String>("id", "1")));
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("Arguments can only be bound to requests built from a class", exception.getMessage());
+    }
+
+    @Test
+    public void prepareValidatesBuilder() throws MalformedURLException {
+        IllegalStateException exception = null;
+        try {
+            GraphQLRequestEntity.Builder().request(TestModel.class).prepare();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("url must be set", exception.getMessage());
+
+        exception = null;
+        try {
+            GraphQLRequestEntity.Builder().url(EXAMPLE_URL).prepare();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("request must be set", exception.getMessage());
+
+        exception = null;
+        try {
+            GraphQLRequestEntity.Builder()
+                    .url(EXAMPLE_URL)
+                    .request("{ simpleString }")
+                    .arguments(new Arguments("test", new Argument<String>("id", "1")))
+                    .prepare();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("arguments can only be set on requests built from a class", exception.getMessage());
+    }
+
+    @Test
+    public void encodedBodyCachedPerMapper() throws Exception {
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelSimple.class)
+                .variables(new Variable<String>("key", "value"))
+                .prepare();
+        ObjectMapper mapper = new DefaultObjectMapperFactory().newSerializerMapper();
+        byte[] body = prepared.getEncodedBody(mapper);
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{\"key\":\"value\"}}",
+                new String(body, StandardCharsets.UTF_8));
+        assertSame(body, prepared.getEncodedBody(mapper));
+        ObjectMapper otherMapper = new DefaultObjectMapperFactory().newSerializerMapper();
+        assertNotSame(body, prepared.getEncodedBody(otherMapper));
+    }
+
+    @Test
+    public void bindAcrossThreads() throws Exception {
+        final PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .prepare();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> requests = new ArrayList<Future<String>>();
+            for (int i = 0; i < 100; i++) {
+                final String id = Integer.toString(i);
+                requests.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return prepared.bind(new Arguments("test", new Argument<String>("id", id))).getRequest();
+                    }
+                }));
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                assertTrue(requests.get(i).get().contains("test (id:\"" + i + "\")"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Collections.emptyList(), prepared.getScalars());
+    }
+}
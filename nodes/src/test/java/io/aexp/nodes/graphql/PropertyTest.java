@@ -16,7 +16,12 @@ package io.aexp.nodes.graphql;
 import io.aexp.nodes.graphql.GraphQLTemplate.GraphQLMethod;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 
 public class PropertyTest {
@@ -36,6 +41,24 @@ public class PropertyTest {
         assertEquals("resourceName", property.getResourceName());
         assertEquals("query : resourceName ", property.getMessage(null));
         assertEquals("query fieldName : resourceName ", property.getMessage("fieldName"));
-        assertEquals("Property{resourceName='resourceName', method='QUERY', arguments=null, variables=null, children=null, message=}", property.toString());
+        assertEquals("Property{resourceName='resourceName', method='QUERY', arguments=null, variables=null, children=null}", property.toString());
+    }
+
+    @Test
+    public void copyTest() {
+        Property child = new Property();
+        child.setArguments(Collections.<Argument>singletonList(new Argument<String>("id", "1")));
+        Map<String, Property> children = new HashMap<String, Property>();
+        children.put("child", child);
+        Property property = new Property();
+        property.setMethod(GraphQLMethod.QUERY);
+        property.setChildren(children);
+
+        Property copy = property.copy();
+        copy.getChildren().get("child").getArguments().get(0).setValue("2");
+        assertNotSame(child, copy.getChildren().get("child"));
+        assertEquals("query { child (id:\"1\") } ", property.getMessage(null));
+        assertEquals("query { child (id:\"2\") } ", copy.getMessage(null));
+        assertNull(Property.copyChildren(null));
     }
 }
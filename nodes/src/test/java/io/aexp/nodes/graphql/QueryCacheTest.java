@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.internal.Error;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueryCacheTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+
+    private final AtomicLong time = new AtomicLong();
+    private CountingFetcher delegate;
+
+    @Before
+    public void setUp() {
+        time.set(0);
+        delegate = new CountingFetcher();
+    }
+
+    @Test
+    public void servesFreshResponseFromCache() throws MalformedURLException {
+        Fetcher fetcher = builder().build().wrap(delegate);
+        GraphQLResponseEntity<String> first = fetcher.send(query("1"), String.class);
+        GraphQLResponseEntity<String> second = fetcher.send(query("1"), String.class);
+        assertSame(first, second);
+        assertEquals(1, delegate.calls.get());
+
+        fetcher.send(query("2"), String.class);
+        fetcher.send(query("1"), Object.class);
+        assertEquals(3, delegate.calls.get());
+    }
+
+    @Test
+    public void expiresAfterTtl() throws MalformedURLException {
+        Fetcher fetcher = builder().ttl(10, TimeUnit.SECONDS).build().wrap(delegate);
+        fetcher.send(query("1"), String.class);
+        advance(9, TimeUnit.SECONDS);
+        fetcher.send(query("1"), String.class);
+        assertEquals(1, delegate.calls.get());
+        advance(1, TimeUnit.SECONDS);
+        fetcher.send(query("1"), String.class);
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void requestTtlOverridesDefault() throws MalformedURLException {
+        Fetcher fetcher = builder().ttl(10, TimeUnit.SECONDS).build().wrap(delegate);
+        GraphQLRequestEntity shortLived = builder("1").cacheTtl(1, TimeUnit.SECONDS).build();
+        fetcher.send(shortLived, String.class);
+        advance(2, TimeUnit.SECONDS);
+        fetcher.send(shortLived, String.class);
+        assertEquals(2, delegate.calls.get());
+
+        GraphQLRequestEntity uncached = builder("2").cacheTtl(0, TimeUnit.SECONDS).build();
+        fetcher.send(uncached, String.class);
+        fetcher.send(uncached, String.class);
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    public void selectedHeadersArePartOfTheKey() throws MalformedURLException {
+        Fetcher fetcher = builder().headers("X-Tenant").build().wrap(delegate);
+        fetcher.send(withHeader("X-Tenant", "a"), String.class);
+        fetcher.send(withHeader("x-tenant", "a"), String.class);
+        assertEquals(1, delegate.calls.get());
+        fetcher.send(withHeader("X-Tenant", "b"), String.class);
+        assertEquals(2, delegate.calls.get());
+        fetcher.send(withHeader("X-Request-Id", "42"), String.class);
+        fetcher.send(withHeader("X-Request-Id", "43"), String.class);
+        assertEquals(3, delegate.calls.get());
+    }
+
+    @Test
+    public void credentialHeadersArePartOfTheKeyByDefault() throws MalformedURLException {
+        Fetcher fetcher = builder().build().wrap(delegate);
+        fetcher.send(withHeader("Authorization", "alice"), String.class);
+        fetcher.send(withHeader("authorization", "alice"), String.class);
+        assertEquals(1, delegate.calls.get());
+        fetcher.send(withHeader("Authorization", "bob"), String.class);
+        assertEquals(2, delegate.calls.get());
+        fetcher.send(withHeader("Cookie", "session=alice"), String.class);
+        fetcher.send(withHeader("Cookie", "session=bob"), String.class);
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    public void credentialHeadersCanBeLeftOutOfTheKey() throws MalformedURLException {
+        Fetcher fetcher = builder().withoutCredentialHeaders().build().wrap(delegate);
+        fetcher.send(withHeader("Authorization", "alice"), String.class);
+        fetcher.send(withHeader("Authorization", "bob"), String.class);
+        fetcher.send(withHeader("Cookie", "session=bob"), String.class);
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws MalformedURLException {
+        QueryCache cache = builder().maxEntries(2).build();
+        Fetcher fetcher = cache.wrap(delegate);
+        fetcher.send(query("1"), String.class);
+        fetcher.send(query("2"), String.class);
+        fetcher.send(query("1"), String.class);
+        fetcher.send(query("3"), String.class);
+        assertEquals(2, cache.size());
+        assertEquals(3, delegate.calls.get());
+
+        fetcher.send(query("1"), String.class);
+        assertEquals(3, delegate.calls.get());
+        fetcher.send(query("2"), String.class);
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    public void servesStaleResponseWhileRefreshingOnce() throws MalformedURLException {
+        final List<Runnable> refreshes = new ArrayList<Runnable>();
+        Executor queued = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        };
+        Fetcher fetcher = builder()
+                .ttl(10, TimeUnit.SECONDS)
+                .staleWhileRevalidate(5, TimeUnit.SECONDS)
+                .executor(queued)
+                .build()
+                .wrap(delegate);
+        GraphQLResponseEntity<String> first = fetcher.send(query("1"), String.class);
+        advance(12, TimeUnit.SECONDS);
+
+        assertSame(first, fetcher.send(query("1"), String.class));
+        assertSame(first, fetcher.send(query("1"), String.class));
+        assertEquals(1, refreshes.size());
+        assertEquals(1, delegate.calls.get());
+
+        refreshes.get(0).run();
+        assertEquals(2, delegate.calls.get());
+        GraphQLResponseEntity<String> refreshed = fetcher.send(query("1"), String.class);
+        assertNotSame(first, refreshed);
+        assertEquals(2, delegate.calls.get());
+
+        advance(16, TimeUnit.SECONDS);
+        fetcher.send(query("1"), String.class);
+        assertEquals(3, delegate.calls.get());
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void concurrentMissesSendOneRequest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingFetcher blocking = new CountingFetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.send(requestEntity, responseClass);
+            }
+        };
+        final Fetcher fetcher = builder().build().wrap(blocking);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<GraphQLResponseEntity<String>>> futures = new ArrayList<Future<GraphQLResponseEntity<String>>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<GraphQLResponseEntity<String>>() {
+                    @Override
+                    public GraphQLResponseEntity<String> call() throws Exception {
+                        return fetcher.send(query("1"), String.class);
+                    }
+                }));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            GraphQLResponseEntity<String> first = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<GraphQLResponseEntity<String>> future : futures) {
+                assertSame(first, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, blocking.calls.get());
+    }
+
+    @Test
+    public void mutationsInvalidateTaggedResponses() throws MalformedURLException {
+        QueryCache cache = builder().build();
+        Fetcher fetcher = cache.wrap(delegate);
+        GraphQLRequestEntity user = builder("1").cacheTags("user:1").build();
+        GraphQLRequestEntity countries = builder("2").cacheTags("countries").build();
+        fetcher.send(user, String.class);
+        fetcher.send(countries, String.class);
+
+        GraphQLRequestEntity mutation = builder("1").cacheTags("user:1").build();
+        mutation.setRequestMethod(GraphQLTemplate.GraphQLMethod.MUTATE);
+        fetcher.send(mutation, String.class);
+        fetcher.send(mutation, String.class);
+        assertEquals(4, delegate.calls.get());
+        assertEquals(1, cache.size());
+
+        fetcher.send(user, String.class);
+        fetcher.send(countries, String.class);
+        assertEquals(5, delegate.calls.get());
+
+        cache.invalidate("countries");
+        fetcher.send(countries, String.class);
+        assertEquals(6, delegate.calls.get());
+    }
+
+    @Test
+    public void staticMutationsAreNotCached() throws MalformedURLException {
+        Fetcher fetcher = builder().build().wrap(delegate);
+        GraphQLRequestEntity mutation = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("mutation { save }")
+                .build();
+        fetcher.send(mutation, String.class);
+        fetcher.send(mutation, String.class);
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void responsesWithErrorsAreNotCached() throws MalformedURLException {
+        delegate.errors = new Error[] {new Error()};
+        Fetcher fetcher = builder().build().wrap(delegate);
+        fetcher.send(query("1"), String.class);
+        fetcher.send(query("1"), String.class);
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws MalformedURLException {
+        final AtomicInteger calls = new AtomicInteger();
+        Fetcher fetcher = builder().build().wrap(new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                calls.incrementAndGet();
+                throw new GraphQLException("unavailable");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            GraphQLException exception = null;
+            try {
+                fetcher.send(query("1"), String.class);
+            } catch (GraphQLException e) {
+                exception = e;
+            }
+            assertNotNull(exception);
+            assertEquals("unavailable", exception.getMessage());
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void errorsReleaseTheInFlightEntry() throws MalformedURLException {
+        final AtomicInteger calls = new AtomicInteger();
+        Fetcher fetcher = builder().build().wrap(new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                calls.incrementAndGet();
+                throw new AssertionError("broken");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            AssertionError error = null;
+            try {
+                fetcher.send(query("1"), String.class);
+            } catch (AssertionError e) {
+                error = e;
+            }
+            assertNotNull(error);
+            assertEquals("broken", error.getMessage());
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void asyncHitsCache() throws Exception {
+        AsyncFetcher fetcher = (AsyncFetcher) builder().build().wrap(delegate);
+        GraphQLResponseEntity<String> first = fetcher.sendAsync(query("1"), String.class, null).get(5, TimeUnit.SECONDS);
+        GraphQLResponseEntity<String> second = fetcher.sendAsync(query("1"), String.class, null).get(5, TimeUnit.SECONDS);
+        assertSame(first, second);
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void templateServesQueriesFromCache() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"cached\"}}"));
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"saved\"}}"));
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"fresh\"}}"));
+            GraphQLTemplate template = GraphQLTemplate.Builder().cache(builder().build()).build();
+            GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                    .url(server.url("/graphql").toString())
+                    .request(TestModelSimple.class)
+                    .cacheTags("simple")
+                    .build();
+            assertEquals("cached", template.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+            assertEquals("cached", template.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+            assertEquals(1, server.getRequestCount());
+
+            template.mutate(requestEntity, TestModelSimple.class);
+            assertEquals("fresh", template.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+            assertEquals(3, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void builderRejectsInvalidBounds() {
+        IllegalStateException exception = null;
+        try {
+            QueryCache.Builder().maxEntries(0).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("maxEntries must be positive", exception.getMessage());
+    }
+
+    private QueryCache.CacheBuilder builder() {
+        return QueryCache.Builder().clock(new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return time.get();
+            }
+        });
+    }
+
+    private GraphQLRequestEntity.RequestBuilder builder(String id) throws MalformedURLException {
+        return GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("query ($id: ID) { user(id: $id) { name } }")
+                .variables(new Variable<String>("id", id));
+    }
+
+    private GraphQLRequestEntity query(String id) throws MalformedURLException {
+        return builder(id).build();
+    }
+
+    private GraphQLRequestEntity withHeader(String name, String value) throws MalformedURLException {
+        Map<String, String> headers = Collections.singletonMap(name, value);
+        return builder("1").headers(headers).build();
+    }
+
+    private void advance(long duration, TimeUnit unit) {
+        time.addAndGet(unit.toNanos(duration));
+    }
+
+    private static class CountingFetcher implements Fetcher {
+        final AtomicInteger calls = new AtomicInteger();
+        Error[] errors;
+
+        @Override
+        public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+            calls.incrementAndGet();
+            GraphQLResponseEntity<T> response = new GraphQLResponseEntity<T>();
+            response.setErrors(errors);
+            return response;
+        }
+    }
+}
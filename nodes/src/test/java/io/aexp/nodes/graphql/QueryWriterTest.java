@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.GraphQLTemplate.GraphQLMethod;
+import io.aexp.nodes.graphql.models.TestModel;
+import io.aexp.nodes.graphql.models.TestModelOptionalArguments;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryWriterTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+
+    @Test
+    public void writesDefaultFormat() {
+        Property root = tree();
+        assertEquals("query { user : person (id:\"1\",tags:[\"a\",$tag,3],filter:{active:true}) { name friends { name } } } ",
+                QueryWriter.write(root, null, false));
+        assertEquals(QueryWriter.write(root, null, false), root.getMessage(null));
+    }
+
+    @Test
+    public void writesMinifiedFormat() {
+        assertEquals("query{user:person(id:\"1\",tags:[\"a\",$tag,3],filter:{active:true}){name friends{name}}}",
+                QueryWriter.write(tree(), null, true));
+    }
+
+    @Test
+    public void skipsEmptyOptionalArguments() {
+        Property property = new Property();
+        property.setArguments(Arrays.<Argument>asList(new Argument<String>("first", null, true)));
+        assertEquals("field ", QueryWriter.write(property, "field", false));
+        assertEquals("field", QueryWriter.write(property, "field", true));
+    }
+
+    @Test
+    public void minifiesRequestBuiltFromClass() throws MalformedURLException {
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModel.class)
+                .minify(true)
+                .build();
+        assertEquals("query($andAnothaVariable:status,$anothaVariable:Int,$andAListVariable:[String],$variableName:String!){test(id:null){testShort:testShort testCharacter testList{anotherTestString(variableName:$variableName) andAnothaOne(anothaVariable:$anothaVariable,andAnothaVariable:$andAnothaVariable,andAListVariable:$andAListVariable)} testInteger testBoolean nestedTest{anotherTestString(variableName:$variableName) andAnothaOne(anothaVariable:$anothaVariable,andAnothaVariable:$andAnothaVariable,andAListVariable:$andAListVariable)} testByte:testByte testString:testString(anotherOne:null,default:\"default\",defaultList:null) testArrayList testFloat testDouble testLong}}",
+                requestEntity.getRequest());
+    }
+
+    @Test
+    public void minifiesRequestWithArguments() throws MalformedURLException {
+        List<String> ids = new ArrayList<String>();
+        ids.add("47");
+        PreparedGraphQLRequest prepared = GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request(TestModelOptionalArguments.class)
+                .minify(true)
+                .prepare();
+        GraphQLRequestEntity requestEntity = prepared.bind(new Arguments("test.nested",
+                new Argument<List<String>>("ids", ids), new Argument<Integer>("first", 10)));
+        assertEquals("query{test{nested(ids:[\"47\"],first:10){string}}}", requestEntity.getRequest());
+        assertEquals("query{test{nested(ids:null){string}}}", prepared.getRequest());
+    }
+
+    private static Property tree() {
+        Property friendName = new Property();
+        Map<String, Property> friendChildren = new LinkedHashMap<String, Property>();
+        friendChildren.put("name", friendName);
+        Property friends = new Property();
+        friends.setChildren(friendChildren);
+
+        Map<String, Property> personChildren = new LinkedHashMap<String, Property>();
+        personChildren.put("name", new Property());
+        personChildren.put("friends", friends);
+        Property person = new Property();
+        person.setResourceName("person");
+        person.setArguments(Arrays.<Argument>asList(
+                new Argument<String>("id", "1"),
+                new Argument<List<Object>>("tags", Arrays.<Object>asList("a", "$tag", 3)),
+                new Argument<InputObject>("filter", new InputObject.Builder<Boolean>().put("active", true).build())));
+        person.setChildren(personChildren);
+
+        Map<String, Property> rootChildren = new LinkedHashMap<String, Property>();
+        rootChildren.put("user", person);
+        Property root = new Property();
+        root.setMethod(GraphQLMethod.QUERY);
+        root.setChildren(rootChildren);
+        return root;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestBatcherTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void sendsRequestsOfTheWindowAsOneArray() throws Exception {
+        server.enqueue(new MockResponse().setBody("[{\"data\": {\"simpleString\": \"first\"}},"
+                + "{\"data\": null, \"errors\": [{\"message\": \"second failed\"}]},"
+                + "{\"data\": {\"simpleString\": \"third\"}}]"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().batch(200, TimeUnit.MILLISECONDS, 10).build();
+
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> first = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> second = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> third = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+        assertNull(first.get().getErrors());
+        assertNull(second.get(5, TimeUnit.SECONDS).getResponse());
+        assertEquals("second failed", second.get().getErrors()[0].getMessage());
+        assertEquals("third", third.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+        assertEquals(1, server.getRequestCount());
+        String single = "{\"query\":\"query { simpleString } \",\"variables\":{}}";
+        assertEquals("[" + single + "," + single + "," + single + "]", server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void sendsFullBatchBeforeTheWindowElapses() throws Exception {
+        server.enqueue(new MockResponse().setBody("[{\"data\": {\"simpleString\": \"first\"}},"
+                + "{\"data\": {\"simpleString\": \"second\"}}]"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().batch(1, TimeUnit.HOURS, 2).build();
+
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> first = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+        GraphQLResponseEntity<TestModelSimple> second = template.query(request("/graphql"), TestModelSimple.class);
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+        assertEquals("second", second.getResponse().getSimpleString());
+    }
+
+    @Test
+    public void sendsLoneRequestAsIs() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"alone\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().batch(1, TimeUnit.MILLISECONDS, 10).build();
+
+        GraphQLResponseEntity<TestModelSimple> response = template.query(request("/graphql"), TestModelSimple.class);
+
+        assertEquals("alone", response.getResponse().getSimpleString());
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{}}", server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void batchesByUrlAndHeaders() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"response\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"response\"}}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"response\"}}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().batch(100, TimeUnit.MILLISECONDS, 10).build();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer other");
+        GraphQLRequestEntity withHeaders = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .headers(headers)
+                .request(TestModelSimple.class)
+                .build();
+
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> first = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> second = template.queryAsync(request("/other"),
+                TestModelSimple.class);
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> third = template.queryAsync(withHeaders,
+                TestModelSimple.class);
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+        assertEquals(3, server.getRequestCount());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(server.takeRequest().getBody().readUtf8().startsWith("{"));
+        }
+    }
+
+    @Test
+    public void errorStatusFailsEveryRequest() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setBody("{\"errors\": [{\"message\": \"unavailable\"}]}"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().batch(1, TimeUnit.HOURS, 2).build();
+
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> first = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> second = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+
+        for (CompletableFuture<GraphQLResponseEntity<TestModelSimple>> future : Arrays.asList(first, second)) {
+            GraphQLException cause = failure(future);
+            assertEquals("503", cause.getStatus());
+            assertEquals("unavailable", cause.getErrors()[0].getMessage());
+        }
+    }
+
+    @Test
+    public void missingResultsFailTheirRequests() throws Exception {
+        server.enqueue(new MockResponse().setBody("[{\"data\": {\"simpleString\": \"first\"}}]"));
+        GraphQLTemplate template = GraphQLTemplate.Builder().batch(1, TimeUnit.HOURS, 2).build();
+
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> first = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+        CompletableFuture<GraphQLResponseEntity<TestModelSimple>> second = template.queryAsync(request("/graphql"),
+                TestModelSimple.class);
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+        assertEquals("The batch response has fewer results than requests", failure(second).getDescription());
+    }
+
+    @Test
+    public void maxBatchSizeMustBePositive() {
+        IllegalStateException exception = null;
+        try {
+            GraphQLTemplate.Builder().batch(1, TimeUnit.MILLISECONDS, 0).build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("maxBatchSize must be positive", exception.getMessage());
+    }
+
+    private GraphQLRequestEntity request(String path) throws Exception {
+        return GraphQLRequestEntity.Builder()
+                .url(server.url(path).toString())
+                .request(TestModelSimple.class)
+                .build();
+    }
+
+    private static GraphQLException failure(CompletableFuture<?> future) throws Exception {
+        ExecutionException exception = null;
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        return (GraphQLException) exception.getCause();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RequestKeyTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+
+    @Test
+    public void headerNamesComparedIgnoringCase() throws MalformedURLException {
+        Set<String> headerNames = new HashSet<String>(Collections.singletonList("authorization"));
+        RequestKey alice = RequestKey.of(withHeader("Authorization", "alice"), String.class, headerNames);
+        RequestKey bob = RequestKey.of(withHeader("AUTHORIZATION", "bob"), String.class, headerNames);
+        assertFalse(alice.equals(bob));
+        assertEquals(alice, RequestKey.of(withHeader("Authorization", "alice"), String.class, headerNames));
+        assertEquals(RequestKey.of(withHeader("X-Request-Id", "1"), String.class, headerNames),
+                RequestKey.of(withHeader("X-Request-Id", "2"), String.class, headerNames));
+    }
+
+    private static GraphQLRequestEntity withHeader(String name, String value) throws MalformedURLException {
+        return GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("query { user { name } }")
+                .headers(Collections.singletonMap(name, value))
+                .build();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResponseBufferTest {
+
+    @Test
+    public void readsBodyOfExpectedLength() throws IOException {
+        byte[] body = "{\"data\":{\"name\":\"caf\u00e9\"}}".getBytes(StandardCharsets.UTF_8);
+        ResponseBuffer buffer = ResponseBuffer.read(new ByteArrayInputStream(body), body.length);
+        assertEquals(body.length, buffer.getLength());
+        assertEquals("{\"data\":{\"name\":\"caf\u00e9\"}}",
+                new String(buffer.getBytes(), 0, buffer.getLength(), StandardCharsets.UTF_8));
+        buffer.release();
+    }
+
+    @Test
+    public void readsBodyLongerThanExpected() throws IOException {
+        byte[] body = new byte[1000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        ResponseBuffer buffer = ResponseBuffer.read(new ByteArrayInputStream(body), 10);
+        assertEquals(1000, buffer.getLength());
+        assertEquals((byte) 999, buffer.getBytes()[999]);
+        buffer.release();
+    }
+
+    @Test
+    public void reusesReleasedBuffer() throws IOException {
+        ResponseBuffer first = ResponseBuffer.read(new ByteArrayInputStream(new byte[1024]), 1024);
+        byte[] bytes = first.getBytes();
+        first.release();
+
+        ResponseBuffer second = ResponseBuffer.read(new ByteArrayInputStream(new byte[512]), 512);
+        assertSame(bytes, second.getBytes());
+        assertEquals(512, second.getLength());
+
+        ResponseBuffer nested = ResponseBuffer.read(new ByteArrayInputStream(new byte[512]), 512);
+        assertNotSame(second.getBytes(), nested.getBytes());
+        nested.release();
+        second.release();
+    }
+
+    @Test
+    public void doesNotRetainLargeBuffers() throws IOException {
+        ResponseBuffer large = ResponseBuffer.read(new ByteArrayInputStream(new byte[100 * 1024]), 100 * 1024);
+        byte[] bytes = large.getBytes();
+        large.release();
+
+        ResponseBuffer next = ResponseBuffer.read(new ByteArrayInputStream(new byte[100 * 1024]), 100 * 1024);
+        assertNotSame(bytes, next.getBytes());
+        next.release();
+    }
+
+    @Test
+    public void readFailureThrows() {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        IOException exception = null;
+        try {
+            ResponseBuffer.read(failing, 16);
+        } catch (IOException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("connection reset", exception.getMessage());
+    }
+}
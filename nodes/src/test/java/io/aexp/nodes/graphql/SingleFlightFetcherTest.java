@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightFetcherTest {
+
+    private static final String EXAMPLE_URL = "https://graphql.example.com";
+    private static final int THREADS = 8;
+
+    @Test
+    public void coalescesConcurrentIdenticalQueries() throws Exception {
+        BlockingFetcher delegate = new BlockingFetcher();
+        List<GraphQLResponseEntity<String>> responses = sendConcurrently(new SingleFlightFetcher(delegate), delegate,
+                query("1"));
+        assertEquals(1, delegate.calls.get());
+        for (GraphQLResponseEntity<String> response : responses) {
+            assertSame(responses.get(0), response);
+        }
+    }
+
+    @Test
+    public void sendsDistinctQueriesSeparately() throws Exception {
+        BlockingFetcher delegate = new BlockingFetcher();
+        SingleFlightFetcher fetcher = new SingleFlightFetcher(delegate);
+        delegate.release.countDown();
+        fetcher.send(query("1"), String.class);
+        fetcher.send(query("1"), String.class);
+        fetcher.send(query("2"), String.class);
+        fetcher.send(GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("query ($id: ID) { user(id: $id) { name } }")
+                .variables(new Variable<String>("id", "1"))
+                .headers(Collections.singletonMap("Authorization", "bob"))
+                .build(), String.class);
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    public void neverCoalescesMutations() throws Exception {
+        BlockingFetcher delegate = new BlockingFetcher();
+        GraphQLRequestEntity mutation = query("1");
+        mutation.setRequestMethod(GraphQLTemplate.GraphQLMethod.MUTATE);
+        List<GraphQLResponseEntity<String>> responses = sendConcurrently(new SingleFlightFetcher(delegate), delegate,
+                mutation);
+        assertEquals(THREADS, delegate.calls.get());
+        assertNotSame(responses.get(0), responses.get(1));
+    }
+
+    @Test
+    public void sharesFailures() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final SingleFlightFetcher fetcher = new SingleFlightFetcher(new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                calls.incrementAndGet();
+                await(release);
+                throw new GraphQLException("unavailable");
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<GraphQLResponseEntity<String>>> futures = submit(executor, fetcher, query("1"));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<GraphQLResponseEntity<String>> future : futures) {
+                ExecutionException exception = null;
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    exception = e;
+                }
+                assertNotNull(exception);
+                assertEquals("unavailable", exception.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void releasesWaitersWhenTheSendThrowsAnError() throws Exception {
+        final List<CompletableFuture<GraphQLResponseEntity<String>>> waiters =
+                new ArrayList<CompletableFuture<GraphQLResponseEntity<String>>>();
+        final SingleFlightFetcher[] fetcher = new SingleFlightFetcher[1];
+        fetcher[0] = new SingleFlightFetcher(new Fetcher() {
+            @Override
+            public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+                waiters.add(fetcher[0].sendAsync(requestEntity, String.class, null));
+                throw new AssertionError("broken");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            AssertionError error = null;
+            try {
+                fetcher[0].send(query("1"), String.class);
+            } catch (AssertionError e) {
+                error = e;
+            }
+            assertNotNull(error);
+        }
+        assertEquals(2, waiters.size());
+        for (CompletableFuture<GraphQLResponseEntity<String>> waiter : waiters) {
+            ExecutionException exception = null;
+            try {
+                waiter.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                exception = e;
+            }
+            assertNotNull(exception);
+            assertEquals("broken", exception.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void releasesWaitersWhenTheAsyncSendThrows() throws Exception {
+        final List<CompletableFuture<GraphQLResponseEntity<String>>> waiters =
+                new ArrayList<CompletableFuture<GraphQLResponseEntity<String>>>();
+        final SingleFlightFetcher[] fetcher = new SingleFlightFetcher[1];
+        fetcher[0] = new SingleFlightFetcher(new AsyncOnlyFetcher() {
+            @Override
+            public <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(GraphQLRequestEntity requestEntity,
+                                                                             Class<T> responseClass, Executor executor) {
+                waiters.add(fetcher[0].sendAsync(requestEntity, String.class, null));
+                throw new GraphQLException("rejected");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            GraphQLException exception = null;
+            try {
+                fetcher[0].sendAsync(query("1"), String.class, null);
+            } catch (GraphQLException e) {
+                exception = e;
+            }
+            assertNotNull(exception);
+        }
+        assertEquals(2, waiters.size());
+        for (CompletableFuture<GraphQLResponseEntity<String>> waiter : waiters) {
+            ExecutionException exception = null;
+            try {
+                waiter.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                exception = e;
+            }
+            assertNotNull(exception);
+            assertEquals("rejected", exception.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void coalescesAsyncQueries() throws Exception {
+        final CompletableFuture<GraphQLResponseEntity<String>> pending = new CompletableFuture<GraphQLResponseEntity<String>>();
+        final AtomicInteger calls = new AtomicInteger();
+        SingleFlightFetcher fetcher = new SingleFlightFetcher(new AsyncOnlyFetcher() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> CompletableFuture<GraphQLResponseEntity<T>> sendAsync(GraphQLRequestEntity requestEntity,
+                                                                             Class<T> responseClass, Executor executor) {
+                calls.incrementAndGet();
+                return (CompletableFuture<GraphQLResponseEntity<T>>) (CompletableFuture<?>) pending;
+            }
+        });
+        CompletableFuture<GraphQLResponseEntity<String>> first = fetcher.sendAsync(query("1"), String.class, null);
+        CompletableFuture<GraphQLResponseEntity<String>> second = fetcher.sendAsync(query("1"), String.class, null);
+        second.cancel(true);
+        GraphQLResponseEntity<String> response = new GraphQLResponseEntity<String>();
+        pending.complete(response);
+
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+
+        fetcher.sendAsync(query("1"), String.class, null);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void templateCoalescesIdenticalQueries() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            server.enqueue(new MockResponse()
+                    .setBody("{\"data\": {\"simpleString\": \"shared\"}}")
+                    .setBodyDelay(300, TimeUnit.MILLISECONDS));
+            final GraphQLTemplate template = GraphQLTemplate.Builder().singleFlight(true).build();
+            final GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                    .url(server.url("/graphql").toString())
+                    .request(TestModelSimple.class)
+                    .build();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<GraphQLResponseEntity<TestModelSimple>>> futures =
+                        new ArrayList<Future<GraphQLResponseEntity<TestModelSimple>>>();
+                for (int i = 0; i < 4; i++) {
+                    futures.add(executor.submit(new Callable<GraphQLResponseEntity<TestModelSimple>>() {
+                        @Override
+                        public GraphQLResponseEntity<TestModelSimple> call() {
+                            return template.query(requestEntity, TestModelSimple.class);
+                        }
+                    }));
+                }
+                for (Future<GraphQLResponseEntity<TestModelSimple>> future : futures) {
+                    assertEquals("shared", future.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private List<GraphQLResponseEntity<String>> sendConcurrently(Fetcher fetcher, BlockingFetcher delegate,
+                                                                 GraphQLRequestEntity requestEntity) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<GraphQLResponseEntity<String>>> futures = submit(executor, fetcher, requestEntity);
+            Thread.sleep(100);
+            delegate.release.countDown();
+            List<GraphQLResponseEntity<String>> responses = new ArrayList<GraphQLResponseEntity<String>>();
+            for (Future<GraphQLResponseEntity<String>> future : futures) {
+                responses.add(future.get(5, TimeUnit.SECONDS));
+            }
+            assertTrue(delegate.calls.get() > 0);
+            return responses;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<Future<GraphQLResponseEntity<String>>> submit(ExecutorService executor, final Fetcher fetcher,
+                                                                      final GraphQLRequestEntity requestEntity) {
+        List<Future<GraphQLResponseEntity<String>>> futures = new ArrayList<Future<GraphQLResponseEntity<String>>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<GraphQLResponseEntity<String>>() {
+                @Override
+                public GraphQLResponseEntity<String> call() {
+                    return fetcher.send(requestEntity, String.class);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static GraphQLRequestEntity query(String id) throws MalformedURLException {
+        return GraphQLRequestEntity.Builder()
+                .url(EXAMPLE_URL)
+                .request("query ($id: ID) { user(id: $id) { name } }")
+                .variables(new Variable<String>("id", id))
+                .build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class BlockingFetcher implements Fetcher {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+            calls.incrementAndGet();
+            await(release);
+            return new GraphQLResponseEntity<T>();
+        }
+    }
+
+    private abstract static class AsyncOnlyFetcher implements Fetcher, AsyncFetcher {
+        @Override
+        public <T> GraphQLResponseEntity<T> send(GraphQLRequestEntity requestEntity, Class<T> responseClass) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
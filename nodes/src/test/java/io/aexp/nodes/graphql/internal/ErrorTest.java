@@ -26,6 +26,9 @@ public class ErrorTest {
         error.setMessage("error message");
         error.setLocations(null);
         assertNull(error.getLocations());
+        assertNull(error.getPath());
+        error.setPath(new Object[] {"user", 0});
+        assertEquals("user", error.getPath()[0]);
         assertEquals("error message", error.getMessage());
         assertEquals("Error{message='error message', locations=null}", error.toString());
     }
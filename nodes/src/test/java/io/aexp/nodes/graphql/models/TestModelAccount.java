@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql.models;
+
+import io.aexp.nodes.graphql.annotations.GraphQLArgument;
+
+public class TestModelAccount {
+    @GraphQLArgument(name = "id")
+    private TestModelSimple account;
+
+    public TestModelSimple getAccount() {
+        return account;
+    }
+
+    public void setAccount(TestModelSimple account) {
+        this.account = account;
+    }
+
+    @Override
+    public String toString() {
+        return "TestModelAccount{" + "account=" + account + '}';
+    }
+}
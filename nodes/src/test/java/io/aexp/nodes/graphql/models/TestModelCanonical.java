@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql.models;
+
+import io.aexp.nodes.graphql.annotations.GraphQLArgument;
+import io.aexp.nodes.graphql.annotations.GraphQLArguments;
+import io.aexp.nodes.graphql.annotations.GraphQLProperty;
+
+@GraphQLProperty(name = "test", arguments = {@GraphQLArgument(name = "id", variableType = "ID")})
+public class TestModelCanonical {
+    @GraphQLArguments({
+        @GraphQLArgument(name = "ids", variableType = "[String]"),
+        @GraphQLArgument(name = "first", type = "Integer", optional = true, variableType = "Int!"),
+        @GraphQLArgument(name = "last", type = "Integer", optional = true, variableType = "Int")
+    })
+    private NestedTestModelOptionalArguments nested;
+    private String name;
+    private Integer count;
+
+    public NestedTestModelOptionalArguments getNested() {
+        return nested;
+    }
+
+    public void setNested(NestedTestModelOptionalArguments nested) {
+        this.nested = nested;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "TestModelCanonical{" + "nested=" + nested + ", name='" + name + '\'' + ", count=" + count + '}';
+    }
+}
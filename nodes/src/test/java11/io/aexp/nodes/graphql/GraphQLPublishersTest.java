@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GraphQLPublishersTest {
+
+    private static final String COMPLETE = "complete";
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void sendsTheRequestOnceAnElementIsRequested() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple string\"}}"));
+        Flow.Publisher<GraphQLResponseEntity<TestModelSimple>> publisher = GraphQLPublishers.query(
+                new GraphQLTemplate(HttpClientFetcher.Builder().build()), requestEntity(), TestModelSimple.class);
+        RecordingSubscriber<GraphQLResponseEntity<TestModelSimple>> subscriber =
+                new RecordingSubscriber<GraphQLResponseEntity<TestModelSimple>>();
+
+        publisher.subscribe(subscriber);
+        Thread.sleep(100);
+        assertEquals(0, server.getRequestCount());
+        subscriber.subscription.request(1);
+
+        GraphQLResponseEntity<TestModelSimple> response = subscriber.next();
+        assertEquals("simple string", response.getResponse().getSimpleString());
+        assertEquals(COMPLETE, subscriber.signals.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void signalsFailuresAsGraphQLException() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        RecordingSubscriber<GraphQLResponseEntity<TestModelSimple>> subscriber =
+                new RecordingSubscriber<GraphQLResponseEntity<TestModelSimple>>();
+
+        GraphQLPublishers.query(new GraphQLTemplate(), requestEntity(), TestModelSimple.class).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        GraphQLException exception = (GraphQLException) subscriber.signals.poll(5, TimeUnit.SECONDS);
+        assertEquals("500", exception.getStatus());
+    }
+
+    @Test
+    public void publishesElementsOnDemand() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"users\": {\"total\": 3, \"nodes\": ["
+                + "{\"simpleString\": \"a\"}, null, {\"simpleString\": \"b\"}, {\"simpleString\": \"c\"}]}}}"));
+        RecordingSubscriber<TestModelSimple> subscriber = new RecordingSubscriber<TestModelSimple>();
+
+        GraphQLPublishers.queryElements(new GraphQLTemplate(), requestEntity(), TestModelSimple.class, "users.nodes")
+                .subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals("a", subscriber.next().getSimpleString());
+        Thread.sleep(100);
+        assertTrue(subscriber.signals.isEmpty());
+        subscriber.subscription.request(2);
+        assertEquals("b", subscriber.next().getSimpleString());
+        assertEquals("c", subscriber.next().getSimpleString());
+        subscriber.subscription.request(1);
+
+        assertEquals(COMPLETE, subscriber.signals.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failsAfterTheElementsOnErrorsSentAfterTheData() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"users\": [{\"simpleString\": \"a\"}]},"
+                + "\"errors\": [{\"message\": \"partial failure\"}]}"));
+        RecordingSubscriber<TestModelSimple> subscriber = new RecordingSubscriber<TestModelSimple>();
+
+        GraphQLPublishers.queryElements(new GraphQLTemplate(HttpClientFetcher.Builder().build()), requestEntity(),
+                TestModelSimple.class, "users").subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals("a", subscriber.next().getSimpleString());
+        GraphQLException exception = (GraphQLException) subscriber.signals.poll(5, TimeUnit.SECONDS);
+        assertEquals("partial failure", exception.getMessage());
+        assertEquals(1, exception.getErrors().length);
+    }
+
+    @Test
+    public void readsTheWholeResponseWithOtherFetchers() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"users\": [{\"simpleString\": \"a\"},"
+                + "{\"simpleString\": \"b\"}]}}"));
+        GraphQLTemplate graphQLTemplate = GraphQLTemplate.Builder().cache(QueryCache.Builder().build()).build();
+        List<String> strings = new ArrayList<String>();
+        RecordingSubscriber<TestModelSimple> subscriber = new RecordingSubscriber<TestModelSimple>();
+
+        GraphQLPublishers.queryElements(graphQLTemplate, requestEntity(), TestModelSimple.class, "users")
+                .subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        strings.add(subscriber.next().getSimpleString());
+        strings.add(subscriber.next().getSimpleString());
+
+        assertEquals("[a, b]", strings.toString());
+        assertEquals(COMPLETE, subscriber.signals.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stopsOnCancel() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"users\": [{\"simpleString\": \"a\"},"
+                + "{\"simpleString\": \"b\"}]}}"));
+        RecordingSubscriber<TestModelSimple> subscriber = new RecordingSubscriber<TestModelSimple>();
+
+        GraphQLPublishers.queryElements(new GraphQLTemplate(), requestEntity(), TestModelSimple.class, "users")
+                .subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals("a", subscriber.next().getSimpleString());
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+
+        assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void rejectsNonPositiveDemand() throws Exception {
+        RecordingSubscriber<GraphQLResponseEntity<TestModelSimple>> subscriber =
+                new RecordingSubscriber<GraphQLResponseEntity<TestModelSimple>>();
+
+        GraphQLPublishers.query(new GraphQLTemplate(), requestEntity(), TestModelSimple.class).subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.signals.poll(5, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+        assertEquals(0, server.getRequestCount());
+    }
+
+    private GraphQLRequestEntity requestEntity() throws Exception {
+        return GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+    }
+
+    /**
+     * Records every signal in order, elements as is, failures as their exception and completion as {@link #COMPLETE}.
+     */
+    private static final class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        private final LinkedBlockingQueue<Object> signals = new LinkedBlockingQueue<Object>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            signals.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+
+        @SuppressWarnings("unchecked")
+        T next() throws InterruptedException {
+            return (T) signals.poll(5, TimeUnit.SECONDS);
+        }
+    }
+}
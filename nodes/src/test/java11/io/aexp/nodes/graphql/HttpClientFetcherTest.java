@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.exceptions.GraphQLException;
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpClientFetcherTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void sendsRequest() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple string\"}}"));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().build());
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer token");
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .headers(headers)
+                .request(TestModelSimple.class)
+                .build();
+
+        GraphQLResponseEntity<TestModelSimple> response = graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        assertEquals("simple string", response.getResponse().getSimpleString());
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("Bearer token", request.getHeader("Authorization"));
+        assertEquals("application/json", request.getHeader("Content-Type"));
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{}}", request.getBody().readUtf8());
+    }
+
+    @Test
+    public void errorStatusThrows() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400)
+                .setBody("{\"errors\": [{\"message\": \"Cannot query field\"}]}"));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().build());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLException exception = null;
+        try {
+            graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("400", exception.getStatus());
+        assertEquals("Client Error", exception.getMessage());
+        assertEquals("Cannot query field", exception.getErrors()[0].getMessage());
+    }
+
+    @Test
+    public void requestTimeout() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder()
+                .requestTimeout(Duration.ofMillis(200))
+                .build());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+        GraphQLException exception = null;
+        try {
+            graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        } catch (GraphQLException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertTrue(exception.getDescription().contains("timed out"));
+    }
+
+    @Test
+    public void concurrentRequestsShareClient() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple string\"}}"));
+        }
+        final GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build());
+        final GraphQLRequestEntity.RequestBuilder builder = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return graphQLTemplate.query(builder.build(), TestModelSimple.class).getResponse().getSimpleString();
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals("simple string", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void usesGivenClient() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpClientFetcher fetcher = HttpClientFetcher.Builder()
+                .httpClient(client)
+                .requestTimeout(Duration.ofSeconds(3))
+                .build();
+        assertSame(client, fetcher.getClient());
+        HttpRequest request = fetcher.newRequest(new URL("https://graphql.example.com"),
+                Collections.<String, String>emptyMap(), new byte[0]);
+        assertEquals(Duration.ofSeconds(3), request.timeout().get());
+        assertEquals("application/json", request.headers().firstValue("Accept").get());
+    }
+
+    @Test
+    public void givenClientCantBeCombinedWithClientOptions() {
+        IllegalStateException exception = null;
+        try {
+            HttpClientFetcher.Builder()
+                    .httpClient(HttpClient.newHttpClient())
+                    .executor(Executors.newSingleThreadExecutor())
+                    .build();
+        } catch (IllegalStateException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("httpClient can't be combined with version, executor or connectTimeout", exception.getMessage());
+    }
+
+    @Test
+    public void sendsAsyncWithoutBlocking() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple string\"}}"));
+        }
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().build());
+        GraphQLRequestEntity.RequestBuilder builder = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<CompletableFuture<GraphQLResponseEntity<TestModelSimple>>> futures =
+                    new ArrayList<CompletableFuture<GraphQLResponseEntity<TestModelSimple>>>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(graphQLTemplate.queryAsync(builder.build(), TestModelSimple.class, executor));
+            }
+            for (CompletableFuture<GraphQLResponseEntity<TestModelSimple>> future : futures) {
+                assertEquals("simple string", future.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void persistedQueryAsync() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(
+                "{\"errors\": [{\"message\": \"not found\", \"extensions\": {\"code\": \"PERSISTED_QUERY_NOT_FOUND\"}}]}"));
+        server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"registered\"}}"));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().persistedQueries(true).build());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        assertEquals("registered", graphQLTemplate.queryAsync(requestEntity, TestModelSimple.class)
+                .get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+        assertFalse(server.takeRequest().getBody().readUtf8().contains("\"query\""));
+        assertTrue(server.takeRequest().getBody().readUtf8().contains("\"query\""));
+    }
+
+    @Test
+    public void asyncErrorCompletesExceptionally() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setBody("{\"errors\": [{\"message\": \"unavailable\"}]}"));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().build());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+        ExecutionException exception = null;
+        try {
+            graphQLTemplate.queryAsync(requestEntity, TestModelSimple.class).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        GraphQLException cause = (GraphQLException) exception.getCause();
+        assertEquals("503", cause.getStatus());
+        assertEquals("Server Error", cause.getMessage());
+    }
+
+    @Test
+    public void httpGetReusesResponseWhenNotModified() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("{\"data\": {\"simpleString\": \"cached\"}}"));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().httpGet(true).build());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        GraphQLResponseEntity<TestModelSimple> first = graphQLTemplate.query(requestEntity, TestModelSimple.class);
+        GraphQLResponseEntity<TestModelSimple> second = graphQLTemplate.queryAsync(requestEntity, TestModelSimple.class)
+                .get(5, TimeUnit.SECONDS);
+        assertNotSame(first.getResponse(), second.getResponse());
+        assertEquals("cached", second.getResponse().getSimpleString());
+        assertEquals("GET", server.takeRequest().getMethod());
+        RecordedRequest conditional = server.takeRequest();
+        assertEquals("GET", conditional.getMethod());
+        assertEquals("\"v1\"", conditional.getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void compressesRequestAndReadsGzipResponse() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(gzip("{\"data\": {\"simpleString\": \"sync\"}}"))));
+        server.enqueue(new MockResponse().setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(gzip("{\"data\": {\"simpleString\": \"async\"}}"))));
+        GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().compressRequestsAbove(0).build());
+        GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/graphql").toString())
+                .request(TestModelSimple.class)
+                .build();
+
+        assertEquals("sync", graphQLTemplate.query(requestEntity, TestModelSimple.class).getResponse().getSimpleString());
+        assertEquals("async", graphQLTemplate.queryAsync(requestEntity, TestModelSimple.class).get(5, TimeUnit.SECONDS)
+                .getResponse().getSimpleString());
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip, deflate", request.getHeader("Accept-Encoding"));
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        GZIPInputStream body = new GZIPInputStream(new ByteArrayInputStream(request.getBody().readByteArray()));
+        assertEquals("{\"query\":\"query { simpleString } \",\"variables\":{}}",
+                new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] gzip(String value) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream outputStream = new GZIPOutputStream(compressed);
+        outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+        outputStream.close();
+        return compressed.toByteArray();
+    }
+}
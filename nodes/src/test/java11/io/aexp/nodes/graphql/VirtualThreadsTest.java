@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 American Express Travel Related Services Company, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.aexp.nodes.graphql;
+
+import io.aexp.nodes.graphql.models.TestModelSimple;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadsTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setupMockServer() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDownMockServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void createsExecutorWhenSupported() throws Exception {
+        if (VirtualThreads.isSupported()) {
+            ExecutorService executor = VirtualThreads.newExecutor();
+            assertNotNull(executor);
+            executor.shutdown();
+            return;
+        }
+        UnsupportedOperationException exception = null;
+        try {
+            VirtualThreads.newExecutor();
+        } catch (UnsupportedOperationException e) {
+            exception = e;
+        }
+        assertNotNull(exception);
+        assertEquals("Virtual threads need Java 21 or later", exception.getMessage());
+    }
+
+    @Test
+    public void executesParallelRequestsOnVirtualThreads() throws Exception {
+        Assume.assumeTrue(VirtualThreads.isSupported());
+        GraphQLParallelRequest.ParallelRequestBuilder builder = GraphQLParallelRequest.Builder().concurrency(6);
+        for (int i = 0; i < 6; i++) {
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple\"}}"));
+            builder.request(GraphQLRequestEntity.Builder()
+                    .url(server.url("/simple").toString())
+                    .request(TestModelSimple.class)
+                    .build(), TestModelSimple.class);
+        }
+        ExecutorService executor = VirtualThreads.newExecutor();
+        GraphQLParallelResponse response;
+        try {
+            response = new GraphQLTemplate().executeAll(builder.executor(executor).build());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(6, response.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("simple", response.get(i, TestModelSimple.class).getResponse().getSimpleString());
+        }
+    }
+
+    @Test
+    public void blockingCallsDoNotPinCarrierThreads() throws Exception {
+        Assume.assumeTrue(VirtualThreads.isSupported());
+        final GraphQLTemplate graphQLTemplate = new GraphQLTemplate(HttpClientFetcher.Builder().build());
+        final GraphQLRequestEntity requestEntity = GraphQLRequestEntity.Builder()
+                .url(server.url("/simple").toString())
+                .request(TestModelSimple.class)
+                .build();
+        for (int i = 0; i < 50; i++) {
+            server.enqueue(new MockResponse().setBody("{\"data\": {\"simpleString\": \"simple\"}}"));
+        }
+        Path dump = Files.createTempFile("virtual-threads", ".jfr");
+        List<RecordedEvent> events;
+        try {
+            Recording recording = new Recording();
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            ExecutorService executor = VirtualThreads.newExecutor();
+            List<Future<GraphQLResponseEntity<TestModelSimple>>> responses =
+                    new ArrayList<Future<GraphQLResponseEntity<TestModelSimple>>>();
+            for (int i = 0; i < 50; i++) {
+                responses.add(executor.submit(new Callable<GraphQLResponseEntity<TestModelSimple>>() {
+                    @Override
+                    public GraphQLResponseEntity<TestModelSimple> call() {
+                        return graphQLTemplate.query(requestEntity, TestModelSimple.class);
+                    }
+                }));
+            }
+            executor.shutdown();
+            for (Future<GraphQLResponseEntity<TestModelSimple>> response : responses) {
+                assertEquals("simple", response.get(5, TimeUnit.SECONDS).getResponse().getSimpleString());
+            }
+            recording.stop();
+            recording.dump(dump);
+            recording.close();
+            events = RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.delete(dump);
+        }
+        for (RecordedEvent event : events) {
+            if (event.getStackTrace() == null) continue;
+            for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                String type = frame.getMethod().getType().getName();
+                assertTrue("Pinned in " + type, !type.startsWith("io.aexp.nodes") && !type.startsWith("java.net.http"));
+            }
+        }
+    }
+}